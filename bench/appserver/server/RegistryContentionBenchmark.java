@@ -0,0 +1,155 @@
+package appserver.server;
+
+import appserver.comm.ConnectivityInfo;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class [RegistryContentionBenchmark] Measures how the throughput of the bookkeeping the server
+ * does per job scales with the number of dispatcher threads.
+ *
+ * Three operations are measured apart, as they contend on different things:
+ * - pick: choosing a satellite, which only reads the registry snapshot and the loads
+ * - update: marking a job as started and completing it again, which updates the counters of a satellite
+ * - dispatch: both, i.e. all bookkeeping per job apart from the network
+ * Each is run once through the lock-free LoadManager and once serialized on one monitor, as the
+ * server did before. Every measurement is warmed up, then repeated, and the median is reported.
+ *
+ * Scaling can only show with more processors than one; thread counts above the available
+ * processors are marked, their numbers show the cost of oversubscription, not of contention.
+ *
+ * Usage: RegistryContentionBenchmark [satellites] [milliseconds per run] [max threads] [runs]
+ *
+ * @author sampath
+ */
+public class RegistryContentionBenchmark {
+
+    private enum Operation { PICK, UPDATE, DISPATCH }
+
+    public static void main(String[] args) throws Exception {
+        int satelliteCount = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        long runMillis = args.length > 1 ? Long.parseLong(args[1]) : 500;
+        int processors = Runtime.getRuntime().availableProcessors();
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Math.max(4, 2 * processors);
+        int runs = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+        SatelliteRegistry registry = new SatelliteRegistry();
+        for (int i = 0; i < satelliteCount; i++) {
+            ConnectivityInfo info = new ConnectivityInfo();
+            info.setName("Satellite-" + i);
+            info.setPort(20000 + i);
+            registry.register(info);
+        }
+        LoadManager loadManager = new LoadManager(registry);
+        loadManager.setSchedulingPolicy(new LeastOutstandingPolicy());
+        List<SatelliteLoad> loads = registry.getLoads();
+        String[] satelliteNames = new String[loads.size()];
+        for (int i = 0; i < satelliteNames.length; i++) {
+            satelliteNames[i] = loads.get(i).getName();
+        }
+
+        System.out.println("processors: " + processors + ", satellites: " + satelliteCount
+                + ", " + runs + " runs of " + runMillis + " ms each, median ops/s");
+        if (processors == 1) {
+            System.out.println("only one processor: the threads take turns, no scaling can show");
+        }
+        for (Operation operation : Operation.values()) {
+            // warm up, so neither variant is measured while it is still interpreted
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                run(loadManager, satelliteNames, operation, false, threads, runMillis);
+                run(loadManager, satelliteNames, operation, true, threads, runMillis);
+            }
+
+            System.out.println();
+            System.out.println(operation.name().toLowerCase());
+            System.out.println("threads   lock-free ops/s   monitor ops/s   lock-free/monitor");
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                double[] lockFree = new double[runs];
+                double[] monitor = new double[runs];
+                // alternate the variants, so a drift of the machine affects both alike
+                for (int i = 0; i < runs; i++) {
+                    lockFree[i] = run(loadManager, satelliteNames, operation, false, threads, runMillis);
+                    monitor[i] = run(loadManager, satelliteNames, operation, true, threads, runMillis);
+                }
+                double lockFreeMedian = median(lockFree);
+                double monitorMedian = median(monitor);
+                System.out.printf("%7d %17.0f %15.0f %19.2f%s%n", threads, lockFreeMedian, monitorMedian,
+                        lockFreeMedian / monitorMedian, threads > processors ? "   (more threads than processors)" : "");
+            }
+        }
+    }
+
+    // runs the operation on the given number of threads, returns the operations per second
+    private static double run(LoadManager loadManager, String[] satelliteNames, Operation operation, boolean serialized,
+            int threads, long runMillis) throws InterruptedException {
+        LongAdder operations = new LongAdder();
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        Object monitor = new Object();
+        long[] deadline = new long[1];
+
+        Thread[] dispatchers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            // without a pick, each thread updates the satellites in turn, starting at its own
+            int first = i;
+            dispatchers[i] = new Thread(() -> {
+                try {
+                    ready.countDown();
+                    start.await();
+                    long count = 0;
+                    int next = first;
+                    while (System.nanoTime() < deadline[0]) {
+                        String satelliteName = satelliteNames[next++ % satelliteNames.length];
+                        if (serialized) {
+                            synchronized (monitor) {
+                                execute(loadManager, operation, satelliteName);
+                            }
+                        } else {
+                            execute(loadManager, operation, satelliteName);
+                        }
+                        count++;
+                    }
+                    operations.add(count);
+                } catch (Exception ex) {
+                    System.err.println("[RegistryContentionBenchmark.run] " + ex.getMessage());
+                }
+            });
+            dispatchers[i].start();
+        }
+
+        // start measuring once all threads are up, not while they are being started
+        ready.await();
+        long startNanos = System.nanoTime();
+        deadline[0] = startNanos + runMillis * 1_000_000;
+        start.countDown();
+        for (Thread dispatcher : dispatchers) {
+            dispatcher.join();
+        }
+        return operations.sum() * 1e9 / (System.nanoTime() - startNanos);
+    }
+
+    private static void execute(LoadManager loadManager, Operation operation, String satelliteName) throws Exception {
+        switch (operation) {
+            case PICK:
+                loadManager.nextSatellite();
+                break;
+            case UPDATE:
+                loadManager.jobStarted(satelliteName);
+                loadManager.jobCompleted(satelliteName, 1000);
+                break;
+            default:
+                satelliteName = loadManager.nextSatellite();
+                loadManager.jobStarted(satelliteName);
+                loadManager.jobCompleted(satelliteName, 1000);
+        }
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+}
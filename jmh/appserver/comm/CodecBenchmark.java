@@ -0,0 +1,70 @@
+package appserver.comm;
+
+import appserver.job.Job;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Class [CodecBenchmark] Compares the codecs of the FramedProtocol on the messages of a job,
+ * encoding them and decoding them again.
+ *
+ * @author sampath
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    @Param({"JAVA", "BINARY"})
+    public FramedProtocol.Codec codec;
+
+    private Message jobRequest;
+    private Message jobResult;
+    private byte[] jobRequestBytes;
+    private byte[] jobResultBytes;
+
+    @Setup
+    public void setUp() throws IOException {
+        Job job = new Job("appserver.job.impl.Fibonacci", 42, "interactive", 1);
+        job.setTrace(new TimingTrace());
+        jobRequest = new Message(MessageTypes.JOB_REQUEST, job, 17);
+        jobResult = new Message(MessageTypes.JOB_RESULT, 267914296, 17);
+
+        jobRequestBytes = FramedProtocol.encode(jobRequest, codec);
+        jobResultBytes = FramedProtocol.encode(jobResult, codec);
+    }
+
+    @Benchmark
+    public byte[] encodeJobRequest() throws IOException {
+        return FramedProtocol.encode(jobRequest, codec);
+    }
+
+    @Benchmark
+    public Message decodeJobRequest() throws IOException {
+        return FramedProtocol.decode(jobRequestBytes, 0, jobRequestBytes.length, codec);
+    }
+
+    @Benchmark
+    public byte[] encodeJobResult() throws IOException {
+        return FramedProtocol.encode(jobResult, codec);
+    }
+
+    @Benchmark
+    public Message decodeJobResult() throws IOException {
+        return FramedProtocol.decode(jobResultBytes, 0, jobResultBytes.length, codec);
+    }
+}
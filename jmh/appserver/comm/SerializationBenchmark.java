@@ -0,0 +1,98 @@
+package appserver.comm;
+
+import appserver.job.Job;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Class [SerializationBenchmark] Measures the round trip of the messages the server exchanges
+ * for every job, i.e. writing them to bytes and reading them back: with a fresh object stream
+ * per message as plain clients do, and as frames of the FramedProtocol.
+ *
+ * @author sampath
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+
+    private Message jobRequest;
+    private Message jobResult;
+    private ConnectivityInfo satelliteInfo;
+    private byte[] jobRequestFrame;
+
+    @Setup
+    public void setUp() throws IOException {
+        jobRequest = new Message(MessageTypes.JOB_REQUEST, new Job("appserver.job.impl.Fibonacci", 42, "interactive", 1), 17);
+        jobResult = new Message(MessageTypes.JOB_RESULT, 267914296, 17);
+
+        satelliteInfo = new ConnectivityInfo();
+        satelliteInfo.setName("Earth");
+        satelliteInfo.setHost("127.0.0.1");
+        satelliteInfo.setPort(23658);
+        satelliteInfo.setCapacity(SatelliteCapacity.measure(8));
+
+        jobRequestFrame = frame(jobRequest);
+    }
+
+    @Benchmark
+    public Object jobRequestRoundTrip() throws IOException, ClassNotFoundException {
+        return roundTrip(jobRequest);
+    }
+
+    @Benchmark
+    public Object jobResultRoundTrip() throws IOException, ClassNotFoundException {
+        return roundTrip(jobResult);
+    }
+
+    @Benchmark
+    public Object connectivityInfoRoundTrip() throws IOException, ClassNotFoundException {
+        return roundTrip(new Message(MessageTypes.HEARTBEAT, satelliteInfo));
+    }
+
+    @Benchmark
+    public Message jobRequestFrameRoundTrip() throws IOException {
+        return FramedProtocol.readFrame(new DataInputStream(new ByteArrayInputStream(frame(jobRequest))));
+    }
+
+    @Benchmark
+    public Message jobRequestFrameRead() throws IOException {
+        return FramedProtocol.readFrame(new DataInputStream(new ByteArrayInputStream(jobRequestFrame)));
+    }
+
+    // writes an object to a fresh object stream and reads it back
+    private static Object roundTrip(Object object) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (ObjectOutputStream writeToNet = new ObjectOutputStream(bytes)) {
+            writeToNet.writeObject(object);
+        }
+        try (ObjectInputStream readFromNet = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return readFromNet.readObject();
+        }
+    }
+
+    private static byte[] frame(Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        FramedProtocol.writeFrame(new DataOutputStream(bytes), message);
+        return bytes.toByteArray();
+    }
+}
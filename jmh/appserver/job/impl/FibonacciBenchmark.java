@@ -0,0 +1,65 @@
+package appserver.job.impl;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Class [FibonacciBenchmark] Compares the fast doubling of FibonacciAux with the plain double
+ * recursion it replaced, on the inputs FibonacciClient sends, and measures fast doubling alone
+ * on inputs far beyond the reach of the recursion.
+ *
+ * @author sampath
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FibonacciBenchmark {
+
+    // inputs of FibonacciClient, whose numbers fit in an int
+    @State(Scope.Thread)
+    public static class SmallInput {
+
+        @Param({"20", "30", "40"})
+        public int n;
+    }
+
+    // inputs with numbers of thousands to hundreds of thousands of digits
+    @State(Scope.Thread)
+    public static class LargeInput {
+
+        @Param({"1000", "100000", "1000000"})
+        public int n;
+    }
+
+    @Benchmark
+    public int recursive(SmallInput input) {
+        return recursive(input.n);
+    }
+
+    @Benchmark
+    public BigInteger fastDoubling(SmallInput input) {
+        return FibonacciAux.fibonacci(input.n);
+    }
+
+    @Benchmark
+    public BigInteger fastDoublingLarge(LargeInput input) {
+        return FibonacciAux.fibonacci(input.n);
+    }
+
+    // the plain double recursion FibonacciAux used before
+    private static int recursive(int n) {
+        return n < 2 ? n : recursive(n - 1) + recursive(n - 2);
+    }
+}
@@ -0,0 +1,61 @@
+package appserver.satellite;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Class [ClassDataBenchmark] Measures how the HTTPClassLoader parses the reply of the web server
+ * to a request for a class file, i.e. skips the HTTP header and reads the bytes of the class,
+ * without the network and without logging the header. The reply is the one SimpleWebServer
+ * sends for the Fibonacci tool.
+ *
+ * @author sampath
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClassDataBenchmark {
+
+    private byte[] reply;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] classFile;
+        try (InputStream input = ClassDataBenchmark.class.getResourceAsStream("/appserver/job/impl/Fibonacci.class")) {
+            classFile = input.readAllBytes();
+        }
+        String header = "HTTP/1.0 200 OK\r\n"
+                + "Date: Thu Jan 01 00:00:00 UTC 2026\r\n"
+                + "Server: WebServer Version Feb 2000\r\n"
+                + "Content-length: " + classFile.length + "\r\n"
+                + "Content-type: application/octet-stream\r\n\r\n";
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(header.getBytes(StandardCharsets.US_ASCII));
+        bytes.write(classFile);
+        reply = bytes.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] readClassData() throws IOException, ClassNotFoundException {
+        return HTTPClassLoader.readClassData(new DataInputStream(new ByteArrayInputStream(reply)), null);
+    }
+}
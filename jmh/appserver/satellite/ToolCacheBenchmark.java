@@ -0,0 +1,49 @@
+package appserver.satellite;
+
+import appserver.job.Tool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Class [ToolCacheBenchmark] Measures looking up a tool the satellite used before, i.e. a hit
+ * in its tools cache, which every job but the first of a tool goes through, with the workers
+ * of a satellite looking up tools at the same time.
+ *
+ * The satellite is read from the configuration in config/, so the benchmark is run from the
+ * project directory. The tools are on the class path, so they are not loaded over the network.
+ *
+ * @author sampath
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ToolCacheBenchmark {
+
+    private Satellite satellite;
+
+    @Setup
+    public void setUp() throws Exception {
+        satellite = new Satellite("config/Satellite.Earth.properties", "config/WebServer.properties", "config/Server.properties");
+        // fill the cache
+        satellite.getToolObject("appserver.job.impl.PlusOne");
+    }
+
+    @Benchmark
+    public Tool cacheHit() throws Exception {
+        return satellite.getToolObject("appserver.job.impl.PlusOne");
+    }
+}
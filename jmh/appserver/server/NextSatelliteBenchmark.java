@@ -0,0 +1,70 @@
+package appserver.server;
+
+import appserver.comm.ConnectivityInfo;
+import appserver.job.Job;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Class [NextSatelliteBenchmark] Measures the dispatch decision the server makes for every job,
+ * i.e. picking a satellite and counting the job on it in one step, and completing the job, under
+ * contention of many dispatcher threads sharing one LoadManager, for each scheduling policy,
+ * without and with a job limit per satellite.
+ *
+ * Run with -t to change the number of threads, e.g. -t 1 for the uncontended case.
+ *
+ * @author sampath
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class NextSatelliteBenchmark {
+
+    @Param({"round-robin", "least-outstanding", "power-of-two", "ewma-latency", "consistent-hash", "capacity-weighted"})
+    public String policy;
+
+    @Param({"8"})
+    public int satellites;
+
+    @Param({"0", "16"})
+    public int maxJobsPerSatellite;
+
+    private LoadManager loadManager;
+    private final Job job = new Job("appserver.job.impl.PlusOne", 42);
+
+    @Setup
+    public void setUp() {
+        SatelliteRegistry registry = new SatelliteRegistry();
+        for (int i = 0; i < satellites; i++) {
+            ConnectivityInfo info = new ConnectivityInfo();
+            info.setName("Satellite-" + i);
+            info.setPort(20000 + i);
+            registry.register(info);
+        }
+        loadManager = new LoadManager(registry);
+        loadManager.setSchedulingPolicy(SchedulingPolicy.forName(policy));
+        loadManager.setMaxJobsPerSatellite(maxJobsPerSatellite);
+    }
+
+    @Benchmark
+    public String dispatchDecision() throws Exception {
+        String satelliteName = loadManager.startJob(job, null, true);
+        loadManager.jobCompleted(satelliteName, 1000);
+        return satelliteName;
+    }
+}
@@ -0,0 +1,104 @@
+package appserver.client;
+
+import appserver.comm.FetchRequest;
+import appserver.comm.JobStatus;
+import appserver.comm.Message;
+import appserver.comm.MessageTypes;
+import appserver.job.Job;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.Properties;
+import utils.PropertyHandler;
+
+/**
+ * The class [AsyncJobClient] submits Fibonacci jobs to the Application Server without
+ * waiting for them, and fetches the results later on.
+ *
+ * Every request is a short connection of its own, so no connection is held open
+ * while a job is worked on.
+ *
+ * @author manoj
+ */
+public class AsyncJobClient implements MessageTypes {
+
+    // how long the server may hold a fetch request while the result is not there
+    static final long FETCH_WAIT_MILLIS = 5000;
+
+    String host = null;
+    int port;
+
+    Properties properties;
+
+    public AsyncJobClient(String serverPropertiesFile) {
+        try {
+            properties = new PropertyHandler(serverPropertiesFile);
+            host = properties.getProperty("HOST");
+            port = Integer.parseInt(properties.getProperty("PORT"));
+        } catch (IOException | NumberFormatException ex) {
+            System.err.println("[AsyncJobClient.AsyncJobClient] : " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Submits a job.
+     *
+     * @return the id of the job, -1 if the server rejected it
+     */
+    public long submit(Job job) throws IOException, ClassNotFoundException {
+        Object reply = request(new Message(SUBMIT_JOB, job));
+        return reply instanceof Long ? (Long) reply : -1;
+    }
+
+    /**
+     * Returns the status of a submitted job.
+     */
+    public JobStatus status(long jobId) throws IOException, ClassNotFoundException {
+        return (JobStatus) request(new Message(JOB_STATUS, jobId));
+    }
+
+    /**
+     * Fetches the result of a submitted job, waiting for it as long as it is running.
+     *
+     * @return the result, or the status of the job if it did not deliver a result
+     */
+    public Object fetch(long jobId) throws IOException, ClassNotFoundException {
+        Object reply;
+        do {
+            reply = request(new Message(FETCH_RESULT, new FetchRequest(jobId, FETCH_WAIT_MILLIS)));
+        } while (reply == JobStatus.RUNNING);
+        return reply;
+    }
+
+    // sends a request over a connection of its own and returns the reply
+    private Object request(Message message) throws IOException, ClassNotFoundException {
+        try (Socket server = new Socket(host, port)) {
+            ObjectOutputStream writeToNet = new ObjectOutputStream(server.getOutputStream());
+            writeToNet.writeObject(message);
+
+            ObjectInputStream readFromNet = new ObjectInputStream(server.getInputStream());
+            return readFromNet.readObject();
+        }
+    }
+
+    public static void main(String[] args) {
+        AsyncJobClient client = new AsyncJobClient(args.length == 1 ? args[0] : "../../config/Server.properties");
+
+        try {
+            // submit the Fibonacci jobs for 1 to 46 right away
+            long[] jobIds = new long[46];
+            for (int i = 0; i < jobIds.length; i++) {
+                jobIds[i] = client.submit(new Job("appserver.job.impl.Fibonacci", i + 1));
+            }
+
+            // then collect the results
+            for (int i = 0; i < jobIds.length; i++) {
+                Object result = jobIds[i] == -1 ? JobStatus.REJECTED : client.fetch(jobIds[i]);
+                System.out.println("Fibonacci Number for " + (i + 1) + " : " + result);
+            }
+        } catch (IOException | ClassNotFoundException ex) {
+            System.err.println("[AsyncJobClient.main] Error occurred : " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package appserver.client;
+
+import appserver.comm.Message;
+import appserver.comm.MessageTypes;
+import appserver.job.Job;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import utils.PropertyHandler;
+
+/**
+ * Class [BatchClient] Sends many PlusOne jobs to the Application Server in one JOB_BATCH message,
+ * i.e. over one connection, and gets all results back in one list, in the order of the jobs.
+ *
+ * @author manoj
+ */
+public class BatchClient implements MessageTypes {
+
+    String host = null;
+    int port;
+
+    Properties properties;
+
+    public BatchClient(String serverPropertiesFile) {
+        try {
+            properties = new PropertyHandler(serverPropertiesFile);
+            host = properties.getProperty("HOST");
+            port = Integer.parseInt(properties.getProperty("PORT"));
+        } catch (IOException | NumberFormatException ex) {
+            System.err.println("[BatchClient.BatchClient] : " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Sends a batch of jobs and waits for the results.
+     *
+     * @param jobs the jobs
+     * @return the results, in the order of the jobs
+     */
+    public List<?> run(ArrayList<Job> jobs) throws IOException, ClassNotFoundException {
+        try (Socket server = new Socket(host, port)) {
+            ObjectOutputStream writeToNet = new ObjectOutputStream(server.getOutputStream());
+            writeToNet.writeObject(new Message(JOB_BATCH, jobs));
+
+            ObjectInputStream readFromNet = new ObjectInputStream(server.getInputStream());
+            return (List<?>) readFromNet.readObject();
+        }
+    }
+
+    public static void main(String[] args) {
+        BatchClient client = new BatchClient(args.length > 0 ? args[0] : "../../config/Server.properties");
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        ArrayList<Job> jobs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            jobs.add(new Job("appserver.job.impl.PlusOne", i, "batch", Job.DEFAULT_PRIORITY));
+        }
+
+        try {
+            long start = System.nanoTime();
+            List<?> results = client.run(jobs);
+            long elapsed = System.nanoTime() - start;
+
+            // jobs the server was too busy to take come back as SERVER_BUSY messages
+            int rejected = 0;
+            for (Object result : results) {
+                if (result instanceof Message && ((Message) result).getType() == SERVER_BUSY) {
+                    rejected++;
+                }
+            }
+            System.out.println("RESULTS: " + results.size() + ", first: " + results.get(0) + ", last: " + results.get(results.size() - 1) + ", rejected: " + rejected);
+            System.out.printf("%d jobs in %.1f ms%n", count, elapsed / 1e6);
+        } catch (IOException | ClassNotFoundException ex) {
+            System.err.println("[BatchClient.main] Error occurred : " + ex.getMessage());
+        }
+    }
+}
@@ -2,6 +2,7 @@ package appserver.client;
 
 import appserver.comm.Message;
 import static appserver.comm.MessageTypes.JOB_REQUEST;
+import static appserver.comm.MessageTypes.SERVER_BUSY;
 import appserver.job.Job;
 import java.io.IOException;
 import java.io.ObjectInputStream;
@@ -56,10 +57,16 @@ public class FibonacciClient extends Thread {
             writeToNet.writeObject(message);
             
             // reading result back in from application server
-            // for simplicity, the result is not encapsulated in a message
+            // for simplicity, the result is not encapsulated in a message,
+            // unless the server was too busy to take the job
             ObjectInputStream readFromNet = new ObjectInputStream(server.getInputStream());
-            Integer result = (Integer) readFromNet.readObject();
-            System.out.println("Fibonacci Number for " + number +  " : " + result);
+            Object reply = readFromNet.readObject();
+            if (reply instanceof Message && ((Message) reply).getType() == SERVER_BUSY) {
+                System.err.println("Server busy, retry after " + ((Message) reply).getContent() + " ms");
+                return;
+            }
+            // the result is exact, as BigInteger
+            System.out.println("Fibonacci Number for " + number +  " : " + reply);
         } catch (IOException | ClassNotFoundException ex) {
             System.err.println("[FibonacciClient.run] Error occurred : " + ex.getMessage());
         }
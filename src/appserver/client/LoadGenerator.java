@@ -0,0 +1,357 @@
+package appserver.client;
+
+import appserver.job.Job;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import utils.LatencyHistogram;
+import utils.PropertyHandler;
+
+/**
+ * The class [LoadGenerator] drives the Application Server at a fixed rate of requests, a mix of
+ * tools and a distribution of parameters given in a properties file, and reports the throughput
+ * and the latency percentiles to a file, to compare scheduling policies, transports etc.
+ *
+ * The load is open-loop: requests are sent at their planned times over pipelined connections,
+ * whether or not earlier requests completed, as real clients do. The latency of a request is
+ * taken from its planned time, not from when it was sent, so a stall of the server or of the
+ * generator itself counts against all requests that should have been sent meanwhile, instead of
+ * hiding them (coordinated omission). The latency from the actual send is reported as well.
+ * Only requests that got a result count in the latencies; failed requests, i.e. those that got
+ * no result or null, are counted apart. Requests still out at the end are counted as lost, and
+ * their time so far counts in the corrected latencies, so a server that stops answering does not
+ * look fast.
+ *
+ * The generator can start the server and a number of satellites itself, as local processes.
+ *
+ * @author sampath
+ */
+public class LoadGenerator {
+
+    // a tool of the mix, with its share of the requests and the distribution of its parameter
+    private static final class ToolShare {
+
+        final String toolName;
+        final int weight;
+        // constant, uniform or exponential
+        final String distribution;
+        final double[] arguments;
+
+        ToolShare(String toolName, int weight, String parameters) {
+            this.toolName = toolName;
+            this.weight = weight;
+            String[] parts = parameters.trim().split(":");
+            this.distribution = parts[0];
+            this.arguments = new double[parts.length - 1];
+            for (int i = 1; i < parts.length; i++) {
+                arguments[i - 1] = Double.parseDouble(parts[i]);
+            }
+            if (!distribution.equals("constant") && !distribution.equals("uniform") && !distribution.equals("exponential")) {
+                throw new IllegalArgumentException("Unknown parameter distribution " + parameters + " of " + toolName);
+            }
+        }
+
+        int nextParameter(Random random) {
+            switch (distribution) {
+                case "uniform":
+                    return (int) arguments[0] + random.nextInt((int) arguments[1] - (int) arguments[0] + 1);
+                case "exponential":
+                    return (int) Math.round(-arguments[0] * Math.log(1 - random.nextDouble()));
+                default:
+                    return (int) arguments[0];
+            }
+        }
+    }
+
+    private final String serverPropertiesFile;
+    private final double rate;
+    private final long durationMillis;
+    private final long warmupMillis;
+    private final int connectionCount;
+    private final List<ToolShare> toolMix = new ArrayList<>();
+    private int totalWeight = 0;
+    private final String reportFile;
+    // local processes
+    private final int launchSatellites;
+    private final String satellitePropertiesFile;
+    private final String webServerPropertiesFile;
+    private final List<Process> processes = new ArrayList<>();
+
+    // a measured request, counted once, when it completes or is given up
+    private static final class Request {
+
+        final long planned;
+        final CompletableFuture<Object> result;
+        final AtomicBoolean counted = new AtomicBoolean();
+
+        Request(long planned, CompletableFuture<Object> result) {
+            this.planned = planned;
+            this.result = result;
+        }
+    }
+
+    // the latencies of the successful requests from the planned send time, and from the actual one
+    private final LatencyHistogram correctedLatencies = new LatencyHistogram();
+    private final LatencyHistogram serviceLatencies = new LatencyHistogram();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    // the largest delay of a send behind its planned time, in nanoseconds
+    private final AtomicLong maxSendDelay = new AtomicLong();
+
+    public LoadGenerator(String loadGeneratorPropertiesFile) throws IOException {
+        Properties properties = new PropertyHandler(loadGeneratorPropertiesFile);
+
+        serverPropertiesFile = properties.getProperty("SERVER_PROPERTIES", "../../config/Server.properties").trim();
+        rate = Double.parseDouble(properties.getProperty("RATE", "100").trim());
+        durationMillis = Long.parseLong(properties.getProperty("DURATION", "30000").trim());
+        warmupMillis = Long.parseLong(properties.getProperty("WARMUP", "5000").trim());
+        connectionCount = Integer.parseInt(properties.getProperty("CONNECTIONS", "4").trim());
+        reportFile = properties.getProperty("REPORT_FILE", "loadgenerator-report.txt").trim();
+        System.out.println("[LoadGenerator.LoadGenerator] RATE: " + rate + "/s, DURATION: " + durationMillis
+                + " ms, WARMUP: " + warmupMillis + " ms, CONNECTIONS: " + connectionCount);
+
+        // TOOL_MIX = <tool>:<weight>, ... and PARAMETERS.<tool> = constant:<n>, uniform:<min>:<max> or exponential:<mean>
+        for (String entry : properties.getProperty("TOOL_MIX", "appserver.job.impl.PlusOne:1").split(",")) {
+            String[] parts = entry.trim().split(":");
+            String toolName = parts[0].trim();
+            int weight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+            String parameters = properties.getProperty("PARAMETERS." + toolName, "constant:42");
+            toolMix.add(new ToolShare(toolName, weight, parameters));
+            totalWeight += weight;
+            System.out.println("[LoadGenerator.LoadGenerator] tool " + toolName + ", weight: " + weight + ", parameters: " + parameters.trim());
+        }
+
+        launchSatellites = Integer.parseInt(properties.getProperty("LAUNCH_SATELLITES", "0").trim());
+        satellitePropertiesFile = properties.getProperty("SATELLITE_PROPERTIES", "../../config/Satellite.Earth.properties").trim();
+        webServerPropertiesFile = properties.getProperty("WEB_SERVER_PROPERTIES", "../../config/WebServer.properties").trim();
+        System.out.println("[LoadGenerator.LoadGenerator] LAUNCH_SATELLITES: " + launchSatellites);
+    }
+
+    /**
+     * Runs the load, and writes the report.
+     */
+    public void run() throws IOException, InterruptedException {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stopProcesses));
+        if (launchSatellites > 0) {
+            launchLocally();
+        }
+
+        List<PipelinedClient> clients = new ArrayList<>();
+        for (int i = 0; i < connectionCount; i++) {
+            clients.add(new PipelinedClient(serverPropertiesFile));
+        }
+
+        Random random = new Random(42);
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+        long end = measureFrom + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        List<Request> pending = new ArrayList<>();
+
+        System.out.println("[LoadGenerator.run] Warming up for " + warmupMillis + " ms, then measuring for " + durationMillis + " ms");
+        for (long request = 0; ; request++) {
+            long planned = start + request * intervalNanos;
+            if (planned >= end) {
+                break;
+            }
+            long now;
+            while ((now = System.nanoTime()) < planned) {
+                LockSupport.parkNanos(planned - now);
+            }
+            boolean measured = planned >= measureFrom;
+            if (measured) {
+                maxSendDelay.accumulateAndGet(now - planned, Math::max);
+            }
+
+            long sent = now;
+            CompletableFuture<Object> result;
+            try {
+                result = clients.get((int) (request % clients.size())).submit(nextJob(random));
+            } catch (IOException ex) {
+                result = CompletableFuture.failedFuture(ex);
+            }
+            if (!measured) {
+                continue;
+            }
+            Request measuredRequest = new Request(planned, result);
+            pending.add(measuredRequest);
+            result.whenComplete((value, failure) -> {
+                long done = System.nanoTime();
+                if (!measuredRequest.counted.compareAndSet(false, true)) {
+                    // given up already
+                    return;
+                }
+                // a job that could not be done comes back as null
+                if (failure != null || value == null) {
+                    failed.incrementAndGet();
+                    return;
+                }
+                completed.incrementAndGet();
+                correctedLatencies.record(done - planned);
+                serviceLatencies.record(done - sent);
+            });
+        }
+
+        // give the requests still out a while to complete, those that do not are lost
+        long elapsed = System.nanoTime() - measureFrom;
+        List<CompletableFuture<Object>> results = new ArrayList<>(pending.size());
+        for (Request request : pending) {
+            results.add(request.result);
+        }
+        try {
+            CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+        } catch (Exception ex) {
+            System.err.println("[LoadGenerator.run] Warning: not all requests completed: " + ex.getMessage());
+        }
+        long givenUp = System.nanoTime();
+        for (Request request : pending) {
+            if (request.counted.compareAndSet(false, true)) {
+                lost.incrementAndGet();
+                correctedLatencies.record(givenUp - request.planned);
+            }
+        }
+        for (PipelinedClient client : clients) {
+            client.close();
+        }
+
+        String report = report(pending.size(), elapsed);
+        System.out.println(report);
+        try (PrintWriter writeToFile = new PrintWriter(new FileWriter(reportFile, true))) {
+            writeToFile.println(report);
+        }
+        System.out.println("[LoadGenerator.run] Report appended to " + new File(reportFile).getAbsolutePath());
+        stopProcesses();
+    }
+
+    // a job of a tool picked by the weights of the mix
+    private Job nextJob(Random random) {
+        int pick = random.nextInt(totalWeight);
+        for (ToolShare tool : toolMix) {
+            pick -= tool.weight;
+            if (pick < 0) {
+                return new Job(tool.toolName, tool.nextParameter(random));
+            }
+        }
+        throw new IllegalStateException("empty tool mix");
+    }
+
+    // the report of a run
+    private String report(int sent, long elapsedNanos) {
+        Properties serverProperties = new Properties();
+        try {
+            serverProperties = new PropertyHandler(serverPropertiesFile);
+        } catch (IOException ex) {
+            // the report goes without the server configuration
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append("=== LoadGenerator ").append(new Date()).append(" ===\n");
+        report.append(String.format("rate: %.1f/s, duration: %d ms, connections: %d, satellites launched: %d%n",
+                rate, durationMillis, connectionCount, launchSatellites));
+        report.append("tool mix:");
+        for (ToolShare tool : toolMix) {
+            report.append(' ').append(tool.toolName).append(':').append(tool.weight);
+        }
+        report.append('\n');
+        report.append("server: SCHEDULING_POLICY ").append(serverProperties.getProperty("SCHEDULING_POLICY", "-").trim())
+                .append(", TRANSPORT ").append(serverProperties.getProperty("TRANSPORT", "-").trim())
+                .append(", DISPATCH_MODE ").append(serverProperties.getProperty("DISPATCH_MODE", "-").trim()).append('\n');
+        report.append(String.format("sent: %d, completed: %d, failed: %d, lost: %d, throughput: %.1f/s, max send delay: %.2f ms%n",
+                sent, completed.get(), failed.get(), lost.get(),
+                completed.get() / (elapsedNanos / 1e9), maxSendDelay.get() / 1e6));
+        // lost requests count in the corrected latencies with their time until they were given up
+        report.append(percentiles("latency (corrected)", correctedLatencies)).append('\n');
+        report.append(percentiles("latency (from send)", serviceLatencies)).append('\n');
+        return report.toString();
+    }
+
+    private static String percentiles(String name, LatencyHistogram latencies) {
+        return String.format("%s ms: p50 %.2f, p90 %.2f, p99 %.2f, p999 %.2f, max %.2f, mean %.2f", name,
+                latencies.getPercentile(50) / 1e6, latencies.getPercentile(90) / 1e6, latencies.getPercentile(99) / 1e6,
+                latencies.getPercentile(99.9) / 1e6, latencies.getMax() / 1e6,
+                latencies.getCount() == 0 ? 0.0 : latencies.getSum() / 1e6 / latencies.getCount());
+    }
+
+    // starts the server and the satellites as local processes, with the class path of this process
+    private void launchLocally() throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String classPath = System.getProperty("java.class.path");
+
+        Properties serverProperties = new PropertyHandler(serverPropertiesFile);
+        String host = serverProperties.getProperty("HOST").trim();
+        int port = Integer.parseInt(serverProperties.getProperty("PORT").trim());
+
+        System.out.println("[LoadGenerator.launchLocally] Starting the server");
+        processes.add(new ProcessBuilder(java, "-cp", classPath, "appserver.server.Server", serverPropertiesFile)
+                .redirectErrorStream(true).redirectOutput(new File("loadgenerator-server.log")).start());
+        waitForPort(host, port);
+
+        // every satellite gets the properties of the template, with a name and port of its own
+        Properties template = new PropertyHandler(satellitePropertiesFile);
+        int basePort = Integer.parseInt(template.getProperty("PORT").trim());
+        for (int i = 0; i < launchSatellites; i++) {
+            Properties satelliteProperties = new Properties();
+            satelliteProperties.putAll(template);
+            satelliteProperties.setProperty("NAME", "Load-" + i);
+            satelliteProperties.setProperty("PORT", String.valueOf(basePort + i));
+            File satelliteFile = File.createTempFile("Satellite.Load-" + i, ".properties");
+            satelliteFile.deleteOnExit();
+            try (OutputStream output = new FileOutputStream(satelliteFile)) {
+                satelliteProperties.store(output, "Satellite launched by the LoadGenerator");
+            }
+
+            System.out.println("[LoadGenerator.launchLocally] Starting satellite Load-" + i + " on port " + (basePort + i));
+            processes.add(new ProcessBuilder(java, "-cp", classPath, "appserver.satellite.Satellite",
+                    satelliteFile.getAbsolutePath(), webServerPropertiesFile, serverPropertiesFile)
+                    .redirectErrorStream(true).redirectOutput(new File("loadgenerator-satellite-" + i + ".log")).start());
+        }
+        // satellites register right after they started
+        Thread.sleep(2000);
+    }
+
+    // waits until the server accepts connections
+    private static void waitForPort(String host, int port) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                new Socket(host, port).close();
+                return;
+            } catch (IOException ex) {
+                if (attempt == 100) {
+                    throw new IOException("Server did not start on " + host + ":" + port, ex);
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private synchronized void stopProcesses() {
+        for (Process process : processes) {
+            process.destroy();
+        }
+        processes.clear();
+    }
+
+    public static void main(String[] args) {
+        try {
+            new LoadGenerator(args.length == 1 ? args[0] : "../../config/LoadGenerator.properties").run();
+        } catch (IOException | InterruptedException | IllegalArgumentException ex) {
+            System.err.println("[LoadGenerator.main] Error occurred : " + ex.getMessage());
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,184 @@
+package appserver.client;
+
+import appserver.comm.FramedProtocol;
+import appserver.comm.Message;
+import appserver.comm.MessageTypes;
+import appserver.job.Job;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import utils.PropertyHandler;
+
+/**
+ * The class [PipelinedClient] keeps one connection to the Application Server open and
+ * sends requests over it in the framed protocol, without waiting for the replies of earlier requests.
+ * The messages are encoded with the codec named by CODEC in the server properties.
+ * The replies come back as the satellites finish, in any order, and are matched
+ * with their requests by correlation id. The chunks of a streamed result can be taken as they come.
+ *
+ * @author manoj
+ */
+public class PipelinedClient implements MessageTypes {
+
+    private final Socket server;
+    private final DataOutputStream writeToNet;
+    private final DataInputStream readFromNet;
+    // the codec of the frames, CODEC in the server properties
+    private final FramedProtocol.Codec codec;
+
+    // requests waiting for their reply, keyed by correlation id
+    private final ConcurrentHashMap<Long, CompletableFuture<Object>> pendingReplies = new ConcurrentHashMap<>();
+    // the consumers of the chunks of streamed results among them
+    private final ConcurrentHashMap<Long, Consumer<byte[]>> chunkConsumers = new ConcurrentHashMap<>();
+    private final AtomicLong nextCorrelationId = new AtomicLong();
+
+    /**
+     * Connects to the server given in the properties file and announces the framed protocol.
+     */
+    public PipelinedClient(String serverPropertiesFile) throws IOException {
+        Properties properties = new PropertyHandler(serverPropertiesFile);
+        String host = properties.getProperty("HOST").trim();
+        int port = Integer.parseInt(properties.getProperty("PORT").trim());
+        codec = FramedProtocol.Codec.forName(properties.getProperty("CODEC", "java"));
+
+        server = new Socket(host, port);
+        server.setTcpNoDelay(true);
+        writeToNet = new DataOutputStream(new BufferedOutputStream(server.getOutputStream()));
+        readFromNet = new DataInputStream(new BufferedInputStream(server.getInputStream()));
+
+        writeToNet.writeInt(codec.getPreamble());
+        writeToNet.flush();
+
+        Thread reader = new Thread(this::readReplies, "PipelinedClient-Reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Sends a job request without waiting for the result.
+     *
+     * @param job the job to be done
+     * @return the future result of the job, it fails if the server was too busy to take the job
+     */
+    public CompletableFuture<Object> submit(Job job) throws IOException {
+        return send(JOB_REQUEST, job);
+    }
+
+    /**
+     * Sends a job request whose result may be streamed, without waiting for the result.
+     * The job asks for its result in chunks, such jobs are neither hedged nor retried by the server.
+     *
+     * @param job the job to be done
+     * @param resultChunks takes the chunks of a streamed result as they come, on the reader thread
+     * @return the future result of the job, a StreamedResult after the last chunk if the result was streamed
+     */
+    public CompletableFuture<Object> submit(Job job, Consumer<byte[]> resultChunks) throws IOException {
+        job.setChunkedResult(true);
+        return send(JOB_REQUEST, job, resultChunks);
+    }
+
+    /**
+     * Sends a request of any type without waiting for the reply.
+     *
+     * @return the future reply content
+     */
+    public CompletableFuture<Object> send(int type, Object content) throws IOException {
+        return send(type, content, null);
+    }
+
+    private CompletableFuture<Object> send(int type, Object content, Consumer<byte[]> resultChunks) throws IOException {
+        long correlationId = nextCorrelationId.incrementAndGet();
+        CompletableFuture<Object> reply = new CompletableFuture<>();
+        pendingReplies.put(correlationId, reply);
+        if (resultChunks != null) {
+            chunkConsumers.put(correlationId, resultChunks);
+        }
+
+        try {
+            synchronized (writeToNet) {
+                FramedProtocol.writeFrame(writeToNet, new Message(type, content, correlationId), codec);
+            }
+        } catch (IOException ex) {
+            pendingReplies.remove(correlationId);
+            chunkConsumers.remove(correlationId);
+            throw ex;
+        }
+        return reply;
+    }
+
+    /**
+     * Closes the connection, requests still waiting for their reply fail.
+     */
+    public void close() throws IOException {
+        server.close();
+    }
+
+    // reader loop, matches replies with the requests waiting for them
+    private void readReplies() {
+        try {
+            while (true) {
+                Message reply = FramedProtocol.readFrame(readFromNet, codec);
+                if (reply.getType() == RESULT_CHUNK) {
+                    Consumer<byte[]> resultChunks = chunkConsumers.get(reply.getCorrelationId());
+                    if (resultChunks != null) {
+                        resultChunks.accept((byte[]) reply.getContent());
+                    } else {
+                        // chunks of a request that did not ask for them, its result cannot be put together
+                        CompletableFuture<Object> pendingReply = pendingReplies.remove(reply.getCorrelationId());
+                        if (pendingReply != null) {
+                            pendingReply.completeExceptionally(new IOException("Unexpected chunk of a streamed result"));
+                        }
+                    }
+                    continue;
+                }
+                chunkConsumers.remove(reply.getCorrelationId());
+                CompletableFuture<Object> pendingReply = pendingReplies.remove(reply.getCorrelationId());
+                if (pendingReply == null) {
+                    continue;
+                }
+                if (reply.getType() == SERVER_BUSY) {
+                    pendingReply.completeExceptionally(new IOException("Server busy, retry after " + reply.getContent() + " ms"));
+                } else {
+                    pendingReply.complete(reply.getContent());
+                }
+            }
+        } catch (IOException ex) {
+            for (Long correlationId : pendingReplies.keySet()) {
+                CompletableFuture<Object> pendingReply = pendingReplies.remove(correlationId);
+                if (pendingReply != null) {
+                    pendingReply.completeExceptionally(ex);
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            PipelinedClient client = new PipelinedClient(args.length == 1 ? args[0] : "../../config/Server.properties");
+
+            // send all 46 Fibonacci requests over the one connection right away
+            List<CompletableFuture<Object>> results = new ArrayList<>();
+            for (int i = 46; i > 0; i--) {
+                int number = i;
+                CompletableFuture<Object> result = client.submit(new Job("appserver.job.impl.Fibonacci", number));
+                result.thenAccept(value -> System.out.println("Fibonacci Number for " + number + " : " + value));
+                results.add(result);
+            }
+
+            CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).join();
+            client.close();
+        } catch (IOException ex) {
+            System.err.println("[PipelinedClient.main] Error occurred : " + ex.getMessage());
+        }
+    }
+}
@@ -2,6 +2,7 @@ package appserver.client;
 
 import appserver.comm.Message;
 import appserver.comm.MessageTypes;
+import appserver.comm.TimingTrace;
 import appserver.job.Job;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -43,19 +44,38 @@ public class PlusOneClient implements MessageTypes{
             String classString = "appserver.job.impl.PlusOne";
             Integer number = new Integer(42);
             
-            // create job and job request message
-            Job job = new Job(classString, number);
+            // create job and job request message, an interactive job goes ahead of batch jobs,
+            // and ask for the time each stage of the job took
+            Job job = new Job(classString, number, "interactive", 1);
+            job.setTrace(new TimingTrace());
             Message message = new Message(JOB_REQUEST, job);
+            long sent = System.nanoTime();
             
             // sending job out to the application server in a message
             ObjectOutputStream writeToNet = new ObjectOutputStream(server.getOutputStream());
             writeToNet.writeObject(message);
             
             // reading result back in from application server
-            // for simplicity, the result is not encapsulated in a message
+            // the result of a traced job comes in a message with its timing,
+            // the server may also have been too busy to take the job
             ObjectInputStream readFromNet = new ObjectInputStream(server.getInputStream());
-            Integer result = (Integer) readFromNet.readObject();
+            Object reply = readFromNet.readObject();
+            long roundTrip = System.nanoTime() - sent;
+            if (reply instanceof Message && ((Message) reply).getType() == SERVER_BUSY) {
+                System.err.println("Server busy, retry after " + ((Message) reply).getContent() + " ms");
+                return;
+            }
+            TimingTrace trace = null;
+            if (reply instanceof Message) {
+                trace = ((Message) reply).getTrace();
+                reply = ((Message) reply).getContent();
+            }
+            Integer result = (Integer) reply;
             System.out.println("RESULT: " + result);
+            if (trace != null) {
+                trace.record(TimingTrace.ROUND_TRIP, roundTrip);
+                System.out.println("TIMING: " + trace);
+            }
         } catch (Exception ex) {
             System.err.println("[PlusOneClient.run] Error occurred");
             ex.printStackTrace();
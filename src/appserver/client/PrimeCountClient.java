@@ -0,0 +1,69 @@
+package appserver.client;
+
+import appserver.comm.Message;
+import appserver.comm.MessageTypes;
+import appserver.job.Job;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.Properties;
+import utils.PropertyHandler;
+
+/**
+ * Class [PrimeCountClient] Sends one PrimeCount job for a large range to the Application Server,
+ * which splits it over the satellites, and tells how long it took. Run it with more satellites
+ * registered to see the speedup.
+ *
+ * @author sampath
+ */
+public class PrimeCountClient implements MessageTypes {
+
+    String host = null;
+    int port;
+
+    Properties properties;
+
+    public PrimeCountClient(String serverPropertiesFile) {
+        try {
+            properties = new PropertyHandler(serverPropertiesFile);
+            host = properties.getProperty("HOST");
+            port = Integer.parseInt(properties.getProperty("PORT"));
+        } catch (IOException | NumberFormatException ex) {
+            System.err.println("[PrimeCountClient.PrimeCountClient] : " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Counts the primes in a range and waits for the result.
+     *
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, exclusive
+     * @return the reply, the count or a SERVER_BUSY message
+     */
+    public Object run(long from, long to) throws IOException, ClassNotFoundException {
+        try (Socket server = new Socket(host, port)) {
+            ObjectOutputStream writeToNet = new ObjectOutputStream(server.getOutputStream());
+            writeToNet.writeObject(new Message(JOB_REQUEST, new Job("appserver.job.impl.PrimeCount", new long[]{from, to})));
+
+            ObjectInputStream readFromNet = new ObjectInputStream(server.getInputStream());
+            return readFromNet.readObject();
+        }
+    }
+
+    public static void main(String[] args) {
+        PrimeCountClient client = new PrimeCountClient(args.length > 0 ? args[0] : "../../config/Server.properties");
+        long to = args.length > 1 ? Long.parseLong(args[1]) : 1_000_000_000L;
+
+        try {
+            long start = System.nanoTime();
+            Object result = client.run(0, to);
+            long elapsed = System.nanoTime() - start;
+
+            System.out.println("RESULT: primes below " + to + ": " + result);
+            System.out.printf("%.1f ms%n", elapsed / 1e6);
+        } catch (IOException | ClassNotFoundException ex) {
+            System.err.println("[PrimeCountClient.main] Error occurred : " + ex.getMessage());
+        }
+    }
+}
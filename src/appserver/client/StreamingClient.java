@@ -0,0 +1,59 @@
+package appserver.client;
+
+import appserver.comm.StreamedResult;
+import appserver.job.Job;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class [StreamingClient] Asks for the Fibonacci numbers up to an index, a result of many
+ * megabytes, over a PipelinedClient, and takes the chunks of the result as they come in:
+ * it counts them and writes them to a file, if one is given, so the result is never held
+ * in one piece, neither on the server nor here.
+ *
+ * @author sampath
+ */
+public class StreamingClient {
+
+    public static void main(String[] args) {
+        String serverPropertiesFile = args.length > 0 ? args[0] : "../../config/Server.properties";
+        int last = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        String outputFile = args.length > 2 ? args[2] : null;
+
+        try (OutputStream output = outputFile == null ? OutputStream.nullOutputStream()
+                : new BufferedOutputStream(new FileOutputStream(outputFile))) {
+            PipelinedClient client = new PipelinedClient(serverPropertiesFile);
+            AtomicLong chunks = new AtomicLong();
+            AtomicLong bytes = new AtomicLong();
+
+            long start = System.nanoTime();
+            Object result = client.submit(new Job("appserver.job.impl.FibonacciSequence", last), chunk -> {
+                chunks.incrementAndGet();
+                bytes.addAndGet(chunk.length);
+                try {
+                    output.write(chunk);
+                } catch (IOException ex) {
+                    System.err.println("[StreamingClient.main] Error occurred : " + ex.getMessage());
+                }
+            }).get();
+            long elapsed = System.nanoTime() - start;
+            client.close();
+
+            if (result instanceof StreamedResult) {
+                System.out.println("RESULT: " + result + ", received chunks: " + chunks + ", bytes: " + bytes);
+            } else {
+                // a result that came in one piece
+                System.out.println("RESULT: " + (result instanceof byte[] ? ((byte[]) result).length + " bytes" : result));
+            }
+            System.out.printf("%.1f ms%n", elapsed / 1e6);
+        } catch (IOException | ExecutionException ex) {
+            System.err.println("[StreamingClient.main] Error occurred : " + ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
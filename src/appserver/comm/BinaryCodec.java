@@ -0,0 +1,368 @@
+package appserver.comm;
+
+import appserver.job.Job;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class [BinaryCodec] Encodes messages in a compact binary form, instead of serializing them
+ * with object streams, which write class descriptors and take reflection to read back.
+ *
+ * A message is its type, its correlation id, its content and its timing trace. Every value is
+ * written as a tag byte followed by its data: primitives, strings, arrays, byte blobs, lists and
+ * the classes that travel between the hosts, i.e. Job, ConnectivityInfo etc. Values of other
+ * classes, e.g. parameters of tools the codec does not know, are serialized with an object
+ * stream, so only they are deserialized as arbitrary classes.
+ *
+ * @author sampath
+ */
+public class BinaryCodec {
+
+    // the tags of the values
+    static final byte NULL = 0;
+    static final byte INTEGER = 1;
+    static final byte LONG = 2;
+    static final byte DOUBLE = 3;
+    static final byte BOOLEAN = 4;
+    static final byte STRING = 5;
+    static final byte BYTES = 6;
+    static final byte INT_ARRAY = 7;
+    static final byte LONG_ARRAY = 8;
+    static final byte DOUBLE_ARRAY = 9;
+    static final byte LIST = 10;
+    static final byte BIG_INTEGER = 11;
+    static final byte MESSAGE = 12;
+    static final byte JOB = 13;
+    static final byte CONNECTIVITY_INFO = 14;
+    static final byte SATELLITE_CAPACITY = 15;
+    static final byte TIMING_TRACE = 16;
+    static final byte PULL_REQUEST = 17;
+    static final byte FETCH_REQUEST = 18;
+    static final byte JOB_STATUS = 19;
+    static final byte STREAMED_RESULT = 20;
+    static final byte SERIALIZED = 127;
+
+    // how deep lists, messages and jobs may nest in a frame, deeper frames are bad
+    static final int MAX_DEPTH = 32;
+
+    /**
+     * Encodes a message.
+     */
+    public static byte[] encode(Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream output = new DataOutputStream(bytes);
+        writeMessage(output, message);
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a message. Whatever the bytes are, decoding them fails with an IOException only,
+     * so a bad frame closes the connection instead of killing the thread that reads from it.
+     *
+     * @throws IOException if the bytes are not a message
+     */
+    public static Message decode(byte[] frame, int offset, int length) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(frame, offset, length));
+        try {
+            return readMessage(input, 0);
+        } catch (RuntimeException | StackOverflowError ex) {
+            throw new IOException("Frame does not hold a message: " + ex, ex);
+        }
+    }
+
+    private static void writeMessage(DataOutputStream output, Message message) throws IOException {
+        output.writeInt(message.getType());
+        output.writeLong(message.getCorrelationId());
+        writeValue(output, message.getContent());
+        writeValue(output, message.getTrace());
+    }
+
+    private static Message readMessage(DataInputStream input, int depth) throws IOException {
+        int type = input.readInt();
+        long correlationId = input.readLong();
+        Message message = new Message(type, readValue(input, depth + 1), correlationId);
+        message.setTrace((TimingTrace) readValue(input, depth + 1));
+        return message;
+    }
+
+    /**
+     * Writes a value with its tag.
+     */
+    static void writeValue(DataOutputStream output, Object value) throws IOException {
+        if (value == null) {
+            output.writeByte(NULL);
+        } else if (value instanceof Integer) {
+            output.writeByte(INTEGER);
+            output.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            output.writeByte(LONG);
+            output.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            output.writeByte(DOUBLE);
+            output.writeDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            output.writeByte(BOOLEAN);
+            output.writeBoolean((Boolean) value);
+        } else if (value instanceof String) {
+            output.writeByte(STRING);
+            writeString(output, (String) value);
+        } else if (value instanceof byte[]) {
+            output.writeByte(BYTES);
+            writeBytes(output, (byte[]) value);
+        } else if (value instanceof int[]) {
+            int[] array = (int[]) value;
+            output.writeByte(INT_ARRAY);
+            output.writeInt(array.length);
+            for (int element : array) {
+                output.writeInt(element);
+            }
+        } else if (value instanceof long[]) {
+            long[] array = (long[]) value;
+            output.writeByte(LONG_ARRAY);
+            output.writeInt(array.length);
+            for (long element : array) {
+                output.writeLong(element);
+            }
+        } else if (value instanceof double[]) {
+            double[] array = (double[]) value;
+            output.writeByte(DOUBLE_ARRAY);
+            output.writeInt(array.length);
+            for (double element : array) {
+                output.writeDouble(element);
+            }
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            output.writeByte(LIST);
+            output.writeInt(list.size());
+            for (Object element : list) {
+                writeValue(output, element);
+            }
+        } else if (value instanceof BigInteger) {
+            output.writeByte(BIG_INTEGER);
+            writeBytes(output, ((BigInteger) value).toByteArray());
+        } else if (value instanceof Message) {
+            output.writeByte(MESSAGE);
+            writeMessage(output, (Message) value);
+        } else if (value instanceof Job) {
+            Job job = (Job) value;
+            output.writeByte(JOB);
+            writeString(output, job.getToolName());
+            writeValue(output, job.getParameters());
+            writeString(output, job.getTenant());
+            output.writeInt(job.getPriority());
+            writeValue(output, job.getTrace());
+            output.writeBoolean(job.isChunkedResult());
+        } else if (value instanceof ConnectivityInfo) {
+            ConnectivityInfo info = (ConnectivityInfo) value;
+            output.writeByte(CONNECTIVITY_INFO);
+            writeString(output, info.getName());
+            writeString(output, info.getHost());
+            output.writeInt(info.getPort());
+            writeValue(output, info.getCapacity());
+        } else if (value instanceof SatelliteCapacity) {
+            SatelliteCapacity capacity = (SatelliteCapacity) value;
+            output.writeByte(SATELLITE_CAPACITY);
+            output.writeInt(capacity.getProcessors());
+            output.writeInt(capacity.getWorkerSlots());
+            output.writeDouble(capacity.getLoadAverage());
+            output.writeLong(capacity.getFreeHeapBytes());
+            output.writeLong(capacity.getMaxHeapBytes());
+        } else if (value instanceof TimingTrace) {
+            TimingTrace trace = (TimingTrace) value;
+            output.writeByte(TIMING_TRACE);
+            output.writeByte(TimingTrace.STAGE_NAMES.length);
+            for (int stage = 0; stage < TimingTrace.STAGE_NAMES.length; stage++) {
+                output.writeLong(trace.get(stage));
+            }
+        } else if (value instanceof PullRequest) {
+            PullRequest pullRequest = (PullRequest) value;
+            output.writeByte(PULL_REQUEST);
+            writeString(output, pullRequest.getSatelliteName());
+            output.writeInt(pullRequest.getSlots());
+        } else if (value instanceof FetchRequest) {
+            FetchRequest fetchRequest = (FetchRequest) value;
+            output.writeByte(FETCH_REQUEST);
+            output.writeLong(fetchRequest.getJobId());
+            output.writeLong(fetchRequest.getWaitMillis());
+        } else if (value instanceof StreamedResult) {
+            StreamedResult streamedResult = (StreamedResult) value;
+            output.writeByte(STREAMED_RESULT);
+            output.writeInt(streamedResult.getChunks());
+            output.writeLong(streamedResult.getLength());
+        } else if (value instanceof JobStatus) {
+            output.writeByte(JOB_STATUS);
+            output.writeByte(((JobStatus) value).ordinal());
+        } else {
+            // a class the codec does not know
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            try (ObjectOutputStream writeToBytes = new ObjectOutputStream(bytes)) {
+                writeToBytes.writeObject(value);
+            }
+            output.writeByte(SERIALIZED);
+            writeBytes(output, bytes.toByteArray());
+        }
+    }
+
+    /**
+     * Reads a value written by writeValue().
+     *
+     * @param depth the number of values the value is nested in
+     * @throws IOException if the value is nested deeper than MAX_DEPTH
+     */
+    static Object readValue(DataInputStream input, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("Values in frame nested deeper than " + MAX_DEPTH);
+        }
+        byte tag = input.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case INTEGER:
+                return input.readInt();
+            case LONG:
+                return input.readLong();
+            case DOUBLE:
+                return input.readDouble();
+            case BOOLEAN:
+                return input.readBoolean();
+            case STRING:
+                return readString(input);
+            case BYTES:
+                return readBytes(input);
+            case INT_ARRAY: {
+                int[] array = new int[readLength(input, 4)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = input.readInt();
+                }
+                return array;
+            }
+            case LONG_ARRAY: {
+                long[] array = new long[readLength(input, 8)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = input.readLong();
+                }
+                return array;
+            }
+            case DOUBLE_ARRAY: {
+                double[] array = new double[readLength(input, 8)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = input.readDouble();
+                }
+                return array;
+            }
+            case LIST: {
+                int size = readLength(input, 1);
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(input, depth + 1));
+                }
+                return list;
+            }
+            case BIG_INTEGER:
+                return new BigInteger(readBytes(input));
+            case MESSAGE:
+                return readMessage(input, depth);
+            case JOB: {
+                Job job = new Job(readString(input), readValue(input, depth + 1), readString(input), input.readInt());
+                job.setTrace((TimingTrace) readValue(input, depth + 1));
+                job.setChunkedResult(input.readBoolean());
+                return job;
+            }
+            case CONNECTIVITY_INFO: {
+                ConnectivityInfo info = new ConnectivityInfo();
+                info.setName(readString(input));
+                info.setHost(readString(input));
+                info.setPort(input.readInt());
+                info.setCapacity((SatelliteCapacity) readValue(input, depth + 1));
+                return info;
+            }
+            case SATELLITE_CAPACITY:
+                return new SatelliteCapacity(input.readInt(), input.readInt(), input.readDouble(), input.readLong(), input.readLong());
+            case TIMING_TRACE: {
+                TimingTrace trace = new TimingTrace();
+                int stages = input.readByte();
+                for (int stage = 0; stage < stages; stage++) {
+                    long nanos = input.readLong();
+                    // stages of a newer peer are skipped
+                    if (stage < TimingTrace.STAGE_NAMES.length) {
+                        trace.record(stage, nanos);
+                    }
+                }
+                return trace;
+            }
+            case PULL_REQUEST:
+                return new PullRequest(readString(input), input.readInt());
+            case FETCH_REQUEST:
+                return new FetchRequest(input.readLong(), input.readLong());
+            case STREAMED_RESULT:
+                return new StreamedResult(input.readInt(), input.readLong());
+            case JOB_STATUS: {
+                int ordinal = input.readByte();
+                if (ordinal < 0 || ordinal >= JobStatus.values().length) {
+                    throw new IOException("Bad job status in frame: " + ordinal);
+                }
+                return JobStatus.values()[ordinal];
+            }
+            case SERIALIZED:
+                try (ObjectInputStream readFromBytes = new ObjectInputStream(new ByteArrayInputStream(readBytes(input)))) {
+                    return readFromBytes.readObject();
+                } catch (ClassNotFoundException ex) {
+                    throw new IOException("Unknown class in frame: " + ex.getMessage());
+                }
+            default:
+                throw new IOException("Unknown tag in frame: " + tag);
+        }
+    }
+
+    // strings may be null, e.g. the host of a satellite before the server sets it
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+            return;
+        }
+        writeBytes(output, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[checkLength(input, length, 1)];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(DataOutputStream output, byte[] bytes) throws IOException {
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[readLength(input, 1)];
+        input.readFully(bytes);
+        return bytes;
+    }
+
+    // reads the length of an array, a bad length must not make the reader allocate a huge array
+    private static int readLength(DataInputStream input, int elementSize) throws IOException {
+        return checkLength(input, input.readInt(), elementSize);
+    }
+
+    private static int checkLength(DataInputStream input, int length, int elementSize) throws IOException {
+        if (length < 0 || (long) length * elementSize > input.available()) {
+            throw new IOException("Bad length in frame: " + length);
+        }
+        return length;
+    }
+}
@@ -1,10 +1,14 @@
 package appserver.comm;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 /**
  * Class [ConnectivityInfo] Wraps server connectivity information
  * 
+ * A satellite also advertises its capacity in it. The capacity changes over time,
+ * so it does not take part in equals() and hashCode().
+ * 
  * @author Dr.-Ing. Wolf-Dieter Otte
  */
 public class ConnectivityInfo implements Serializable {
@@ -12,6 +16,7 @@ public class ConnectivityInfo implements Serializable {
     String host = null;
     int port = 0;
     String name = null;
+    SatelliteCapacity capacity = null;
 
     public void setPort(int port) {
         this.port = port;
@@ -36,4 +41,32 @@ public class ConnectivityInfo implements Serializable {
     public void setName(String name) {
         this.name = name;
     }
+
+    /**
+     * Returns the capacity the satellite advertised, null if it did not.
+     */
+    public SatelliteCapacity getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(SatelliteCapacity capacity) {
+        this.capacity = capacity;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) {
+            return true;
+        }
+        if (!(object instanceof ConnectivityInfo)) {
+            return false;
+        }
+        ConnectivityInfo other = (ConnectivityInfo) object;
+        return port == other.port && Objects.equals(host, other.host) && Objects.equals(name, other.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(host, port, name);
+    }
 }
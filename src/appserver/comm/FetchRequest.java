@@ -0,0 +1,30 @@
+package appserver.comm;
+
+import java.io.Serializable;
+
+/**
+ * Class [FetchRequest] Content of a FETCH_RESULT message: the id of a submitted job and
+ * how long the server may hold the request, if the result is not there yet (long-poll).
+ *
+ * @author manoj
+ */
+public class FetchRequest implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    long jobId;
+    long waitMillis;
+
+    public FetchRequest(long jobId, long waitMillis) {
+        this.jobId = jobId;
+        this.waitMillis = waitMillis;
+    }
+
+    public long getJobId() {
+        return jobId;
+    }
+
+    public long getWaitMillis() {
+        return waitMillis;
+    }
+}
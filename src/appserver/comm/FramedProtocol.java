@@ -0,0 +1,150 @@
+package appserver.comm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Class [FramedProtocol] Defines the framed protocol, in which many messages travel
+ * over one connection, in both directions and in any order.
+ *
+ * A client opens the connection with the 4 bytes of a preamble, which also tells the codec
+ * of the connection: PREAMBLE for messages serialized with an object stream of their own,
+ * BINARY_PREAMBLE for messages encoded by the BinaryCodec. After that, each message is a frame:
+ * the length of the encoded message as an int, followed by the encoded message. Requests carry
+ * a correlation id, which the reply to the request carries as well, so the client can match
+ * replies that come back out of order.
+ *
+ * Without the preamble, a connection carries one plain serialized message, as before.
+ *
+ * @author manoj
+ */
+public class FramedProtocol {
+
+    // "ASP1", a plain object stream never starts with these bytes
+    public static final int PREAMBLE = 0x41535031;
+    // "ASP2"
+    public static final int BINARY_PREAMBLE = 0x41535032;
+
+    /**
+     * The codecs of the messages in the frames.
+     */
+    public enum Codec {
+        JAVA(PREAMBLE), BINARY(BINARY_PREAMBLE);
+
+        private final int preamble;
+
+        Codec(int preamble) {
+            this.preamble = preamble;
+        }
+
+        public int getPreamble() {
+            return preamble;
+        }
+
+        /**
+         * Returns the codec a connection starting with the given int uses, null if it is no preamble.
+         */
+        public static Codec forPreamble(int preamble) {
+            for (Codec codec : values()) {
+                if (codec.preamble == preamble) {
+                    return codec;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Returns the codec of a name in the properties, i.e. java or binary.
+         *
+         * @throws IllegalArgumentException if there is no such codec
+         */
+        public static Codec forName(String name) {
+            return valueOf(name.trim().toUpperCase());
+        }
+    }
+
+    // the largest frame a peer accepts
+    public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Encodes a message to the bytes of a frame, without the length.
+     */
+    public static byte[] encode(Message message, Codec codec) throws IOException {
+        return codec == Codec.BINARY ? BinaryCodec.encode(message) : encode(message);
+    }
+
+    /**
+     * Decodes the bytes of a frame, without the length, to a message.
+     */
+    public static Message decode(byte[] frame, int offset, int length, Codec codec) throws IOException {
+        return codec == Codec.BINARY ? BinaryCodec.decode(frame, offset, length) : decode(frame, offset, length);
+    }
+
+    /**
+     * Serializes a message to the bytes of a frame, without the length.
+     */
+    public static byte[] encode(Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream writeToBytes = new ObjectOutputStream(bytes)) {
+            writeToBytes.writeObject(message);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Deserializes the bytes of a frame, without the length, to a message.
+     */
+    public static Message decode(byte[] frame, int offset, int length) throws IOException {
+        try (ObjectInputStream readFromBytes = new ObjectInputStream(new ByteArrayInputStream(frame, offset, length))) {
+            return (Message) readFromBytes.readObject();
+        } catch (ClassNotFoundException | ClassCastException ex) {
+            throw new IOException("Frame does not hold a message: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Writes a message as a frame of serialized messages, the caller takes care that frames do not interleave.
+     */
+    public static void writeFrame(DataOutputStream writeToNet, Message message) throws IOException {
+        writeFrame(writeToNet, message, Codec.JAVA);
+    }
+
+    /**
+     * Writes a message as a frame, the caller takes care that frames do not interleave.
+     */
+    public static void writeFrame(DataOutputStream writeToNet, Message message, Codec codec) throws IOException {
+        byte[] frame = encode(message, codec);
+        writeToNet.writeInt(frame.length);
+        writeToNet.write(frame);
+        writeToNet.flush();
+    }
+
+    /**
+     * Reads the next frame of serialized messages and returns its message.
+     *
+     * @throws java.io.EOFException if the peer closed the connection
+     */
+    public static Message readFrame(DataInputStream readFromNet) throws IOException {
+        return readFrame(readFromNet, Codec.JAVA);
+    }
+
+    /**
+     * Reads the next frame and returns its message.
+     *
+     * @throws java.io.EOFException if the peer closed the connection
+     */
+    public static Message readFrame(DataInputStream readFromNet, Codec codec) throws IOException {
+        int length = readFromNet.readInt();
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Bad frame length: " + length);
+        }
+        byte[] frame = new byte[length];
+        readFromNet.readFully(frame);
+        return decode(frame, 0, length, codec);
+    }
+}
@@ -0,0 +1,21 @@
+package appserver.comm;
+
+/**
+ * Enum [JobStatus] The states of a job that was submitted for asynchronous execution.
+ * The server sends it back on JOB_STATUS requests, and on FETCH_RESULT requests
+ * when there is no result to hand out.
+ *
+ * @author manoj
+ */
+public enum JobStatus {
+    // the job is being worked on
+    RUNNING,
+    // the result is ready to be fetched
+    DONE,
+    // the job could not be done
+    FAILED,
+    // the server does not know the job, or its result was fetched already
+    UNKNOWN,
+    // the server did not take the job, too many jobs are waiting to be fetched
+    REJECTED
+}
@@ -11,16 +11,27 @@ import java.io.Serializable;
  */
 public class Message implements MessageTypes, Serializable {
 
+    private static final long serialVersionUID = 1L;
+
     // contains the type of message, types are defined in interface MessageTypes
     int type;
     // contains the content that is specific to a certain message type
     Object content;
+    // pairs a request with its reply when several requests share one connection, 0 if unused
+    long correlationId;
+    // the timing of the job of a JOB_RESULT, null unless the job was traced
+    TimingTrace trace;
 
     public Message(int type, Object content) {
         this.type = type;
         this.content = content;
     }
 
+    public Message(int type, Object content, long correlationId) {
+        this(type, content);
+        this.correlationId = correlationId;
+    }
+
     public Message() {
     }
     
@@ -41,4 +52,22 @@ public class Message implements MessageTypes, Serializable {
     public Object getContent() {
         return content;
     }
+
+    // getter and setter methods for the correlation id
+    public void setCorrelationId(long correlationId) {
+        this.correlationId = correlationId;
+    }
+
+    public long getCorrelationId() {
+        return correlationId;
+    }
+
+    // getter and setter methods for the timing trace
+    public void setTrace(TimingTrace trace) {
+        this.trace = trace;
+    }
+
+    public TimingTrace getTrace() {
+        return trace;
+    }
 }
@@ -12,6 +12,16 @@ public interface MessageTypes {
     public static int JOB_REQUEST = 1;
  // public static int LIST_TOOLS = 2;
     public static int REGISTER_SATELLITE = 3;
- // public static int UNREGISTER_SATELLITE = 4;
+    public static int UNREGISTER_SATELLITE = 4;
  // public static int REGISTER_TOOL = 5;   
+    public static int JOB_RESULT = 6;
+    public static int SUBMIT_JOB = 7;
+    public static int JOB_STATUS = 8;
+    public static int FETCH_RESULT = 9;
+    public static int JOB_BATCH = 10;
+    public static int HEARTBEAT = 11;
+    public static int SERVER_BUSY = 12;
+    public static int PULL_JOBS = 13;
+    public static int RESULT_CHUNK = 14;
+    public static int CANCEL_JOB = 15;
 }
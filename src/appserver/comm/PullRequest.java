@@ -0,0 +1,34 @@
+package appserver.comm;
+
+import java.io.Serializable;
+
+/**
+ * Class [PullRequest] Content of a PULL_JOBS message: the satellite that pulls jobs
+ * and the number of jobs it takes on top of the jobs it works on already.
+ *
+ * A satellite sends it over a framed connection to the server, which sends jobs back
+ * over the same connection as long as the satellite has free slots. Every JOB_RESULT
+ * the satellite sends back frees a slot again.
+ *
+ * @author manoj
+ */
+public class PullRequest implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    String satelliteName;
+    int slots;
+
+    public PullRequest(String satelliteName, int slots) {
+        this.satelliteName = satelliteName;
+        this.slots = slots;
+    }
+
+    public String getSatelliteName() {
+        return satelliteName;
+    }
+
+    public int getSlots() {
+        return slots;
+    }
+}
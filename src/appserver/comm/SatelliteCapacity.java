@@ -0,0 +1,71 @@
+package appserver.comm;
+
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Class [SatelliteCapacity] The resources a satellite advertises to the server: its processors,
+ * the number of jobs it runs at a time, the load average of its machine and its free heap.
+ * A satellite sends it along with its connectivity info when it registers, and refreshes it
+ * with every heartbeat.
+ *
+ * @author Srinivasa
+ */
+public class SatelliteCapacity implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    int processors;
+    int workerSlots;
+    // the system load average of the last minute, negative if the platform does not tell
+    double loadAverage;
+    long freeHeapBytes;
+    long maxHeapBytes;
+
+    public SatelliteCapacity(int processors, int workerSlots, double loadAverage, long freeHeapBytes, long maxHeapBytes) {
+        this.processors = processors;
+        this.workerSlots = workerSlots;
+        this.loadAverage = loadAverage;
+        this.freeHeapBytes = freeHeapBytes;
+        this.maxHeapBytes = maxHeapBytes;
+    }
+
+    /**
+     * Measures the resources of this JVM.
+     *
+     * @param workerSlots the number of jobs run at a time
+     */
+    public static SatelliteCapacity measure(int workerSlots) {
+        Runtime runtime = Runtime.getRuntime();
+        long usedHeap = runtime.totalMemory() - runtime.freeMemory();
+        return new SatelliteCapacity(runtime.availableProcessors(), workerSlots,
+                ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage(),
+                runtime.maxMemory() - usedHeap, runtime.maxMemory());
+    }
+
+    public int getProcessors() {
+        return processors;
+    }
+
+    public int getWorkerSlots() {
+        return workerSlots;
+    }
+
+    public double getLoadAverage() {
+        return loadAverage;
+    }
+
+    public long getFreeHeapBytes() {
+        return freeHeapBytes;
+    }
+
+    public long getMaxHeapBytes() {
+        return maxHeapBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "processors: " + processors + ", worker slots: " + workerSlots + ", load average: " + loadAverage
+                + ", free heap: " + (freeHeapBytes >> 20) + " MB of " + (maxHeapBytes >> 20) + " MB";
+    }
+}
@@ -0,0 +1,35 @@
+package appserver.comm;
+
+import java.io.Serializable;
+
+/**
+ * Class [StreamedResult] Content of the JOB_RESULT message that ends a result streamed in
+ * RESULT_CHUNK messages: the number of chunks and bytes that were sent before.
+ *
+ * @author sampath
+ */
+public class StreamedResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    int chunks;
+    long length;
+
+    public StreamedResult(int chunks, long length) {
+        this.chunks = chunks;
+        this.length = length;
+    }
+
+    public int getChunks() {
+        return chunks;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return "streamed result, chunks: " + chunks + ", bytes: " + length;
+    }
+}
@@ -0,0 +1,119 @@
+package appserver.comm;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Class [TimingTrace] The time each stage of one job took, on its way from the client through
+ * the server to a satellite and back. A client asks for the trace by attaching an empty one to
+ * its job, the server and the satellite fill in their stages, and the trace comes back with the
+ * result in a JOB_RESULT message.
+ *
+ * Timestamps of System.nanoTime() cannot be compared between hosts, so every host records the
+ * durations it measured on its own clock. The time spent on the network and in serialization
+ * is what is left of a duration measured on one host after taking off the stages of the next host.
+ *
+ * On the server, the threads working on a job share its trace, e.g. the copies of a hedged job
+ * and the readers delivering their results, so the trace is synchronized; the reply to the client
+ * carries a copy taken when the result is there.
+ *
+ * @author sampath
+ */
+public class TimingTrace implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // the stages of a job, measured on the server
+    public static final int QUEUE_WAIT = 0;
+    public static final int CONNECT = 1;
+    public static final int SATELLITE = 2;
+    public static final int SERVER_TOTAL = 3;
+    // measured on the satellite
+    public static final int SATELLITE_QUEUE_WAIT = 4;
+    public static final int CLASS_LOAD = 5;
+    public static final int EXECUTE = 6;
+    // measured on the client
+    public static final int ROUND_TRIP = 7;
+
+    static final String[] STAGE_NAMES = {"queue wait", "connect", "satellite", "server total",
+        "satellite queue wait", "class load", "execute", "round trip"};
+
+    // the nanoseconds each stage took, -1 for stages that were not recorded
+    private final long[] nanos = new long[STAGE_NAMES.length];
+
+    public TimingTrace() {
+        Arrays.fill(nanos, -1);
+    }
+
+    /**
+     * Records the time a stage took.
+     *
+     * @param stage the stage, e.g. EXECUTE
+     * @param nanos the nanoseconds it took
+     */
+    public synchronized void record(int stage, long nanos) {
+        this.nanos[stage] = nanos;
+    }
+
+    /**
+     * Returns the nanoseconds a stage took, -1 if it was not recorded.
+     */
+    public synchronized long get(int stage) {
+        return nanos[stage];
+    }
+
+    /**
+     * Takes over the stages recorded in another trace, e.g. the one a satellite sent back.
+     */
+    public void merge(TimingTrace other) {
+        TimingTrace stages = other.copy();
+        synchronized (this) {
+            for (int stage = 0; stage < nanos.length; stage++) {
+                if (stages.nanos[stage] >= 0) {
+                    nanos[stage] = stages.nanos[stage];
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the stages recorded so far.
+     */
+    public synchronized TimingTrace copy() {
+        TimingTrace copy = new TimingTrace();
+        System.arraycopy(nanos, 0, copy.nanos, 0, nanos.length);
+        return copy;
+    }
+
+    private synchronized void writeObject(ObjectOutputStream output) throws IOException {
+        output.defaultWriteObject();
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder text = new StringBuilder();
+        for (int stage = 0; stage < nanos.length; stage++) {
+            if (nanos[stage] >= 0) {
+                append(text, STAGE_NAMES[stage], nanos[stage]);
+            }
+        }
+        // what the next host does not account for
+        if (nanos[ROUND_TRIP] >= 0 && nanos[SERVER_TOTAL] >= 0) {
+            append(text, "client-server transfer", nanos[ROUND_TRIP] - nanos[SERVER_TOTAL]);
+        }
+        if (nanos[SATELLITE] >= 0 && nanos[EXECUTE] >= 0) {
+            long onSatellite = nanos[EXECUTE] + Math.max(0, nanos[CLASS_LOAD]) + Math.max(0, nanos[SATELLITE_QUEUE_WAIT]);
+            append(text, "server-satellite transfer", nanos[SATELLITE] - onSatellite);
+        }
+        return text.toString();
+    }
+
+    private static void append(StringBuilder text, String stage, long nanos) {
+        if (text.length() > 0) {
+            text.append(", ");
+        }
+        text.append(stage).append(": ").append(String.format("%.3f ms", nanos / 1e6));
+    }
+}
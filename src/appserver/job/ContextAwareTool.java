@@ -0,0 +1,26 @@
+package appserver.job;
+
+/**
+ * Interface [ContextAwareTool]
+ * A tool that takes the ExecutionContext of the entity executing it, e.g. to run its work
+ * in parallel on the ForkJoinPool of a satellite. Called without a context, the tool runs
+ * on the common pool of the JVM.
+ * 
+ * @author sampath
+ */
+public interface ContextAwareTool extends Tool {
+
+    /**
+     * Does the job.
+     * 
+     * @param parameters the parameters of the job
+     * @param context what the satellite shares with the tool, i.e. its ForkJoinPool
+     * @return the result of the job
+     */
+    public Object go(Object parameters, ExecutionContext context);
+
+    @Override
+    public default Object go(Object parameters) {
+        return go(parameters, ExecutionContext.common());
+    }
+}
@@ -0,0 +1,12 @@
+package appserver.job;
+
+/**
+ * Interface [Deterministic]
+ * Marker interface for tools whose result depends on nothing but the parameters,
+ * i.e. calling go() twice with equal parameters gives equal results and has no side effects.
+ * The server may answer a job for such a tool from its result cache.
+ * 
+ * @author Srinivasa
+ */
+public interface Deterministic {
+}
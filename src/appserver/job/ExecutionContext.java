@@ -0,0 +1,46 @@
+package appserver.job;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Class [ExecutionContext]
+ * What the entity executing a tool shares with it, i.e. the ForkJoinPool a tool forks
+ * its subtasks on. A satellite sizes one pool for all jobs it runs, so tools use all its
+ * cores without each of them starting threads of its own.
+ * 
+ * @author sampath
+ */
+public class ExecutionContext {
+
+    // the context of tools run outside of a satellite
+    private static final ExecutionContext COMMON = new ExecutionContext(ForkJoinPool.commonPool());
+
+    private final ForkJoinPool forkJoinPool;
+
+    /**
+     * Constructor
+     * 
+     * @param forkJoinPool the pool the tools fork their subtasks on
+     */
+    public ExecutionContext(ForkJoinPool forkJoinPool) {
+        this.forkJoinPool = forkJoinPool;
+    }
+
+    /**
+     * Returns the context with the common pool of the JVM.
+     */
+    public static ExecutionContext common() {
+        return COMMON;
+    }
+
+    public ForkJoinPool getForkJoinPool() {
+        return forkJoinPool;
+    }
+
+    /**
+     * Returns the number of threads of the pool, i.e. the subtasks that run at a time.
+     */
+    public int getParallelism() {
+        return forkJoinPool.getParallelism();
+    }
+}
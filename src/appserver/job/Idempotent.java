@@ -0,0 +1,12 @@
+package appserver.job;
+
+/**
+ * Interface [Idempotent]
+ * Marker interface for tools that may run more than once for the same job, i.e. running
+ * a job a second time does no harm. The server may send a job for such a tool to a second
+ * satellite when the first one is slow, and take whichever result comes first.
+ * 
+ * @author Srinivasa
+ */
+public interface Idempotent {
+}
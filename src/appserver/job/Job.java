@@ -1,22 +1,60 @@
 package appserver.job;
 
+import appserver.comm.TimingTrace;
 import java.io.Serializable;
+import java.util.function.Consumer;
 
 /**
  * Class [Job] Wrapper class to encapsulate Job-related information,
  * i.e. the (fully qualified) name of the job's tool class
  * and the parameters the tool instance will take in its message go().
  * 
+ * A job may also name the tenant, i.e. the client or group of clients, it is done for,
+ * and carry a priority. The server shares the satellites fairly among the tenants
+ * and takes jobs of a higher priority first. A job that carries a TimingTrace has the time
+ * of each of its stages recorded in it. A client of the framed protocol may ask for the result
+ * in chunks; on the server, such a job then has a consumer the chunks of its result are relayed
+ * to as they come in, if the tool streams its result.
+ * 
  * @author Dr.-Ing. Wolf-Dieter Otte
  */
 public class Job implements Serializable{
     
+    private static final long serialVersionUID = 1L;
+    
+    // the tenant of jobs that do not name one
+    public static final String DEFAULT_TENANT = "default";
+    public static final int DEFAULT_PRIORITY = 0;
+    
     String toolName;
     Object parameters;
+    String tenant;
+    int priority;
+    TimingTrace trace;
+    boolean chunkedResult;
+    // takes the chunks of a streamed result on the server, it stays on the server
+    transient Consumer<byte[]> chunkConsumer;
+    transient volatile boolean chunksRelayed;
+    // the satellite the job was sent to last, for the metrics of the server
+    transient volatile String satelliteName;
     
     public Job(String toolName, Object parameters) {
+        this(toolName, parameters, DEFAULT_TENANT, DEFAULT_PRIORITY);
+    }
+    
+    /**
+     * Constructor
+     * 
+     * @param toolName the name of the tool class
+     * @param parameters the parameters of the tool
+     * @param tenant the tenant the job is done for, null for the default tenant
+     * @param priority the priority of the job, higher numbers are served first
+     */
+    public Job(String toolName, Object parameters, String tenant, int priority) {
         this.toolName = toolName;
         this.parameters = parameters;
+        this.tenant = tenant == null ? DEFAULT_TENANT : tenant;
+        this.priority = priority;
     }
     
     public String getToolName() {
@@ -26,4 +64,98 @@ public class Job implements Serializable{
     public Object getParameters() {
         return parameters;
     }
+    
+    public String getTenant() {
+        return tenant;
+    }
+    
+    public int getPriority() {
+        return priority;
+    }
+    
+    /**
+     * Asks for the timing of the job, it comes back with the result in a JOB_RESULT message,
+     * in place of the bare result, also for a job in a batch or a submitted job.
+     * 
+     * @param trace an empty trace, null for no timing
+     */
+    public void setTrace(TimingTrace trace) {
+        this.trace = trace;
+    }
+    
+    public TimingTrace getTrace() {
+        return trace;
+    }
+    
+    /**
+     * Asks for the result in RESULT_CHUNK messages ahead of the JOB_RESULT, if the tool streams it.
+     * Only clients that read such messages, i.e. clients of the framed protocol, may ask for it.
+     * 
+     * @param chunkedResult true for the result in chunks, false for the result in one piece
+     */
+    public void setChunkedResult(boolean chunkedResult) {
+        this.chunkedResult = chunkedResult;
+    }
+    
+    public boolean isChunkedResult() {
+        return chunkedResult;
+    }
+    
+    /**
+     * Relays the chunks of the result to a consumer as they come in, if the tool streams its result.
+     * The result of the job is then a StreamedResult, telling how many chunks there were.
+     * 
+     * @param chunkConsumer takes the chunks, null to get the result in one piece
+     */
+    public void setChunkConsumer(Consumer<byte[]> chunkConsumer) {
+        this.chunkConsumer = chunkConsumer;
+    }
+    
+    /**
+     * Tells whether the chunks of the result are relayed to a consumer.
+     */
+    public boolean isStreamed() {
+        return chunkConsumer != null;
+    }
+    
+    /**
+     * Relays a chunk of the result to the consumer.
+     */
+    public void relayChunk(byte[] chunk) {
+        chunksRelayed = true;
+        chunkConsumer.accept(chunk);
+    }
+    
+    /**
+     * Tells whether chunks of the result were relayed already, the job cannot be done again then.
+     */
+    public boolean hasRelayedChunks() {
+        return chunksRelayed;
+    }
+    
+    /**
+     * Notes the satellite the job is sent to, the last one if it is sent to several.
+     */
+    public void setSatelliteName(String satelliteName) {
+        this.satelliteName = satelliteName;
+    }
+    
+    /**
+     * Returns the satellite the job was sent to last, null if it was not sent to one.
+     */
+    public String getSatelliteName() {
+        return satelliteName;
+    }
+    
+    /**
+     * Records the time a stage of the job took, if the job is traced.
+     * 
+     * @param stage the stage, one of the stages of TimingTrace
+     * @param nanos the nanoseconds it took
+     */
+    public void recordTiming(int stage, long nanos) {
+        if (trace != null) {
+            trace.record(stage, nanos);
+        }
+    }
 }
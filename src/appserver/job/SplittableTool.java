@@ -0,0 +1,35 @@
+package appserver.job;
+
+import java.util.List;
+
+/**
+ * Interface [SplittableTool]
+ * A tool whose jobs the server may split into parts, which run on many satellites at once.
+ * The server splits the parameters of a job, runs go() on the parameters of each part
+ * wherever the LoadManager sends it, and merges the results of the parts into the result
+ * of the job. A job that is not split is done by go() on its parameters as a whole.
+ * 
+ * The server keeps one instance of the tool to split and merge the jobs of all clients,
+ * so split() and merge() must not keep state between calls.
+ * 
+ * @author sampath
+ */
+public interface SplittableTool extends Tool {
+
+    /**
+     * Splits the parameters of a job into the parameters of its parts.
+     * 
+     * @param parameters the parameters of the job
+     * @param parts the number of parts the server asks for, there may be fewer
+     * @return the parameters of the parts, each to be passed to go()
+     */
+    public List<?> split(Object parameters, int parts);
+
+    /**
+     * Merges the results of the parts into the result of the job.
+     * 
+     * @param results the results of go() for the parts, in the order of the parts
+     * @return the result of the job
+     */
+    public Object merge(List<?> results);
+}
@@ -5,6 +5,10 @@ package appserver.job;
  * This is the interface that any tool needs to implement. It defines the call back method,
  * that entities executing the tool, i.e. doing the job, will call, e.g. satellite servers.
  * 
+ * The result may be of any serializable type. A tool whose result is too large to be sent
+ * in one message returns an InputStream of its bytes, which is sent back in chunks as it is
+ * read, as are byte arrays larger than one chunk.
+ * 
  * @author Dr.-Ing. Wolf-Dieter Otte
  */
 public interface Tool {
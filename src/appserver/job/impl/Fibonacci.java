@@ -1,23 +1,32 @@
 package appserver.job.impl;
 
+import appserver.job.Deterministic;
+import appserver.job.Idempotent;
 import appserver.job.Tool;
 
 /**
  * The class [Fibonacci] implements the Tool interface to calculate the nth Fibonacci number.
  * 
- * It uses the FibonacciAux class to perform the calculation.
+ * It uses the FibonacciAux class to perform the calculation, the result is exact, as BigInteger.
+ * The result of a negative input is null.
  * @author Srinivasa
  */
-public class Fibonacci implements Tool {
-    
-    FibonacciAux helper = null;
+public class Fibonacci implements Tool, Deterministic, Idempotent {
     
     // Override the go method from the Tool interface to calculate the Fibonacci number
     @Override
     public Object go(Object parameters) {
         
-        // Create a new FibonacciAux object with the parameter passed in
-        helper = new FibonacciAux((Integer) parameters);
+        // There is no Fibonacci number of a negative input, the client gets null back
+        Integer number = (Integer) parameters;
+        if (number == null || number < 0) {
+            System.err.println("[Fibonacci.go] Error: no Fibonacci number of " + number);
+            return null;
+        }
+        
+        // Create a new FibonacciAux object with the parameter passed in, one per job, as the
+        // satellite runs the jobs of one tool instance concurrently
+        FibonacciAux helper = new FibonacciAux(number);
         
         // Return the result of the Fibonacci calculation
         return helper.getResult();
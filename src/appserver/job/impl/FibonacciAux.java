@@ -1,12 +1,37 @@
 package appserver.job.impl;
 
+import java.math.BigInteger;
+
 /**
  * The class [FibonacciAux] is a helper class for calculating the Fibonacci number of a given input.
  * 
+ * It uses fast doubling, i.e. F(2k) = F(k) * (2 F(k+1) - F(k)) and F(2k+1) = F(k)^2 + F(k+1)^2,
+ * which takes O(log n) steps instead of the O(phi^n) calls of the plain recursion. The numbers
+ * are exact for any input, as BigInteger; the numbers that fit in a long are in a table shared
+ * by all jobs, and the doubling for larger inputs starts from there.
+ * 
  * @author sampath
  */
 public class FibonacciAux {
     
+    // F(92) is the largest Fibonacci number that fits in a long
+    static final int LONG_LIMIT = 92;
+    
+    // F(0) to F(LONG_LIMIT)
+    private static final BigInteger[] TABLE = new BigInteger[LONG_LIMIT + 1];
+    
+    static {
+        long previous = 0;
+        long current = 1;
+        TABLE[0] = BigInteger.ZERO;
+        for (int n = 1; n <= LONG_LIMIT; n++) {
+            TABLE[n] = BigInteger.valueOf(current);
+            long next = previous + current;
+            previous = current;
+            current = next;
+        }
+    }
+    
     Integer number = null;
     
     /**
@@ -22,26 +47,50 @@ public class FibonacciAux {
      * Method for calculating the Fibonacci number of the input number.
      * 
      * @return the Fibonacci number of the input number
+     * @throws IllegalArgumentException if the input number is negative
      */
-    public Integer getResult() {
+    public BigInteger getResult() {
         return fibonacci(number);
     }
     
     /**
-     * Recursive method for calculating the Fibonacci number of a given input number.
+     * Calculates the Fibonacci number of a given input number by fast doubling.
      * 
      * @param n the input number for which the Fibonacci number is to be calculated
      * 
      * @return the Fibonacci number of the input number
+     * @throws IllegalArgumentException if the input number is negative
      */
-    private int fibonacci(Integer n) {
-        switch (n) {
-            case 0:
-                return 0;
-            case 1:
-                return 1;
-            default:
-                return fibonacci(n-1) + fibonacci(n-2);
+    static BigInteger fibonacci(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("No Fibonacci number for " + n);
+        }
+        if (n <= LONG_LIMIT) {
+            return TABLE[n];
+        }
+        
+        // take the leading bits of n from the table, F(k) and F(k+1) must both be in it
+        int shift = 0;
+        while ((n >> shift) >= LONG_LIMIT) {
+            shift++;
+        }
+        int k = n >> shift;
+        BigInteger a = TABLE[k];
+        BigInteger b = TABLE[k + 1];
+        
+        // double k for each of the remaining bits, adding one where the bit is set
+        for (int bit = shift - 1; bit >= 0; bit--) {
+            // F(2k) and F(2k+1)
+            BigInteger doubled = a.multiply(b.shiftLeft(1).subtract(a));
+            BigInteger doubledPlusOne = a.multiply(a).add(b.multiply(b));
+            if (((n >> bit) & 1) == 0) {
+                a = doubled;
+                b = doubledPlusOne;
+            } else {
+                a = doubledPlusOne;
+                b = doubled.add(doubledPlusOne);
+            }
         }
+        return a;
     }
 }
@@ -0,0 +1,75 @@
+package appserver.job.impl;
+
+import appserver.job.Tool;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Class [FibonacciSequence] Tool that lists the Fibonacci numbers up to a given index, one per line.
+ * The list grows quadratically with the index, megabytes for a few thousand numbers, so it is
+ * returned as a stream that computes the numbers as it is read, and is streamed back in chunks.
+ *
+ * @author sampath
+ */
+public class FibonacciSequence implements Tool {
+
+    @Override
+    public Object go(Object parameters) {
+        return new SequenceStream((Integer) parameters);
+    }
+
+    // computes the lines of the numbers as they are read
+    private static class SequenceStream extends InputStream {
+
+        private final int last;
+        private int index = 0;
+        private BigInteger current = BigInteger.ZERO;
+        private BigInteger next = BigInteger.ONE;
+        private byte[] line = new byte[0];
+        private int position = 0;
+
+        SequenceStream(int last) {
+            this.last = last;
+        }
+
+        @Override
+        public int read() {
+            if (!fill()) {
+                return -1;
+            }
+            return line[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(length, line.length - position);
+            System.arraycopy(line, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+
+        // makes the next line ready once the current one is read, false at the end of the list
+        private boolean fill() {
+            if (position < line.length) {
+                return true;
+            }
+            if (index > last) {
+                return false;
+            }
+            line = (index + ": " + current + "\n").getBytes(StandardCharsets.US_ASCII);
+            position = 0;
+            BigInteger sum = current.add(next);
+            current = next;
+            next = sum;
+            index++;
+            return true;
+        }
+    }
+}
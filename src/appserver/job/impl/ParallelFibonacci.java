@@ -0,0 +1,60 @@
+package appserver.job.impl;
+
+import appserver.job.ContextAwareTool;
+import appserver.job.Deterministic;
+import appserver.job.ExecutionContext;
+import appserver.job.Idempotent;
+import java.math.BigInteger;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Class [ParallelFibonacci] Computes the Fibonacci number of a given input by the plain double
+ * recursion, forking the recursive calls on the ForkJoinPool of the satellite, so one job uses
+ * all its cores. Small inputs are computed right away, forking them costs more than it saves.
+ * It shows how a tool forks on the pool, Fibonacci computes the numbers far faster by fast doubling.
+ * The numbers are computed as long, so inputs above FibonacciAux.LONG_LIMIT are rejected; the result
+ * is a BigInteger, like the one of Fibonacci.
+ * 
+ * @author sampath
+ */
+public class ParallelFibonacci implements ContextAwareTool, Deterministic, Idempotent {
+
+    // inputs up to this are computed without forking
+    static final int SEQUENTIAL_THRESHOLD = 20;
+
+    @Override
+    public Object go(Object parameters, ExecutionContext context) {
+        int n = (Integer) parameters;
+        if (n < 0 || n > FibonacciAux.LONG_LIMIT) {
+            throw new IllegalArgumentException("Input " + n + " out of range, the Fibonacci numbers of 0 to " + FibonacciAux.LONG_LIMIT + " fit in a long");
+        }
+        return BigInteger.valueOf(context.getForkJoinPool().invoke(new FibonacciTask(n)));
+    }
+
+    // computes one Fibonacci number, forking the smaller half of the recursion
+    private static class FibonacciTask extends RecursiveTask<Long> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int n;
+
+        FibonacciTask(int n) {
+            this.n = n;
+        }
+
+        @Override
+        protected Long compute() {
+            if (n <= SEQUENTIAL_THRESHOLD) {
+                return fibonacci(n);
+            }
+            FibonacciTask smaller = new FibonacciTask(n - 2);
+            smaller.fork();
+            long larger = new FibonacciTask(n - 1).compute();
+            return larger + smaller.join();
+        }
+
+        private static long fibonacci(int n) {
+            return n < 2 ? n : fibonacci(n - 1) + fibonacci(n - 2);
+        }
+    }
+}
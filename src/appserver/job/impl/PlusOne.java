@@ -1,5 +1,7 @@
 package appserver.job.impl;
 
+import appserver.job.Deterministic;
+import appserver.job.Idempotent;
 import appserver.job.Tool;
 
 /**
@@ -7,7 +9,7 @@ import appserver.job.Tool;
  * 
  * @author Dr.-Ing. Wolf-Dieter Otte
  */
-public class PlusOne implements Tool{
+public class PlusOne implements Tool, Deterministic, Idempotent {
 
     PlusOneAux helper = null;
     
@@ -0,0 +1,101 @@
+package appserver.job.impl;
+
+import appserver.job.Deterministic;
+import appserver.job.Idempotent;
+import appserver.job.SplittableTool;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class [PrimeCount] Tool that counts the prime numbers in a range, given as long[] {from, to},
+ * from inclusive and to exclusive. The server splits the range into ranges of equal width,
+ * which take about equally long to sieve, and adds up their counts.
+ *
+ * The range is sieved in segments, with the primes up to the square root of its end.
+ *
+ * @author sampath
+ */
+public class PrimeCount implements SplittableTool, Deterministic, Idempotent {
+
+    // the numbers sieved at a time, small enough for the cache
+    static final int SEGMENT_SIZE = 1 << 18;
+
+    @Override
+    public Object go(Object parameters) {
+        long[] range = (long[]) parameters;
+        return count(Math.max(2, range[0]), range[1]);
+    }
+
+    @Override
+    public List<?> split(Object parameters, int parts) {
+        long[] range = (long[]) parameters;
+        long width = Math.max(0, range[1] - range[0]);
+        int count = (int) Math.max(1, Math.min(parts, width / SEGMENT_SIZE));
+
+        List<long[]> ranges = new ArrayList<>(count);
+        for (int part = 0; part < count; part++) {
+            long from = range[0] + width * part / count;
+            long to = range[0] + width * (part + 1) / count;
+            ranges.add(new long[]{from, to});
+        }
+        return ranges;
+    }
+
+    @Override
+    public Object merge(List<?> results) {
+        long total = 0;
+        for (Object result : results) {
+            total += (Long) result;
+        }
+        return total;
+    }
+
+    // counts the primes in [from, to)
+    private static long count(long from, long to) {
+        if (from >= to) {
+            return 0L;
+        }
+        int[] sievingPrimes = primesUpTo((int) Math.sqrt(to - 1) + 1);
+        boolean[] composite = new boolean[SEGMENT_SIZE];
+        long count = 0;
+
+        for (long low = from; low < to; low += SEGMENT_SIZE) {
+            int size = (int) Math.min(SEGMENT_SIZE, to - low);
+            Arrays.fill(composite, 0, size, false);
+            for (int prime : sievingPrimes) {
+                long square = (long) prime * prime;
+                if (square >= low + size) {
+                    break;
+                }
+                // the first multiple in the segment, primes themselves stay unmarked
+                long first = Math.max(square, (low + prime - 1) / prime * prime);
+                for (long multiple = first; multiple < low + size; multiple += prime) {
+                    composite[(int) (multiple - low)] = true;
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                if (!composite[i]) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    // the primes up to and including limit, by the sieve of Eratosthenes
+    private static int[] primesUpTo(int limit) {
+        boolean[] composite = new boolean[limit + 1];
+        int[] primes = new int[limit + 1];
+        int count = 0;
+        for (int n = 2; n <= limit; n++) {
+            if (!composite[n]) {
+                primes[count++] = n;
+                for (long multiple = (long) n * n; multiple <= limit; multiple += n) {
+                    composite[(int) multiple] = true;
+                }
+            }
+        }
+        return Arrays.copyOf(primes, count);
+    }
+}
@@ -50,16 +50,7 @@ public class HTTPClassLoader extends ClassLoader {
 
         DataInputStream readFromNet = null;
         PrintStream writeToNet = null;
-
-        // aux fields for processing HTTP-header
-        byte[] protocolHeaderLine = new byte[256];
-        String inputLine;
-
-        // aux fields for reading bytes of class file
         byte[] classData = null;
-        int bytesRead = 0;
-        int offset = 0;
-        int blockSize = 128;
 
         try {
             Socket classDataSocket = new Socket(host, port);
@@ -77,73 +68,105 @@ public class HTTPClassLoader extends ClassLoader {
             writeToNet.print(stringToNet);
             writeToNet.flush();
 
-	    // **************************************************************************************************
-            // process header information ...
-            System.err.println("\nServer responds:");
-            int i = -1;
-            while ((protocolHeaderLine[++i] = readFromNet.readByte()) != (byte) '\n') {
-                ; // empty loop
-            }
-            i--;
-            inputLine = new String(protocolHeaderLine, 0, i);
-            System.err.println(inputLine);
-
-            StringTokenizer tokenizer = new StringTokenizer(inputLine);
-            tokenizer.nextToken();
-            String returnCode = tokenizer.nextToken();
-
-            if (returnCode.equals("200")) {
-                // skip the rest
-                while (true) {
-                    i = -1;
-                    while ((protocolHeaderLine[++i] = readFromNet.readByte()) != (byte) '\n') {
-                        ; // empty loop
-                    }
-                    i--;
-                    inputLine = new String(protocolHeaderLine, 0, i);
-                    System.err.println(inputLine);
-
-                    // look for empty line, there is the beginning of the class file data
-                    if (inputLine.trim().equals("")) {
-                        break; // ... this is the beginning
-                    }
-                }
-            } else {
-                throw new ClassNotFoundException("Class file not found");
-            }
+            classData = readClassData(readFromNet, System.err);
+        } catch (IOException ioe) {
+            throw new ClassNotFoundException(ioe.toString());
+        }
+
+        System.err.println("Bytes Class \"" + className + "\" loaded");
+
+        return classData;
+    }
+
+    /**
+     * Auxiliary method for <code>loadClassData()</code>. Parses the response of
+     * the web server, i.e. skips the HTTP-header and reads the bytes of the class file
+     *
+     * @param readFromNet the response of the web server
+     * @param log takes the lines of the HTTP-header, null for none
+     */
+    static byte[] readClassData(DataInputStream readFromNet, PrintStream log) throws IOException, ClassNotFoundException {
+
+        // aux fields for processing HTTP-header
+        byte[] protocolHeaderLine = new byte[256];
+        String inputLine;
 
-	    // **************************************************************************************************
-            // read the bytes of the class file ...
-            classData = new byte[blockSize];
+        // aux fields for reading bytes of class file
+        byte[] classData = null;
+        int bytesRead = 0;
+        int offset = 0;
+        int blockSize = 128;
 
+        // **************************************************************************************************
+        // process header information ...
+        if (log != null) {
+            log.println("\nServer responds:");
+        }
+        int i = -1;
+        while ((protocolHeaderLine[++i] = readFromNet.readByte()) != (byte) '\n') {
+            ; // empty loop
+        }
+        i--;
+        inputLine = new String(protocolHeaderLine, 0, i);
+        if (log != null) {
+            log.println(inputLine);
+        }
+
+        StringTokenizer tokenizer = new StringTokenizer(inputLine);
+        tokenizer.nextToken();
+        String returnCode = tokenizer.nextToken();
+
+        if (returnCode.equals("200")) {
+            // skip the rest
             while (true) {
-                bytesRead = readFromNet.read(classData, offset, blockSize);
+                i = -1;
+                while ((protocolHeaderLine[++i] = readFromNet.readByte()) != (byte) '\n') {
+                    ; // empty loop
+                }
+                i--;
+                inputLine = new String(protocolHeaderLine, 0, i);
+                if (log != null) {
+                    log.println(inputLine);
+                }
 
-				// End-of-Stream reached
-                // is EOS reached immediately, the file is empty or not there
-                if (bytesRead == -1) {
-                    // EOS or no data
-                    break;
+                // look for empty line, there is the beginning of the class file data
+                if (inputLine.trim().equals("")) {
+                    break; // ... this is the beginning
                 }
+            }
+        } else {
+            throw new ClassNotFoundException("Class file not found");
+        }
 
-                offset += bytesRead;
+        // **************************************************************************************************
+        // read the bytes of the class file ...
+        classData = new byte[blockSize];
 
-                // enlarge field, if necessary
-                if (offset + blockSize >= classData.length) {
-                    byte[] temp = new byte[classData.length * 2];
-                    System.arraycopy(classData, 0, temp, 0, offset);
-                    classData = temp;
-                }
+        while (true) {
+            bytesRead = readFromNet.read(classData, offset, blockSize);
+
+            // End-of-Stream reached
+            // is EOS reached immediately, the file is empty or not there
+            if (bytesRead == -1) {
+                // EOS or no data
+                break;
             }
 
-            // cut field to proper size
-            if (offset < classData.length) {
-                byte[] temp = new byte[offset];
+            offset += bytesRead;
+
+            // enlarge field, if necessary
+            if (offset + blockSize >= classData.length) {
+                byte[] temp = new byte[classData.length * 2];
                 System.arraycopy(classData, 0, temp, 0, offset);
                 classData = temp;
             }
-        } catch (IOException ioe) {
-            throw new ClassNotFoundException(ioe.toString());
+        }
+
+        // cut field to proper size
+        if (offset < classData.length) {
+            byte[] temp = new byte[offset];
+            System.arraycopy(classData, 0, temp, 0, offset);
+            classData = temp;
         }
 
         // class file data there?
@@ -151,8 +174,6 @@ public class HTTPClassLoader extends ClassLoader {
             throw new ClassNotFoundException("No class file present or class file empty");
         }
 
-        System.err.println("Bytes Class \"" + className + "\" loaded");
-
         return classData;
     }
 }
@@ -2,22 +2,48 @@ package appserver.satellite;
 
 import appserver.job.Job;
 import appserver.comm.ConnectivityInfo;
+import appserver.job.ContextAwareTool;
+import appserver.job.ExecutionContext;
 import appserver.job.UnknownToolException;
+import appserver.comm.FramedProtocol;
 import appserver.comm.Message;
+import appserver.comm.PullRequest;
+import appserver.comm.SatelliteCapacity;
+import appserver.comm.StreamedResult;
+import appserver.comm.TimingTrace;
+import static appserver.comm.MessageTypes.CANCEL_JOB;
 import static appserver.comm.MessageTypes.JOB_REQUEST;
+import static appserver.comm.MessageTypes.JOB_RESULT;
+import static appserver.comm.MessageTypes.HEARTBEAT;
+import static appserver.comm.MessageTypes.PULL_JOBS;
 import static appserver.comm.MessageTypes.REGISTER_SATELLITE;
+import static appserver.comm.MessageTypes.RESULT_CHUNK;
+import static appserver.comm.MessageTypes.SERVER_BUSY;
+import static appserver.comm.MessageTypes.UNREGISTER_SATELLITE;
 
 import appserver.job.Tool;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.Arrays;
 import java.util.Hashtable;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import utils.ConnectionExecutor;
 import utils.PropertyHandler;
 
 /**
@@ -29,10 +55,26 @@ import utils.PropertyHandler;
  */
 public class Satellite extends Thread {
 
+    // milliseconds after which a satellite offers a server that pushes jobs to pull them once more
+    static final long PULL_OFFER_INTERVAL = 30000;
+    // milliseconds after which a job this satellite had no room for may be sent again
+    static final long BUSY_RETRY_AFTER_MILLIS = 100;
+
     private ConnectivityInfo satelliteInfo = new ConnectivityInfo();
     private ConnectivityInfo serverInfo = new ConnectivityInfo();
     private HTTPClassLoader classLoader = null;
     private Hashtable<String, Tool> toolsCache = null;
+    private ConnectionExecutor jobExecutor = null;
+    private ConnectionExecutor connectionExecutor = null;
+    // shared with the tools, its ForkJoinPool runs the subtasks of all jobs
+    private ExecutionContext executionContext = null;
+    private long heartbeatInterval = 0;
+    // how many jobs this satellite pulls from the server at a time, if the server lets it
+    private int pullSlots = 0;
+    // the codec of the framed connections this satellite opens to the server
+    private FramedProtocol.Codec codec = FramedProtocol.Codec.JAVA;
+    // the size of the chunks a streamed result is sent back in
+    private int resultChunkBytes = 64 * 1024;
 
     public Satellite(String satellitePropertiesFile, String classLoaderPropertiesFile, String serverPropertiesFile) {
 
@@ -56,6 +98,27 @@ public class Satellite extends Thread {
 
             satelliteInfo.setName(name);
             satelliteInfo.setPort(port);
+
+            // create the executors that run the jobs and serve the connections from the server,
+            // a connection keeps its thread for as long as it is open
+            jobExecutor = new ConnectionExecutor("SatelliteJob", properties);
+            connectionExecutor = new ConnectionExecutor("SatelliteThread", properties, "CONNECTION_");
+
+            // one pool for the subtasks of all jobs, so parallel tools do not oversubscribe the cores
+            int parallelism = Integer.parseInt(properties.getProperty("FORK_JOIN_PARALLELISM", "0").trim());
+            if (parallelism <= 0) {
+                parallelism = Runtime.getRuntime().availableProcessors();
+            }
+            System.out.println("[Satellite.Satellite] FORK_JOIN_PARALLELISM: " + parallelism);
+            executionContext = new ExecutionContext(new ForkJoinPool(parallelism));
+
+            heartbeatInterval = Long.parseLong(properties.getProperty("HEARTBEAT_INTERVAL", "2000").trim());
+            System.out.println("[Satellite.Satellite] HEARTBEAT_INTERVAL: " + heartbeatInterval);
+
+            // in pull mode, take as many jobs at a time as there are workers, 0 to never pull
+            String defaultSlots = properties.getProperty("POOL_SIZE", String.valueOf(Runtime.getRuntime().availableProcessors()));
+            pullSlots = Integer.parseInt(properties.getProperty("PULL_SLOTS", defaultSlots).trim());
+            System.out.println("[Satellite.Satellite] PULL_SLOTS: " + pullSlots);
         } catch (IOException ex) {
             System.err.println("[Satellite.Satellite] Severe: " + ex.getMessage());
         }
@@ -77,6 +140,13 @@ public class Satellite extends Thread {
 
             serverInfo.setHost(host);
             serverInfo.setPort(port);
+
+            codec = FramedProtocol.Codec.forName(properties.getProperty("CODEC", "java"));
+            System.out.println("[Satellite.Satellite] CODEC: " + codec);
+            resultChunkBytes = Integer.parseInt(properties.getProperty("RESULT_CHUNK_BYTES", "65536").trim());
+            // a chunk has to fit in a frame, with the rest of its message
+            resultChunkBytes = Math.max(1, Math.min(resultChunkBytes, FramedProtocol.MAX_FRAME_SIZE / 2));
+            System.out.println("[Satellite.Satellite] RESULT_CHUNK_BYTES: " + resultChunkBytes);
         } catch (IOException ex) {
             System.err.println("[Satellite.Satellite] Severe: " + ex.getMessage());
         }
@@ -118,19 +188,21 @@ public class Satellite extends Thread {
         // ---------------------------------------------------------------
         
         try { 
-            // connect to application server
-            Socket server = new Socket(serverInfo.getHost(), serverInfo.getPort());
-            
-            // send request to register satellite
-            Message message = new Message(REGISTER_SATELLITE, satelliteInfo);
-            
-            // sending job out to the application server in a message
-            ObjectOutputStream writeToNet = new ObjectOutputStream(server.getOutputStream());
-            writeToNet.writeObject(message);
-            
+            // send request to register satellite, along with its capacity
+            satelliteInfo.setCapacity(measureCapacity());
+            sendToServer(new Message(REGISTER_SATELLITE, satelliteInfo));
         } catch (Exception ex) {
             System.err.println("[Satellite.run] Error occurred " + ex.getMessage());
         }
+
+        // unregister when shutting down, so the server stops sending jobs right away
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                sendToServer(new Message(UNREGISTER_SATELLITE, satelliteInfo));
+            } catch (IOException ex) {
+                System.err.println("[Satellite.run] Error occurred " + ex.getMessage());
+            }
+        }));
         
         
         // create server socket
@@ -143,25 +215,233 @@ public class Satellite extends Thread {
         }
         
         
+        // let the server know this satellite is alive
+        // ---------------------------------------------------------------
+        if (heartbeatInterval > 0) {
+            Thread heartbeat = new Thread(this::sendHeartbeats, "Satellite-Heartbeat");
+            heartbeat.setDaemon(true);
+            heartbeat.start();
+        }
+        
+        
+        // pull jobs from the server, if it lets this satellite
+        // ---------------------------------------------------------------
+        if (pullSlots > 0) {
+            Thread puller = new Thread(this::pullJobs, "Satellite-Puller");
+            puller.setDaemon(true);
+            puller.start();
+        }
+        
+        
         // start taking job requests in a server loop
         // ---------------------------------------------------------------
         System.out.println("[Satellite.run] Waiting for connections on Port #" + satelliteInfo.getPort());
         while (true) {
+            Socket socket;
             try {
-                new SatelliteThread(serverSocket.accept()).start();
-
+                socket = serverSocket.accept();
             } catch (IOException ex) {
                 System.out.println("[Satellite.run] Severe: unable to create connection");
+                continue;
+            }
+            if (!connectionExecutor.execute(new SatelliteThread(socket))) {
+                // the server sees the connection close and sends the job elsewhere
+                System.err.println("[Satellite.run] Warning: too many connections, closing connection (" + connectionExecutor + ")");
+                try {
+                    socket.close();
+                } catch (IOException ex) {
+                    // nothing left to do
+                }
+                continue;
+            }
+            System.out.println("[Satellite.run] A connection to a client is established! (connections " + connectionExecutor
+                    + ", jobs " + jobExecutor + ")");
+        }
+    }
+
+    // the resources of this satellite, the jobs it runs at a time are the threads of the job executor
+    private SatelliteCapacity measureCapacity() {
+        int workerSlots = jobExecutor.getPoolSize() > 0 ? jobExecutor.getPoolSize() : Runtime.getRuntime().availableProcessors();
+        return SatelliteCapacity.measure(workerSlots);
+    }
+
+    // sends a heartbeat to the server every heartbeatInterval milliseconds, along with the current
+    // capacity, a server that does not know this satellite (any more) registers it again when it gets the heartbeat
+    private void sendHeartbeats() {
+        while (true) {
+            try {
+                Thread.sleep(heartbeatInterval);
+                satelliteInfo.setCapacity(measureCapacity());
+                sendToServer(new Message(HEARTBEAT, satelliteInfo));
+            } catch (IOException ex) {
+                System.err.println("[Satellite.sendHeartbeats] Warning: server not reachable, " + ex.getMessage());
+            } catch (InterruptedException ex) {
+                return;
+            }
+        }
+    }
+
+    // keeps a framed connection to the server open, over which it pulls pullSlots jobs at a time:
+    // the server sends a job whenever a slot is free, the result sent back frees the slot again.
+    // A server that pushes jobs declines the offer, it is made again now and then in case the
+    // server is restarted in pull mode
+    private void pullJobs() {
+        boolean declined = false;
+        while (true) {
+            try (Socket server = new Socket(serverInfo.getHost(), serverInfo.getPort())) {
+                server.setTcpNoDelay(true);
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(server.getOutputStream()));
+                DataInputStream input = new DataInputStream(new BufferedInputStream(server.getInputStream()));
+
+                output.writeInt(codec.getPreamble());
+                FramedProtocol.writeFrame(output, new Message(PULL_JOBS, new PullRequest(satelliteInfo.getName(), pullSlots)), codec);
+                Message answer = FramedProtocol.readFrame(input, codec);
+                if (answer.getType() != PULL_JOBS || !Boolean.TRUE.equals(answer.getContent())) {
+                    if (!declined) {
+                        System.out.println("[Satellite.pullJobs] The server pushes jobs");
+                    }
+                    declined = true;
+                } else {
+                    declined = false;
+                    System.out.println("[Satellite.pullJobs] Pulling " + pullSlots + " jobs at a time");
+                    serveJobs(input, output);
+                }
+            } catch (IOException ex) {
+                System.err.println("[Satellite.pullJobs] Warning: connection to server lost, " + ex.getMessage());
+            }
+
+            // try again later
+            try {
+                Thread.sleep(declined ? PULL_OFFER_INTERVAL : 1000);
+            } catch (InterruptedException ex) {
+                return;
+            }
+        }
+    }
+
+    // runs the jobs the server sends over a pull connection, until the connection breaks
+    private void serveJobs(DataInputStream input, DataOutputStream output) throws IOException {
+
+        while (true) {
+            Message message = FramedProtocol.readFrame(input, codec);
+            if (message.getType() != JOB_REQUEST) {
+                System.err.println("[Satellite.serveJobs] Warning: Message type not implemented");
+                continue;
+            }
+            Job job = (Job) message.getContent();
+            long correlationId = message.getCorrelationId();
+            long received = System.nanoTime();
+            boolean accepted = jobExecutor.execute(() -> sendResult(job, correlationId, received, reply -> writeFrame(output, reply, codec)));
+            if (!accepted) {
+                System.err.println("[Satellite.serveJobs] Warning: too many jobs, rejecting job (" + jobExecutor + ")");
+                writeFrame(output, new Message(SERVER_BUSY, BUSY_RETRY_AFTER_MILLIS, correlationId), codec);
+            }
+        }
+    }
+
+    // sends a frame to the server, frames of concurrent jobs must not interleave
+    private static void writeFrame(DataOutputStream output, Message message, FramedProtocol.Codec codec) {
+        try {
+            synchronized (output) {
+                FramedProtocol.writeFrame(output, message, codec);
+            }
+        } catch (IOException ex) {
+            System.err.println("[Satellite.writeFrame] Severe: " + ex.getMessage());
+        }
+    }
+
+    // sends a message the server does not reply to, over a connection of its own
+    private void sendToServer(Message message) throws IOException {
+        try (Socket server = new Socket(serverInfo.getHost(), serverInfo.getPort())) {
+            ObjectOutputStream writeToNet = new ObjectOutputStream(server.getOutputStream());
+            writeToNet.writeObject(message);
+            writeToNet.flush();
+        }
+    }
+
+    // runs a job and sends its result in a JOB_RESULT message, with the timing on this satellite if the job is traced.
+    // A streamed result goes out in RESULT_CHUNK messages first, the JOB_RESULT carries a StreamedResult then
+    private void sendResult(Job job, long correlationId, long receivedNanos, Consumer<Message> send) {
+        TimingTrace trace = job.getTrace() == null ? null : new TimingTrace();
+        if (trace != null) {
+            trace.record(TimingTrace.SATELLITE_QUEUE_WAIT, System.nanoTime() - receivedNanos);
+        }
+        Object result = executeJob(job, trace);
+        if (result instanceof InputStream) {
+            result = streamResult((InputStream) result, correlationId, send);
+        } else if (result instanceof byte[] && ((byte[]) result).length > resultChunkBytes) {
+            result = streamResult(new ByteArrayInputStream((byte[]) result), correlationId, send);
+        }
+        Message reply = new Message(JOB_RESULT, result, correlationId);
+        reply.setTrace(trace);
+        send.accept(reply);
+    }
+
+    // sends the bytes of a stream in chunks, returns null if the stream breaks off
+    private StreamedResult streamResult(InputStream stream, long correlationId, Consumer<Message> send) {
+        int chunks = 0;
+        long length = 0;
+        try (InputStream input = stream) {
+            byte[] buffer = new byte[resultChunkBytes];
+            int count;
+            while ((count = input.readNBytes(buffer, 0, buffer.length)) > 0) {
+                send.accept(new Message(RESULT_CHUNK, Arrays.copyOf(buffer, count), correlationId));
+                chunks++;
+                length += count;
             }
-            System.out.println("[Satellite.run] A connection to a client is established!");
+        } catch (IOException | RuntimeException ex) {
+            System.err.println("[Satellite.streamResult] Severe: result broke off after " + length + " bytes, " + ex);
+            return null;
         }
+        return new StreamedResult(chunks, length);
     }
 
-    // inner helper class that is instanciated in above server loop and processes single job requests
+    // the result of a job in one piece, for peers that do not take chunks
+    private static Object wholeResult(Object result) {
+        if (!(result instanceof InputStream)) {
+            return result;
+        }
+        try (InputStream input = (InputStream) result) {
+            return input.readAllBytes();
+        } catch (IOException | RuntimeException ex) {
+            System.err.println("[Satellite.wholeResult] Severe: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    // runs a job, returns null if the job could not be done
+    private Object executeJob(Job job, TimingTrace trace) {
+        try {
+            // get the Tool
+            long start = System.nanoTime();
+            Tool tool = getToolObject(job.getToolName());
+            long loaded = System.nanoTime();
+            // compute the operation
+            Object result = tool instanceof ContextAwareTool ? ((ContextAwareTool) tool).go(job.getParameters(), executionContext)
+                    : tool.go(job.getParameters());
+            if (trace != null) {
+                trace.record(TimingTrace.CLASS_LOAD, loaded - start);
+                trace.record(TimingTrace.EXECUTE, System.nanoTime() - loaded);
+            }
+            return result;
+        } catch (UnknownToolException | ClassNotFoundException | InstantiationException | IllegalAccessException ex) {
+            System.err.println("[Satellite.executeJob] Severe: " + ex.getMessage());
+            return null;
+        } catch (RuntimeException ex) {
+            // a tool that fails must not keep the server waiting for the result
+            System.err.println("[Satellite.executeJob] Severe: " + job.getToolName() + " failed: " + ex);
+            return null;
+        }
+    }
+
+    // inner helper class that is instanciated in above server loop and processes the job requests
+    // coming in on one connection, the connection stays open until the peer closes it
     private class SatelliteThread extends Thread {
 
         Satellite satellite = null;
         Socket jobRequest = null;
+        // the multiplexed jobs that wait for a thread, true once the server cancelled them
+        private final ConcurrentHashMap<Long, Boolean> waitingJobs = new ConcurrentHashMap<>();
         ObjectInputStream readFromNet = null;
         ObjectOutputStream writeToNet = null;
         Message message = null;
@@ -172,39 +452,137 @@ public class Satellite extends Thread {
 
         @Override
         public void run() {
-            // setting up object streams
+            // setting up object streams, unless the server opens a framed connection with the preamble of its codec
             try {
-                readFromNet = new ObjectInputStream(jobRequest.getInputStream());
+                DataInputStream input = new DataInputStream(new BufferedInputStream(jobRequest.getInputStream()));
+                input.mark(4);
+                FramedProtocol.Codec frameCodec = FramedProtocol.Codec.forPreamble(input.readInt());
+                if (frameCodec != null) {
+                    serveFramed(input, frameCodec);
+                    jobRequest.close();
+                    return;
+                }
+                input.reset();
+
+                readFromNet = new ObjectInputStream(input);
                 writeToNet = new ObjectOutputStream(jobRequest.getOutputStream());
+                writeToNet.flush();
             } catch (IOException ex) {
                 System.err.println("[SatelliteThread.run] Severe: Error in opening object streams");
+                return;
             }
             
-            // reading message
+            while (true) {
+                // reading message
+                try {
+                    message = (Message) readFromNet.readObject();
+                } catch (EOFException ex) {
+                    // peer closed the connection
+                    break;
+                } catch (IOException | ClassNotFoundException ex) {
+                    System.err.println("[SatelliteThread.run] Severe: Unable to read the message");
+                    break;
+                }
+
+                switch (message.getType()) {
+                    case JOB_REQUEST:
+                        // processing job request
+                        Job job = (Job) message.getContent();
+                        long correlationId = message.getCorrelationId();
+
+                        if (correlationId == 0) {
+                            // plain request, send back the bare result
+                            writeReply(wholeResult(executeJob(job, null)));
+                        } else {
+                            // multiplexed request, other requests on this connection must not wait for it
+                            boolean accepted = submit(job, correlationId, this::writeReply);
+                            if (!accepted) {
+                                System.err.println("[SatelliteThread.run] Warning: too many jobs, rejecting job (" + jobExecutor + ")");
+                                writeReply(new Message(SERVER_BUSY, BUSY_RETRY_AFTER_MILLIS, correlationId));
+                            }
+                        }
+                        break;
+
+                    case CANCEL_JOB:
+                        cancel(message.getCorrelationId());
+                        break;
+
+                    default:
+                        System.err.println("[SatelliteThread.run] Warning: Message type not implemented");
+                }
+            }
+
             try {
-                message = (Message) readFromNet.readObject();
-            } catch (IOException | ClassNotFoundException ex) {
-                System.err.println("[SatelliteThread.run] Severe: Unable to read the message");
+                jobRequest.close();
+            } catch (IOException ex) {
+                // nothing left to do
             }
-            
-            switch (message.getType()) {
-                case JOB_REQUEST:
-                    // processing job request
-                    Job job = (Job) message.getContent();
-                    try {
-                        // get the Tool
-                        Tool tool = getToolObject(job.getToolName());
-                        // compute the operation
-                        Object object = tool.go(job.getParameters());
-                        // send back the result to the client
-                        writeToNet.writeObject(((Integer) object));
-                    } catch (UnknownToolException | ClassNotFoundException | InstantiationException | IllegalAccessException | IOException ex) {
-                        System.err.println("[SatelliteThread.run] Severe: " + ex.getMessage());
-                    }
-                    break;
+        }
+
+        // serves the job requests of a framed connection, the results are sent back as the jobs complete
+        private void serveFramed(DataInputStream input, FramedProtocol.Codec frameCodec) throws IOException {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(jobRequest.getOutputStream()));
+            while (true) {
+                try {
+                    message = FramedProtocol.readFrame(input, frameCodec);
+                } catch (EOFException ex) {
+                    // peer closed the connection
+                    return;
+                } catch (IOException ex) {
+                    System.err.println("[SatelliteThread.serveFramed] Severe: Unable to read the message, " + ex.getMessage());
+                    return;
+                }
+                if (message.getType() == CANCEL_JOB) {
+                    cancel(message.getCorrelationId());
+                    continue;
+                }
+                if (message.getType() != JOB_REQUEST) {
+                    System.err.println("[SatelliteThread.serveFramed] Warning: Message type not implemented");
+                    continue;
+                }
+
+                Job job = (Job) message.getContent();
+                long correlationId = message.getCorrelationId();
+                boolean accepted = submit(job, correlationId, reply -> writeFrame(output, reply, frameCodec));
+                if (!accepted) {
+                    System.err.println("[SatelliteThread.serveFramed] Warning: too many jobs, rejecting job (" + jobExecutor + ")");
+                    writeFrame(output, new Message(SERVER_BUSY, BUSY_RETRY_AFTER_MILLIS, correlationId), frameCodec);
+                }
+            }
+        }
 
-                default:
-                    System.err.println("[SatelliteThread.run] Warning: Message type not implemented");
+        // hands a multiplexed job to the job executor, it is skipped if it is cancelled before it starts
+        private boolean submit(Job job, long correlationId, Consumer<Message> send) {
+            long received = System.nanoTime();
+            waitingJobs.put(correlationId, Boolean.FALSE);
+            boolean accepted = jobExecutor.execute(() -> {
+                if (Boolean.TRUE.equals(waitingJobs.remove(correlationId))) {
+                    // the server does not wait for the result any more
+                    return;
+                }
+                sendResult(job, correlationId, received, send);
+            });
+            if (!accepted) {
+                waitingJobs.remove(correlationId);
+            }
+            return accepted;
+        }
+
+        // cancels a job that did not start yet, a job that runs already is done to the end
+        private void cancel(long correlationId) {
+            waitingJobs.replace(correlationId, Boolean.FALSE, Boolean.TRUE);
+        }
+
+        // sends back a reply, replies of concurrent jobs must not interleave on the stream
+        private void writeReply(Object reply) {
+            try {
+                synchronized (writeToNet) {
+                    writeToNet.writeObject(reply);
+                    writeToNet.flush();
+                    writeToNet.reset();
+                }
+            } catch (IOException ex) {
+                System.err.println("[SatelliteThread.run] Severe: " + ex.getMessage());
             }
         }
     }
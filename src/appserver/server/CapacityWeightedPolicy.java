@@ -0,0 +1,69 @@
+package appserver.server;
+
+import appserver.comm.SatelliteCapacity;
+import appserver.job.Job;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The class [CapacityWeightedPolicy] picks the satellite with the fewest jobs in flight
+ * per unit of capacity, so a satellite with 64 worker slots takes eight times the jobs
+ * of one with 8.
+ *
+ * The capacity is what the satellite advertised: its worker slots, or its processors if it
+ * did not tell its slots. It is scaled down when the machine is busier than its processors,
+ * e.g. with processes other than the satellite, and when the heap is nearly full.
+ * Satellites that did not advertise a capacity count as one slot.
+ *
+ * @author sampath
+ */
+public class CapacityWeightedPolicy implements SchedulingPolicy {
+
+    // below this share of free heap, the capacity of a satellite shrinks
+    static final double LOW_HEAP = 0.1;
+
+    // where to start the search, moves on with every selection to break ties
+    private final AtomicInteger start = new AtomicInteger();
+
+    @Override
+    public SatelliteLoad select(List<SatelliteLoad> satellites, Job job) {
+        int size = satellites.size();
+        int offset = Math.floorMod(start.getAndIncrement(), size);
+
+        SatelliteLoad best = null;
+        double bestCost = Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            SatelliteLoad candidate = satellites.get((offset + i) % size);
+            // the share of the capacity taken, with the job to be dispatched
+            double cost = (candidate.getInFlight() + 1) / weight(candidate.getCapacity());
+            if (cost < bestCost) {
+                best = candidate;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the number of jobs a satellite takes at a time, as far as its advertised capacity tells.
+     */
+    static double weight(SatelliteCapacity capacity) {
+        if (capacity == null) {
+            return 1;
+        }
+        double weight = capacity.getWorkerSlots() > 0 ? capacity.getWorkerSlots() : Math.max(1, capacity.getProcessors());
+
+        // the machine is busy with more than the processors it has
+        if (capacity.getLoadAverage() > capacity.getProcessors() && capacity.getProcessors() > 0) {
+            weight *= capacity.getProcessors() / capacity.getLoadAverage();
+        }
+        // the satellite is about to run out of memory
+        if (capacity.getMaxHeapBytes() > 0) {
+            double freeHeap = (double) capacity.getFreeHeapBytes() / capacity.getMaxHeapBytes();
+            if (freeHeap < LOW_HEAP) {
+                weight *= Math.max(0.01, freeHeap / LOW_HEAP);
+            }
+        }
+        return Math.max(0.01, weight);
+    }
+}
@@ -0,0 +1,45 @@
+package appserver.server;
+
+import appserver.comm.StreamedResult;
+import java.util.function.Consumer;
+
+/**
+ * The class [ChunkRelay] relays the chunks of a streamed result to the connection of its client.
+ * The transport buffers the chunks until the client reads them, up to a limit; a client that
+ * falls further behind than that does not get the rest of the chunks, and its result fails,
+ * so a slow client cannot make the server hold a large result after all.
+ *
+ * @author sampath
+ */
+class ChunkRelay implements Consumer<byte[]> {
+
+    // takes a chunk for the client, refuses it if too much is buffered for the client already
+    interface Sink {
+        boolean offer(byte[] chunk);
+    }
+
+    private final Sink sink;
+    private volatile boolean broken = false;
+
+    ChunkRelay(Sink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void accept(byte[] chunk) {
+        if (broken) {
+            return;
+        }
+        if (!sink.offer(chunk)) {
+            broken = true;
+            System.err.println("[ChunkRelay.accept] Warning: client too slow, dropping the rest of a streamed result");
+        }
+    }
+
+    /**
+     * Gives the reply to send after the chunks, null, i.e. a failed job, if chunks were dropped.
+     */
+    Object reply(Object reply) {
+        return broken && reply instanceof StreamedResult ? null : reply;
+    }
+}
@@ -0,0 +1,70 @@
+package appserver.server;
+
+import appserver.comm.StreamedResult;
+import appserver.job.Job;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The class [ChunkedResults] takes the chunks of the results a satellite streams back over
+ * one connection. The chunks of a job whose client takes them as they come are relayed to the
+ * client right away, so the server does not hold the result. The chunks of other jobs are put
+ * together, and their result is handed on in one piece, as a byte array.
+ *
+ * @author sampath
+ */
+class ChunkedResults {
+
+    // the results being put together, keyed by the correlation id of their job
+    private final ConcurrentHashMap<Long, ByteArrayOutputStream> assembling = new ConcurrentHashMap<>();
+
+    /**
+     * Takes a chunk of the result of a job.
+     *
+     * @param job the job, null if it is not known
+     * @param correlationId the correlation id of the job on the connection
+     * @param chunk the bytes of the chunk
+     */
+    void add(Job job, long correlationId, byte[] chunk) {
+        if (job == null) {
+            return;
+        }
+        if (job.isStreamed()) {
+            job.relayChunk(chunk);
+            return;
+        }
+        ByteArrayOutputStream bytes = assembling.computeIfAbsent(correlationId, id -> new ByteArrayOutputStream());
+        bytes.write(chunk, 0, chunk.length);
+    }
+
+    /**
+     * Returns the result of a job, given the content of its JOB_RESULT message. The result of
+     * a streamed job whose chunks were not relayed is the bytes of its chunks.
+     *
+     * @param job the job, null if it is not known
+     * @param correlationId the correlation id of the job on the connection
+     * @param content the content of the JOB_RESULT message
+     */
+    Object complete(Job job, long correlationId, Object content) {
+        ByteArrayOutputStream bytes = assembling.remove(correlationId);
+        if (!(content instanceof StreamedResult) || job == null || job.isStreamed()) {
+            // a result in one piece, relayed chunks, or a stream that broke off, i.e. a null result
+            return content;
+        }
+        return bytes == null ? new byte[0] : bytes.toByteArray();
+    }
+
+    /**
+     * Drops the result of a job being put together, e.g. when the job timed out.
+     */
+    void discard(long correlationId) {
+        assembling.remove(correlationId);
+    }
+
+    /**
+     * Drops the results being put together, e.g. when the connection breaks.
+     */
+    void clear() {
+        assembling.clear();
+    }
+}
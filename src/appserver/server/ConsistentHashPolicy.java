@@ -0,0 +1,148 @@
+package appserver.server;
+
+import appserver.job.Job;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The class [ConsistentHashPolicy] sends the jobs of a tool to the same few satellites, so the
+ * satellites find the tool in their tools cache, loaded and warmed up, instead of each satellite
+ * loading every tool over the network.
+ *
+ * The satellites are placed on a hash ring, each at a number of virtual nodes. A job goes to the
+ * first satellite at or after the hash of its tool name on the ring. When a satellite comes or goes,
+ * only the tools next to it on the ring move. To keep a hot tool from overloading its satellite,
+ * the load is bounded: a satellite with more than (1 + loadFactor) times the average number of jobs
+ * in flight is skipped, and the job spills over to the next satellite on the ring.
+ *
+ * The ring is built from all registered satellites, also when only some of them may take the job,
+ * e.g. as the others are at their job limit; the satellites that may not are skipped on the ring
+ * like the overloaded ones, so the tools of the other satellites stay where they are.
+ *
+ * @author sampath
+ */
+public class ConsistentHashPolicy implements SchedulingPolicy {
+
+    static final int DEFAULT_VIRTUAL_NODES = 100;
+    static final double DEFAULT_LOAD_FACTOR = 0.25;
+
+    // the ring of the satellites it was built for
+    private static final class Ring {
+
+        final List<SatelliteLoad> satellites;
+        // the points on the ring, sorted, and the satellite at each point
+        final long[] points;
+        final SatelliteLoad[] owners;
+
+        Ring(List<SatelliteLoad> satellites, int virtualNodes) {
+            this.satellites = satellites;
+
+            long[][] nodes = new long[satellites.size() * virtualNodes][];
+            int count = 0;
+            for (int i = 0; i < satellites.size(); i++) {
+                for (int node = 0; node < virtualNodes; node++) {
+                    nodes[count++] = new long[]{hash(satellites.get(i).getName() + "#" + node), i};
+                }
+            }
+            Arrays.sort(nodes, (first, second) -> Long.compare(first[0], second[0]));
+
+            points = new long[count];
+            owners = new SatelliteLoad[count];
+            for (int i = 0; i < count; i++) {
+                points[i] = nodes[i][0];
+                owners[i] = satellites.get((int) nodes[i][1]);
+            }
+        }
+    }
+
+    private final int virtualNodes;
+    private final double loadFactor;
+    // rebuilt when the satellites change
+    private volatile Ring ring;
+
+    public ConsistentHashPolicy() {
+        this(DEFAULT_VIRTUAL_NODES, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param virtualNodes the number of points of each satellite on the ring
+     * @param loadFactor how far above the average load a satellite may go before jobs spill over, e.g. 0.25
+     */
+    public ConsistentHashPolicy(int virtualNodes, double loadFactor) {
+        this.virtualNodes = Math.max(1, virtualNodes);
+        this.loadFactor = loadFactor;
+    }
+
+    @Override
+    public SatelliteLoad select(List<SatelliteLoad> satellites, Job job) {
+        return select(satellites, satellites, job);
+    }
+
+    @Override
+    public SatelliteLoad select(List<SatelliteLoad> registered, List<SatelliteLoad> candidates, Job job) {
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+
+        Ring current = ring;
+        if (current == null || !current.satellites.equals(registered)) {
+            current = new Ring(new ArrayList<>(registered), virtualNodes);
+            ring = current;
+        }
+        Set<SatelliteLoad> allowed = null;
+        if (candidates.size() < registered.size()) {
+            allowed = Collections.newSetFromMap(new IdentityHashMap<>());
+            allowed.addAll(candidates);
+        }
+
+        // the most jobs a satellite may have in flight, counting the job to be dispatched
+        int inFlight = 0;
+        for (SatelliteLoad satellite : registered) {
+            inFlight += satellite.getInFlight();
+        }
+        double capacity = Math.ceil((1 + loadFactor) * (inFlight + 1) / registered.size());
+
+        // walk the ring from the point of the tool to the first candidate below the bound
+        int start = Arrays.binarySearch(current.points, hash(job == null ? "" : job.getToolName()));
+        if (start < 0) {
+            start = -start - 1;
+        }
+        SatelliteLoad firstCandidate = null;
+        for (int i = 0; i < current.points.length; i++) {
+            SatelliteLoad owner = current.owners[(start + i) % current.points.length];
+            if (allowed != null && !allowed.contains(owner)) {
+                continue;
+            }
+            if (owner.getInFlight() + 1 <= capacity) {
+                return owner;
+            }
+            if (firstCandidate == null) {
+                firstCandidate = owner;
+            }
+        }
+        // all candidates are above the bound, the candidates are a part of the registered satellites on the ring
+        return firstCandidate;
+    }
+
+    // 64 bit FNV-1a, mixed with the finalizer of MurmurHash3, so similar names spread over the ring
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
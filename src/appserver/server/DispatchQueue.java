@@ -0,0 +1,415 @@
+package appserver.server;
+
+import appserver.comm.TimingTrace;
+import appserver.job.Job;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class [DispatchQueue] admits jobs to the satellites. At most as many jobs as the satellites
+ * advertised worker slots run at a time, or a given number per satellite that advertised none,
+ * the jobs beyond that wait in a bounded queue. When the queue
+ * is full, a job is rejected right away with a ServerBusyException, so under overload the jobs
+ * that are admitted still complete in time, instead of all jobs getting slow at once.
+ *
+ * Waiting jobs are started by priority first: a job waits only for jobs of a higher or the same
+ * priority. Among the tenants with jobs of the same priority, the satellites are shared by
+ * deficit round-robin, i.e. in each round a tenant may start as many jobs as its weight.
+ * A tenant may also be limited to a number of jobs running at a time. A job that is split into
+ * parts counts as many jobs as it has parts, against the limits and against the share of its
+ * tenant; a tenant that took more than its weight in a round owes the rest in the next rounds.
+ *
+ * A tenant is forgotten when it has no jobs, unless its limits were set, so tenant names that
+ * clients make up do not pile up.
+ *
+ * The jobs that waited are started on a thread of the queue, not on the thread that delivered
+ * the result of the job that made room, e.g. the reader of a connection to a satellite.
+ *
+ * @author sampath
+ */
+public class DispatchQueue {
+
+    // the least time a rejected client is asked to wait before trying again
+    static final long MIN_RETRY_AFTER_MILLIS = 10;
+
+    // a job waiting for a satellite
+    private static final class QueuedJob {
+
+        final Job job;
+        final CompletableFuture<Object> result;
+        // the number of jobs the job counts as
+        final int cost;
+        final long sequence;
+        final long queuedNanos = System.nanoTime();
+
+        QueuedJob(Job job, CompletableFuture<Object> result, int cost, long sequence) {
+            this.job = job;
+            this.result = result;
+            this.cost = cost;
+            this.sequence = sequence;
+        }
+    }
+
+    // the waiting jobs of a tenant, by priority and then in the order they came in
+    private static final class Tenant {
+
+        final String name;
+        // whether the limits of the tenant were set, it is kept when it has no jobs then
+        boolean configured = false;
+        int weight = 1;
+        // the number of jobs that may run at a time, 0 for no limit
+        int maxJobs = 0;
+        int running = 0;
+        // the jobs the tenant may still start in the current round, negative if it owes jobs
+        int deficit = 0;
+        final PriorityQueue<QueuedJob> jobs = new PriorityQueue<>((first, second) -> first.job.getPriority() != second.job.getPriority()
+                ? Integer.compare(second.job.getPriority(), first.job.getPriority())
+                : Long.compare(first.sequence, second.sequence));
+
+        Tenant(String name) {
+            this.name = name;
+        }
+
+        // a job larger than the limit runs when no other job of the tenant does
+        boolean hasRoom(int cost) {
+            return maxJobs <= 0 || running == 0 || running + cost <= maxJobs;
+        }
+    }
+
+    private final JobDispatcher jobDispatcher;
+    private final SatelliteRegistry satellites;
+    private final int maxJobsPerSatellite;
+    private final int capacity;
+    private final ServerMetrics metrics;
+
+    // the slots of the satellites that pull jobs, null if jobs are pushed
+    private volatile PullDispatcher pullDispatcher;
+
+    // guarded by this
+    private final Map<String, Tenant> tenants = new HashMap<>();
+    // the tenants with waiting jobs, in round-robin order
+    private final ArrayDeque<Tenant> waitingTenants = new ArrayDeque<>();
+    private int queued = 0;
+    private long nextSequence = 0;
+    private int running = 0;
+    // set while a thread starts queued jobs
+    private boolean starting = false;
+    // starts the queued jobs when jobs complete or slots are freed
+    private final ExecutorService starter = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "DispatchQueue-Starter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong queueWaitNanos = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param jobDispatcher sends the admitted jobs to the satellites
+     * @param satellites the registry of available satellites
+     * @param maxJobsPerSatellite the number of jobs that may run at a time per satellite that advertised no
+     *        worker slots, 0 for no limit
+     * @param capacity the number of jobs that may wait
+     * @param metrics records the queue wait and total latency of the jobs
+     */
+    public DispatchQueue(JobDispatcher jobDispatcher, SatelliteRegistry satellites, int maxJobsPerSatellite, int capacity,
+            ServerMetrics metrics) {
+        this.jobDispatcher = jobDispatcher;
+        this.satellites = satellites;
+        this.maxJobsPerSatellite = maxJobsPerSatellite;
+        this.capacity = capacity;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Dispatches a job as soon as a satellite has room for it.
+     *
+     * @param job the job
+     * @return the future result of the job, failed with a ServerBusyException if the queue is full
+     */
+    public CompletableFuture<Object> submit(Job job) {
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        int cost = jobDispatcher.getFanOut(job);
+        Tenant tenant;
+        synchronized (this) {
+            tenant = tenant(job.getTenant());
+            if (queued == 0 && fits(cost) && tenant.hasRoom(cost)) {
+                running += cost;
+                tenant.running += cost;
+            } else if (queued >= capacity) {
+                evictIfIdle(tenant);
+                return CompletableFuture.failedFuture(reject(job));
+            } else {
+                if (tenant.jobs.isEmpty()) {
+                    waitingTenants.add(tenant);
+                }
+                tenant.jobs.add(new QueuedJob(job, result, cost, nextSequence++));
+                queued++;
+                tenant = null;
+            }
+        }
+        if (tenant == null) {
+            // satellites may have been added since the last job completed
+            startQueued();
+            return result;
+        }
+        admitted.incrementAndGet();
+        job.recordTiming(TimingTrace.QUEUE_WAIT, 0);
+        start(tenant, job, cost, result, System.nanoTime(), 0);
+        return result;
+    }
+
+    /**
+     * Counts a job that is rejected because the queue is full.
+     *
+     * @param job the job
+     * @return the exception to fail the job with
+     */
+    public ServerBusyException reject(Job job) {
+        rejected.incrementAndGet();
+        metrics.recordRejected(job);
+        return new ServerBusyException(getRetryAfterMillis());
+    }
+
+    /**
+     * Sets the share of the satellites a tenant gets while other tenants wait as well.
+     *
+     * @param tenantName the name of the tenant
+     * @param weight the number of jobs the tenant may start per round, at least 1
+     * @param maxJobs the number of jobs of the tenant that may run at a time, 0 for no limit
+     */
+    public synchronized void setTenantLimits(String tenantName, int weight, int maxJobs) {
+        Tenant tenant = tenant(tenantName);
+        tenant.configured = true;
+        tenant.weight = Math.max(1, weight);
+        tenant.maxJobs = maxJobs;
+    }
+
+    /**
+     * Lets as many jobs run at a time as the satellites that pull jobs have slots,
+     * instead of the given number of jobs per satellite.
+     */
+    public void setPullDispatcher(PullDispatcher pullDispatcher) {
+        this.pullDispatcher = pullDispatcher;
+        pullDispatcher.setSlotsFreed(() -> starter.execute(this::startQueued));
+    }
+
+    private Tenant tenant(String tenantName) {
+        return tenants.computeIfAbsent(tenantName == null ? Job.DEFAULT_TENANT : tenantName, Tenant::new);
+    }
+
+    // forgets a tenant without jobs whose limits were not set, guarded by this
+    private void evictIfIdle(Tenant tenant) {
+        if (!tenant.configured && tenant.running == 0 && tenant.jobs.isEmpty()) {
+            tenants.remove(tenant.name, tenant);
+        }
+    }
+
+    /**
+     * Tells whether a job submitted now would be rejected.
+     */
+    public synchronized boolean isFull() {
+        return queued >= capacity;
+    }
+
+    // the number of jobs that may run at a time, jobs fail fast when there are no satellites
+    private int limit() {
+        if (pullDispatcher != null) {
+            int slots = pullDispatcher.getSlots();
+            return slots == 0 ? Integer.MAX_VALUE : slots;
+        }
+        List<SatelliteLoad> loads = satellites.getLoads();
+        if (maxJobsPerSatellite <= 0 || loads.isEmpty()) {
+            return Integer.MAX_VALUE;
+        }
+        int limit = 0;
+        for (SatelliteLoad load : loads) {
+            limit += load.getMaxJobs(maxJobsPerSatellite);
+        }
+        return limit;
+    }
+
+    // tells whether a job of the given cost may start, a job larger than the limit runs alone
+    private boolean fits(int cost) {
+        return running == 0 || cost <= limit() - running;
+    }
+
+    // dispatches a job, and the waiting jobs there is room for when it completes
+    private void start(Tenant tenant, Job job, int cost, CompletableFuture<Object> result, long submittedNanos, long queueWait) {
+        jobDispatcher.dispatch(job).whenComplete((value, failure) -> {
+            metrics.recordCompleted(job, queueWait, System.nanoTime() - submittedNanos, failure != null);
+            synchronized (this) {
+                running -= cost;
+                tenant.running -= cost;
+                evictIfIdle(tenant);
+            }
+            starter.execute(this::startQueued);
+
+            if (failure == null) {
+                result.complete(value);
+            } else {
+                result.completeExceptionally(failure);
+            }
+        });
+    }
+
+    // starts the queued jobs there is room for, one thread at a time, as jobs that complete
+    // right away, e.g. from the result cache, would otherwise start the next one recursively
+    private void startQueued() {
+        synchronized (this) {
+            if (starting) {
+                return;
+            }
+            starting = true;
+        }
+        while (true) {
+            Tenant tenant = null;
+            QueuedJob next = null;
+            synchronized (this) {
+                tenant = nextTenant();
+                if (tenant == null || !fits(tenant.jobs.peek().cost)) {
+                    starting = false;
+                    return;
+                }
+                next = tenant.jobs.poll();
+                queued--;
+                running += next.cost;
+                tenant.running += next.cost;
+
+                // the tenant's turn ends when it used up its weight, a tenant without jobs owes nothing
+                tenant.deficit -= next.cost;
+                if (tenant.jobs.isEmpty()) {
+                    waitingTenants.remove(tenant);
+                    tenant.deficit = 0;
+                } else if (tenant.deficit <= 0) {
+                    waitingTenants.remove(tenant);
+                    waitingTenants.add(tenant);
+                }
+            }
+            admitted.incrementAndGet();
+            long queueWait = System.nanoTime() - next.queuedNanos;
+            queueWaitNanos.addAndGet(queueWait);
+            next.job.recordTiming(TimingTrace.QUEUE_WAIT, queueWait);
+            start(tenant, next.job, next.cost, next.result, next.queuedNanos, queueWait);
+        }
+    }
+
+    /**
+     * Returns the tenant whose job is to be started next, null if no waiting tenant has room.
+     * Only tenants with a job of the highest waiting priority are taken into account,
+     * among them the one whose turn it is in round-robin order and that owes no jobs.
+     */
+    private Tenant nextTenant() {
+        int topPriority = Integer.MIN_VALUE;
+        boolean found = false;
+        for (Tenant tenant : waitingTenants) {
+            if (tenant.hasRoom(tenant.jobs.peek().cost)) {
+                topPriority = Math.max(topPriority, tenant.jobs.peek().job.getPriority());
+                found = true;
+            }
+        }
+        if (!found) {
+            return null;
+        }
+
+        // each round adds to the deficit of a tenant that may start a job, so this ends
+        while (true) {
+            Tenant tenant = waitingTenants.peekFirst();
+            QueuedJob head = tenant.jobs.peek();
+            if (tenant.hasRoom(head.cost) && head.job.getPriority() == topPriority) {
+                if (tenant.deficit <= 0) {
+                    // the tenant's turn begins, unless it still owes jobs after that
+                    tenant.deficit += tenant.weight;
+                }
+                if (tenant.deficit > 0) {
+                    return tenant;
+                }
+            } else {
+                // the tenant skips its turn, but keeps what it owes
+                tenant.deficit = Math.min(tenant.deficit, 0);
+            }
+            waitingTenants.addLast(waitingTenants.pollFirst());
+        }
+    }
+
+    /**
+     * Returns a guess of how long it takes until the queue has room again, from the average job latency.
+     */
+    public synchronized long getRetryAfterMillis() {
+        double latencyNanos = 0;
+        int count = 0;
+        for (SatelliteLoad load : satellites.getLoads()) {
+            if (load.getCompleted() > 0) {
+                latencyNanos += load.getEwmaLatency();
+                count++;
+            }
+        }
+        if (count == 0) {
+            return MIN_RETRY_AFTER_MILLIS;
+        }
+        // the queue drains limit() jobs per job latency
+        double rounds = Math.ceil((double) queued / limit());
+        long retryAfter = TimeUnit.NANOSECONDS.toMillis((long) (latencyNanos / count * rounds));
+        return Math.max(MIN_RETRY_AFTER_MILLIS, retryAfter);
+    }
+
+    /**
+     * Returns the number of jobs waiting for a satellite.
+     */
+    public synchronized int getQueueDepth() {
+        return queued;
+    }
+
+    /**
+     * Returns the number of jobs of a tenant waiting for a satellite.
+     */
+    public synchronized int getQueueDepth(String tenantName) {
+        Tenant tenant = tenants.get(tenantName);
+        return tenant == null ? 0 : tenant.jobs.size();
+    }
+
+    // the number of tenants kept, i.e. those whose limits were set and those with jobs
+    synchronized int getTenantCount() {
+        return tenants.size();
+    }
+
+    /**
+     * Returns the number of admitted jobs that did not complete yet, the parts of split jobs included.
+     */
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    public long getAdmitted() {
+        return admitted.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Returns the average time the admitted jobs waited in the queue, in milliseconds.
+     */
+    public double getAverageQueueWaitMillis() {
+        long count = admitted.get();
+        return count == 0 ? 0 : queueWaitNanos.get() / 1e6 / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("running: %d, queued: %d, admitted: %d, rejected: %d, avg queue wait: %.1f ms",
+                getRunning(), getQueueDepth(), getAdmitted(), getRejected(), getAverageQueueWaitMillis());
+    }
+}
@@ -0,0 +1,48 @@
+package appserver.server;
+
+import appserver.job.Job;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The class [EwmaLatencyPolicy] picks the satellite with the lowest expected completion time,
+ * i.e. the moving average of its latency weighted with the number of jobs waiting on it.
+ * Satellites that did not complete a job yet are assumed to be as fast as the fastest one.
+ *
+ * @author sampath
+ */
+public class EwmaLatencyPolicy implements SchedulingPolicy {
+
+    // where to start the search, moves on with every selection to break ties
+    private final AtomicInteger start = new AtomicInteger();
+
+    @Override
+    public SatelliteLoad select(List<SatelliteLoad> satellites, Job job) {
+        int size = satellites.size();
+        int offset = Math.floorMod(start.getAndIncrement(), size);
+
+        // latency assumed for satellites without history
+        double fastest = Double.MAX_VALUE;
+        for (SatelliteLoad satellite : satellites) {
+            if (satellite.getEwmaLatency() > 0) {
+                fastest = Math.min(fastest, satellite.getEwmaLatency());
+            }
+        }
+        if (fastest == Double.MAX_VALUE) {
+            fastest = 1.0;
+        }
+
+        SatelliteLoad best = null;
+        double bestCost = Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            SatelliteLoad candidate = satellites.get((offset + i) % size);
+            double latency = candidate.getEwmaLatency() > 0 ? candidate.getEwmaLatency() : fastest;
+            double cost = latency * (candidate.getInFlight() + 1);
+            if (cost < bestCost) {
+                best = candidate;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,102 @@
+package appserver.server;
+
+import appserver.comm.FramedProtocol;
+import appserver.comm.Message;
+import static appserver.comm.MessageTypes.RESULT_CHUNK;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class [FramedWriter] writes the messages to a client of the framed protocol on the blocking
+ * transport, on a thread of its own and in the order they are handed over. The threads that deliver
+ * results, e.g. the reader of a connection to a satellite, so never wait for a slow client.
+ * The chunks of streamed results it buffers are limited to a number of bytes.
+ *
+ * @author sampath
+ */
+class FramedWriter extends Thread {
+
+    // handed over after the last message
+    private static final Message END = new Message(0, null);
+
+    private final DataOutputStream output;
+    private final FramedProtocol.Codec codec;
+    private final long maxChunkBytes;
+    private final LinkedBlockingQueue<Message> messages = new LinkedBlockingQueue<>();
+    // the bytes of the chunks handed over, but not written so far
+    private final AtomicLong chunkBytes = new AtomicLong();
+    private volatile boolean failed = false;
+
+    /**
+     * Constructor
+     *
+     * @param output the stream to the client
+     * @param codec the codec of the frames
+     * @param maxChunkBytes the bytes of chunks buffered at most, at least one chunk is taken
+     */
+    FramedWriter(DataOutputStream output, FramedProtocol.Codec codec, long maxChunkBytes) {
+        super("FramedWriter");
+        setDaemon(true);
+        this.output = output;
+        this.codec = codec;
+        this.maxChunkBytes = maxChunkBytes;
+    }
+
+    /**
+     * Hands over a message to be written.
+     */
+    void send(Message message) {
+        messages.add(message);
+    }
+
+    /**
+     * Hands over a chunk of a streamed result to be written, unless too many bytes of chunks are buffered.
+     *
+     * @return false if the chunk is refused
+     */
+    boolean offerChunk(byte[] chunk, long correlationId) {
+        long buffered = chunkBytes.addAndGet(chunk.length);
+        if (failed || (buffered > maxChunkBytes && buffered > chunk.length)) {
+            chunkBytes.addAndGet(-chunk.length);
+            return false;
+        }
+        messages.add(new Message(RESULT_CHUNK, chunk, correlationId));
+        return true;
+    }
+
+    /**
+     * Lets the thread end once the messages handed over so far are written.
+     */
+    void finish() {
+        messages.add(END);
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            Message message;
+            try {
+                message = messages.take();
+            } catch (InterruptedException ex) {
+                return;
+            }
+            if (message == END) {
+                return;
+            }
+            if (!failed) {
+                try {
+                    FramedProtocol.writeFrame(output, message, codec);
+                } catch (IOException ex) {
+                    // the client is gone, the rest of the messages are dropped
+                    failed = true;
+                    System.err.println("[FramedWriter.run] Severe: " + ex.getMessage());
+                }
+            }
+            if (message.getType() == RESULT_CHUNK) {
+                chunkBytes.addAndGet(-((byte[]) message.getContent()).length);
+            }
+        }
+    }
+}
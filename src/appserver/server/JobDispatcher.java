@@ -0,0 +1,256 @@
+package appserver.server;
+
+import appserver.comm.ConnectivityInfo;
+import appserver.comm.Message;
+import appserver.comm.TimingTrace;
+import static appserver.comm.MessageTypes.JOB_REQUEST;
+import appserver.job.Idempotent;
+import appserver.job.Job;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * The class [JobDispatcher] sends a job to the satellite picked by the LoadManager,
+ * over a pooled connection, and keeps the load of the satellite up to date.
+ *
+ * Dispatching does not block, the result of the job is delivered through a future,
+ * so any transport of the server can use it. A satellite that cannot be reached is
+ * ejected, and the job fails over to another satellite if the satellite did not get it or
+ * its tool is idempotent, as a job the satellite got may have been done. Jobs of idempotent tools may
+ * be hedged, i.e. also sent to a second satellite when the first one is slow. Jobs whose result
+ * is relayed to the client in chunks are neither hedged nor sent again once chunks went out.
+ * In pull mode, the jobs go to the satellites through the PullDispatcher instead.
+ * Jobs of splittable tools are split into parts by the ScatterGather, each part is
+ * dispatched like a job of its own.
+ *
+ * @author manoj
+ */
+public class JobDispatcher {
+
+    private final SatelliteManager satelliteManager;
+    private final LoadManager loadManager;
+    private final SatelliteConnectionPool connectionPool;
+    // results of deterministic tools, null if caching is off
+    private final ResultCache resultCache;
+    // how often a job is sent to another satellite when its satellite fails
+    private final int dispatchRetries;
+    // sends slow jobs to a second satellite, null if hedging is off
+    private final RequestHedger requestHedger;
+    // hands jobs to satellites that pull them, null if jobs are pushed to the satellites
+    private volatile PullDispatcher pullDispatcher;
+    // records the latency of the jobs on the satellites
+    private final ServerMetrics metrics;
+    // splits the jobs of splittable tools over the satellites, null if jobs are not split
+    private volatile ScatterGather scatterGather;
+
+    public JobDispatcher(SatelliteManager satelliteManager, LoadManager loadManager, SatelliteConnectionPool connectionPool,
+            ResultCache resultCache, int dispatchRetries, RequestHedger requestHedger, ServerMetrics metrics) {
+        this.satelliteManager = satelliteManager;
+        this.loadManager = loadManager;
+        this.connectionPool = connectionPool;
+        this.resultCache = resultCache;
+        this.dispatchRetries = dispatchRetries;
+        this.requestHedger = requestHedger;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Lets satellites pull the jobs, instead of pushing jobs to the satellite the LoadManager picks.
+     *
+     * @param pullDispatcher hands the jobs to the pulling satellites
+     */
+    public void setPullDispatcher(PullDispatcher pullDispatcher) {
+        this.pullDispatcher = pullDispatcher;
+    }
+
+    /**
+     * Splits the jobs of splittable tools into parts, which run on many satellites at once.
+     *
+     * @param scatterGather splits the jobs and merges the results of their parts
+     */
+    public void setScatterGather(ScatterGather scatterGather) {
+        this.scatterGather = scatterGather;
+    }
+
+    /**
+     * Returns the number of jobs a job is dispatched as, i.e. the number of its parts if it is split.
+     */
+    public int getFanOut(Job job) {
+        ScatterGather splitter = scatterGather;
+        return splitter != null && splitter.isSplittable(job) ? splitter.getPartCount() : 1;
+    }
+
+    /**
+     * Dispatches a job to a satellite, unless its result is in the result cache or the same job is in flight.
+     *
+     * @param job the job to be done
+     * @return the future result of the job, it fails if the job could not be dispatched
+     */
+    public CompletableFuture<Object> dispatch(Job job) {
+        if (resultCache == null || !resultCache.isCacheable(job)) {
+            return dispatchSplit(job);
+        }
+
+        Object cachedResult = resultCache.get(job);
+        if (cachedResult != null) {
+            System.out.println("\n [JobDispatcher.dispatch] job request answered from cache (" + resultCache + ")");
+            return CompletableFuture.completedFuture(cachedResult);
+        }
+        // the same job in flight for another client is not dispatched twice
+        return resultCache.dispatchOnce(job, this::dispatchSplit);
+    }
+
+    // splits a job of a splittable tool over the satellites, sends other jobs to one satellite
+    private CompletableFuture<Object> dispatchSplit(Job job) {
+        ScatterGather splitter = scatterGather;
+        if (splitter != null && splitter.isSplittable(job)) {
+            return splitter.dispatch(job, this::dispatchWithRetries);
+        }
+        return dispatchWithRetries(job);
+    }
+
+    // sends a job to a satellite, and to a second one if the first is slow and the job may be hedged
+    private CompletableFuture<Object> dispatchWithRetries(Job job) {
+        if (pullDispatcher != null) {
+            return pullWithRetries(job, dispatchRetries);
+        }
+        if (requestHedger == null || !requestHedger.isHedgeable(job) || job.isStreamed()) {
+            return dispatchToSatellite(job, dispatchRetries, null, true);
+        }
+
+        String primarySatellite;
+        try {
+            primarySatellite = loadManager.startJob(job, null, true);
+        } catch (Exception ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+        // a hedge goes only to a satellite that has room for it
+        return requestHedger.dispatch(job,
+                () -> sendToSatellite(job, primarySatellite, dispatchRetries),
+                () -> dispatchToSatellite(job, dispatchRetries, primarySatellite, false));
+    }
+
+    // hands a job to a pulling satellite, and to another one if the connection to the satellite breaks
+    private CompletableFuture<Object> pullWithRetries(Job job, int retriesLeft) {
+        return pullDispatcher.dispatch(job)
+                .handle((value, failure) -> {
+                    if (failure == null) {
+                        return CompletableFuture.completedFuture(value);
+                    }
+                    Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+                    if (!(cause instanceof IOException) || retriesLeft <= 0 || !mayRetry(job, cause)) {
+                        return CompletableFuture.<Object>failedFuture(cause);
+                    }
+                    System.err.println("[JobDispatcher.dispatch] Retrying job on another satellite");
+                    return pullWithRetries(job, retriesLeft - 1);
+                })
+                .thenCompose(retried -> retried);
+    }
+
+    // sends a job to the satellite picked by the load manager, other than the excluded one,
+    // beyond the job limit of the satellites only if the job may go over it
+    private CompletableFuture<Object> dispatchToSatellite(Job job, int retriesLeft, String excludedSatellite, boolean overLimit) {
+        // get next satellite from load manager, the job is counted on it from now on
+        String satelliteName;
+        try {
+            satelliteName = loadManager.startJob(job, excludedSatellite, overLimit);
+        } catch (Exception ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+        return sendToSatellite(job, satelliteName, retriesLeft);
+    }
+
+    /**
+     * Sends a job to the given satellite, the job is counted on the satellite already.
+     * If the satellite cannot be reached or the connection to it breaks, the satellite
+     * is ejected and the job goes to another one, if it may be done again.
+     * Cancelling the returned future, e.g. for a hedged copy that lost, cancels the job on the
+     * satellite, unless it went to another satellite meanwhile.
+     */
+    private CompletableFuture<Object> sendToSatellite(Job job, String satelliteName, int retriesLeft) {
+        System.out.println("\n [JobDispatcher.dispatch] job request handled by " + satelliteName);
+
+        // get connectivity info for next satellite from satellite manager
+        ConnectivityInfo connectivityInfo = satelliteManager.getSatelliteForName(satelliteName);
+        if (connectivityInfo == null) {
+            // ejected meanwhile, pick another one
+            loadManager.jobCancelled(satelliteName);
+            return retriesLeft > 0 ? dispatchToSatellite(job, retriesLeft - 1, null, true)
+                    : CompletableFuture.failedFuture(new IOException("Satellite " + satelliteName + " is not registered"));
+        }
+
+        // keep track of the completion latency on the satellite
+        job.setSatelliteName(satelliteName);
+        long dispatched = System.nanoTime();
+
+        CompletableFuture<Object> result;
+        try {
+            // send the job over a pooled connection to the satellite
+            result = connectionPool.send(connectivityInfo, new Message(JOB_REQUEST, job));
+        } catch (IOException ex) {
+            // the satellite did not get the job
+            result = CompletableFuture.failedFuture(new JobNotSentException(satelliteName, ex));
+        }
+        CompletableFuture<Object> sent = result;
+        CompletableFuture<Object> attempt = result.whenComplete((value, failure) -> {
+                    long latency = System.nanoTime() - dispatched;
+                    if (failure instanceof CancellationException) {
+                        // nobody waits for the result, the satellite drops the job unless it runs already
+                        loadManager.jobCancelled(satelliteName);
+                        return;
+                    }
+                    if (failure == null) {
+                        loadManager.jobCompleted(satelliteName, latency);
+                    } else {
+                        loadManager.jobFailed(satelliteName, latency);
+                    }
+                    metrics.recordSatellite(job, satelliteName, latency);
+                    job.recordTiming(TimingTrace.SATELLITE, latency);
+                })
+                .handle((value, failure) -> {
+                    if (failure == null) {
+                        return CompletableFuture.completedFuture(value);
+                    }
+                    Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+                    if (!(cause instanceof IOException)) {
+                        return CompletableFuture.<Object>failedFuture(cause);
+                    }
+
+                    // the satellite is not reachable
+                    eject(satelliteName, connectivityInfo, cause);
+                    if (retriesLeft <= 0 || !mayRetry(job, cause)) {
+                        return CompletableFuture.<Object>failedFuture(cause);
+                    }
+                    System.err.println("[JobDispatcher.dispatch] Retrying job on another satellite");
+                    return dispatchToSatellite(job, retriesLeft - 1, null, true);
+                })
+                .thenCompose(retried -> retried);
+        attempt.whenComplete((value, failure) -> {
+            if (failure instanceof CancellationException) {
+                sent.cancel(false);
+            }
+        });
+        return attempt;
+    }
+
+    // tells whether a job whose satellite failed may go to another one: a job that did not get to the
+    // satellite may, a job the satellite may have run only if its tool is idempotent and none of its
+    // result was relayed to the client
+    private static boolean mayRetry(Job job, Throwable cause) {
+        if (cause instanceof JobNotSentException) {
+            return true;
+        }
+        return !job.hasRelayedChunks() && ToolClasses.implementsMarker(job.getToolName(), Idempotent.class);
+    }
+
+    // removes a satellite that failed from the registry, unless it registered anew meanwhile
+    private void eject(String satelliteName, ConnectivityInfo connectivityInfo, Throwable cause) {
+        if (connectivityInfo.equals(satelliteManager.getSatelliteForName(satelliteName))) {
+            System.err.println("[JobDispatcher.eject] Warning: " + satelliteName + " failed, ejecting it: " + cause.getMessage());
+            satelliteManager.unregisterSatellite(satelliteName);
+            connectionPool.close(connectivityInfo);
+        }
+    }
+}
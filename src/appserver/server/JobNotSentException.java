@@ -0,0 +1,19 @@
+package appserver.server;
+
+import java.io.IOException;
+
+/**
+ * Class [JobNotSentException] Exception that is raised when a job could not be sent to a
+ * satellite, e.g. since the connection to it could not be opened. The satellite never got the
+ * job then, so it may go to another satellite even if its tool is not idempotent.
+ * 
+ * @author sampath
+ */
+public class JobNotSentException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public JobNotSentException(String satelliteName, IOException cause) {
+        super("Job not sent to " + satelliteName + ": " + cause.getMessage(), cause);
+    }
+}
@@ -0,0 +1,164 @@
+package appserver.server;
+
+import appserver.comm.JobStatus;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * The class [JobTable] keeps the jobs that were submitted for asynchronous execution,
+ * until their result is fetched.
+ *
+ * The table is bounded: when it is full, results that were not fetched in time are dropped,
+ * and if that does not make room, new jobs are rejected. A job reserves its place with a
+ * compare-and-set on the number of jobs before it is added, so concurrent submissions
+ * cannot overfill the table.
+ *
+ * @author manoj
+ */
+public class JobTable {
+
+    // a submitted job
+    private static class Entry {
+
+        final CompletableFuture<Object> result;
+        // when the job completed, 0 while it is running
+        volatile long completedNanos = 0;
+
+        Entry(CompletableFuture<Object> result) {
+            this.result = result;
+        }
+    }
+
+    private final ConcurrentHashMap<Long, Entry> jobs = new ConcurrentHashMap<>();
+    // the places taken in the table, including the jobs being added and the results being handed out
+    private final AtomicInteger taken = new AtomicInteger();
+    private final AtomicLong nextJobId = new AtomicLong();
+    private final int capacity;
+    private final long resultTtlNanos;
+
+    /**
+     * Constructor
+     *
+     * @param capacity the maximum number of jobs in the table
+     * @param resultTtlMillis how long a result is kept for sure before it may be dropped
+     */
+    public JobTable(int capacity, long resultTtlMillis) {
+        this.capacity = capacity;
+        this.resultTtlNanos = TimeUnit.MILLISECONDS.toNanos(resultTtlMillis);
+    }
+
+    /**
+     * Adds a job to the table and starts it, if there is room.
+     *
+     * @param job starts the job and returns its future result
+     * @return the id of the job, -1 if the table is full
+     */
+    public long add(Supplier<CompletableFuture<Object>> job) {
+        if (!reserve()) {
+            dropExpiredResults();
+            if (!reserve()) {
+                return -1;
+            }
+        }
+
+        long jobId = nextJobId.incrementAndGet();
+        CompletableFuture<Object> result;
+        try {
+            result = job.get();
+        } catch (RuntimeException ex) {
+            taken.decrementAndGet();
+            throw ex;
+        }
+        Entry entry = new Entry(result);
+        jobs.put(jobId, entry);
+        result.whenComplete((value, failure) -> entry.completedNanos = System.nanoTime());
+        return jobId;
+    }
+
+    /**
+     * Returns the status of a job.
+     */
+    public JobStatus getStatus(long jobId) {
+        Entry entry = jobs.get(jobId);
+        if (entry == null) {
+            return JobStatus.UNKNOWN;
+        }
+        if (!entry.result.isDone()) {
+            return JobStatus.RUNNING;
+        }
+        return entry.result.isCompletedExceptionally() ? JobStatus.FAILED : JobStatus.DONE;
+    }
+
+    /**
+     * Fetches the result of a job, waiting for it up to the given time without blocking a thread.
+     * A result is handed out once, the job is removed from the table then.
+     *
+     * @param jobId the id of the job
+     * @param waitMillis how long to wait for a result that is not there yet
+     * @return the future result, or the status of the job if there is no result to hand out
+     */
+    public CompletableFuture<Object> fetch(long jobId, long waitMillis) {
+        Entry entry = jobs.get(jobId);
+        if (entry == null) {
+            return CompletableFuture.completedFuture(JobStatus.UNKNOWN);
+        }
+
+        if (!entry.result.isDone() && waitMillis <= 0) {
+            return CompletableFuture.completedFuture(JobStatus.RUNNING);
+        }
+
+        CompletableFuture<Object> outcome = new CompletableFuture<>();
+        entry.result.whenComplete((value, failure) -> {
+            if (outcome.isDone()) {
+                return;
+            }
+            // hand out the result only once
+            if (!jobs.remove(jobId, entry)) {
+                outcome.complete(JobStatus.UNKNOWN);
+                return;
+            }
+            if (outcome.complete(failure != null ? JobStatus.FAILED : value)) {
+                taken.decrementAndGet();
+            } else {
+                // the wait timed out meanwhile, keep the result for the next fetch, its place is still taken
+                jobs.putIfAbsent(jobId, entry);
+            }
+        });
+        return outcome.completeOnTimeout(JobStatus.RUNNING, waitMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the number of jobs in the table.
+     */
+    public int size() {
+        return taken.get();
+    }
+
+    // takes a place in the table, false if the table is full
+    private boolean reserve() {
+        int count;
+        do {
+            count = taken.get();
+            if (count >= capacity) {
+                return false;
+            }
+        } while (!taken.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    // drops results that were not fetched within their time to live, unless a fetch took them meanwhile
+    private void dropExpiredResults() {
+        long now = System.nanoTime();
+        for (Map.Entry<Long, Entry> job : jobs.entrySet()) {
+            long completed = job.getValue().completedNanos;
+            if (completed != 0 && now - completed > resultTtlNanos && jobs.remove(job.getKey(), job.getValue())) {
+                taken.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package appserver.server;
+
+import appserver.job.Job;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The class [LeastOutstandingPolicy] picks the satellite with the fewest jobs in flight.
+ * Ties are broken in turn, so idle satellites share the load evenly.
+ *
+ * @author sampath
+ */
+public class LeastOutstandingPolicy implements SchedulingPolicy {
+
+    // where to start the search, moves on with every selection to break ties
+    private final AtomicInteger start = new AtomicInteger();
+
+    @Override
+    public SatelliteLoad select(List<SatelliteLoad> satellites, Job job) {
+        int size = satellites.size();
+        int offset = Math.floorMod(start.getAndIncrement(), size);
+
+        SatelliteLoad best = null;
+        for (int i = 0; i < size; i++) {
+            SatelliteLoad candidate = satellites.get((offset + i) % size);
+            if (best == null || candidate.getInFlight() < best.getInFlight()) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+}
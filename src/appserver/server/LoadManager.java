@@ -1,55 +1,212 @@
 package appserver.server;
 
+import appserver.job.Job;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
- * The class [LoadManager] manages the list of available satellites and
- * implements a round-robin technique to distribute the load among them.
- * 
+ * The class [LoadManager] keeps track of the load on the available satellites and picks
+ * the satellite a job goes to. The choice is delegated to a SchedulingPolicy,
+ * round-robin unless another policy is set.
+ *
+ * The satellites come from the registry shared with the SatelliteManager.
+ * Picking a satellite takes no locks, so dispatcher threads never wait for each other.
+ * A satellite that runs as many jobs as it takes at a time, i.e. as many as the worker slots it
+ * advertised, is not picked; the job is counted on the satellite as it is picked, so concurrent
+ * picks cannot overshoot the limit.
+ *
  * @author sampath
  */
 public class LoadManager {
 
-    // A list of available satellites
-    static ArrayList satellites = null;
-    
-    // The index of the last selected satellite
-    static int lastSatelliteIndex = -1;
-    
+    // The registry of available satellites
+    private final SatelliteRegistry satellites;
+
+    // The policy that picks the next satellite
+    private volatile SchedulingPolicy schedulingPolicy;
+
+    // The number of jobs a satellite that advertises no worker slots takes at a time, 0 for no limit
+    private volatile int maxJobsPerSatellite = 0;
+
+    /**
+     * Constructor
+     *
+     * @param satellites The registry shared with the SatelliteManager.
+     */
+    public LoadManager(SatelliteRegistry satellites) {
+        this.satellites = satellites;
+        this.schedulingPolicy = new RoundRobinPolicy();
+    }
+
     /**
-     * Constructor that initializes the list of satellites.
+     * Sets the policy that picks the satellite for the next job.
+     *
+     * @param policy The scheduling policy.
      */
-    public LoadManager() {
-        satellites = new ArrayList<String>();
+    public void setSchedulingPolicy(SchedulingPolicy policy) {
+        schedulingPolicy = policy;
     }
-    
+
     /**
-     * Adds a new satellite to the list.
+     * Sets the number of jobs a satellite takes at a time, unless it advertised its worker slots.
+     * Satellites at their limit are only picked for a job that may go over the limit, if all
+     * satellites are at it.
      *
-     * @param satelliteName The name of the satellite to be added.
+     * @param maxJobs The number of jobs, 0 for no limit, also for satellites that advertised their worker slots.
      */
-    public void satelliteAdded(String satelliteName) {
-        // add satellite
-        satellites.add(satelliteName);
+    public void setMaxJobsPerSatellite(int maxJobs) {
+        maxJobsPerSatellite = maxJobs;
     }
 
     /**
-     * Returns the next available satellite using a round-robin technique.
+     * Returns the next satellite according to the scheduling policy.
      *
      * @return The name of the next satellite.
      * @throws Exception If there are no satellites available.
      */
     public String nextSatellite() throws Exception {
-        int numberSatellites;
+        return nextSatellite(null);
+    }
+
+    /**
+     * Returns the satellite the given job should be dispatched to, according to the scheduling policy.
+     *
+     * @param job The job to be dispatched.
+     * @return The name of the next satellite.
+     * @throws Exception If there are no satellites available.
+     */
+    public String nextSatellite(Job job) throws Exception {
+        List<SatelliteLoad> available = satellites.getLoads();
+        if (available.isEmpty()) {
+            throw new Exception("No satellites available.");
+        }
+        return schedulingPolicy.select(available, withRoom(available), job).getName();
+    }
+
+    /**
+     * Picks the satellite the given job is dispatched to, other than the given satellite,
+     * and records that the job started on it.
+     *
+     * @param job The job to be dispatched.
+     * @param excludedSatellite The name of the satellite not to be picked, e.g. the one already working on the job, or null.
+     * @param overLimit Whether the job may go to a satellite at the limit if all satellites are, e.g. a retry.
+     * @return The name of the satellite.
+     * @throws Exception If there are no other satellites available, or none has room for a job that may not go over the limit.
+     */
+    public String startJob(Job job, String excludedSatellite, boolean overLimit) throws Exception {
+        List<SatelliteLoad> registered = satellites.getLoads();
+        List<SatelliteLoad> available = registered;
+        if (excludedSatellite != null) {
+            available = new ArrayList<>(available);
+            available.removeIf(load -> load.getName().equals(excludedSatellite));
+        }
+        if (available.isEmpty()) {
+            throw new Exception(excludedSatellite == null ? "No satellites available." : "No other satellites available.");
+        }
+
+        int maxJobs = maxJobsPerSatellite;
+        while (true) {
+            List<SatelliteLoad> withRoom = withRoom(available);
+            if (withRoom == available && maxJobs > 0 && !hasRoom(available, maxJobs)) {
+                // all satellites are at the limit
+                if (!overLimit) {
+                    throw new Exception("No satellite has room.");
+                }
+                SatelliteLoad load = schedulingPolicy.select(registered, available, job);
+                load.jobStarted();
+                return load.getName();
+            }
+            SatelliteLoad load = schedulingPolicy.select(registered, withRoom, job);
+            if (load.tryJobStarted(load.getMaxJobs(maxJobs))) {
+                return load.getName();
+            }
+            // another job took the last slot of the satellite meanwhile, pick again
+        }
+    }
+
+    private static boolean hasRoom(List<SatelliteLoad> available, int maxJobs) {
+        for (SatelliteLoad load : available) {
+            if (load.getInFlight() < load.getMaxJobs(maxJobs)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        synchronized (satellites) {
-            numberSatellites = satellites.size();
-            if (numberSatellites == 0) {
-                throw new Exception("No satellites available.");
+    // the satellites below their job limit, all satellites if there are none
+    private List<SatelliteLoad> withRoom(List<SatelliteLoad> available) {
+        int maxJobs = maxJobsPerSatellite;
+        if (maxJobs <= 0) {
+            return available;
+        }
+        List<SatelliteLoad> withRoom = null;
+        for (int i = 0; i < available.size(); i++) {
+            SatelliteLoad load = available.get(i);
+            boolean full = load.getInFlight() >= load.getMaxJobs(maxJobs);
+            if (full && withRoom == null) {
+                // copy only once a satellite is to be left out
+                withRoom = new ArrayList<>(available.subList(0, i));
+            } else if (!full && withRoom != null) {
+                withRoom.add(load);
             }
-            lastSatelliteIndex = (lastSatelliteIndex + 1) % numberSatellites;
         }
+        return withRoom == null ? available : withRoom.isEmpty() ? available : withRoom;
+    }
+
+    /**
+     * Records that a job was dispatched to a satellite.
+     *
+     * @param satelliteName The name of the satellite.
+     */
+    public void jobStarted(String satelliteName) {
+        SatelliteLoad load = satellites.getLoad(satelliteName);
+        if (load != null) {
+            load.jobStarted();
+        }
+    }
 
-        return (String) satellites.get(lastSatelliteIndex);
+    /**
+     * Records that a job counted as started on a satellite was not sent to it after all.
+     *
+     * @param satelliteName The name of the satellite.
+     */
+    public void jobCancelled(String satelliteName) {
+        SatelliteLoad load = satellites.getLoad(satelliteName);
+        if (load != null) {
+            load.jobCancelled();
+        }
+    }
+
+    /**
+     * Records that a job dispatched to a satellite completed.
+     *
+     * @param satelliteName The name of the satellite.
+     * @param latencyNanos The time between dispatch and completion of the job.
+     */
+    public void jobCompleted(String satelliteName, long latencyNanos) {
+        SatelliteLoad load = satellites.getLoad(satelliteName);
+        if (load != null) {
+            load.jobCompleted(latencyNanos);
+        }
+    }
+
+    /**
+     * Records that a job dispatched to a satellite failed, it is not taken as a fast completion.
+     *
+     * @param satelliteName The name of the satellite.
+     * @param latencyNanos The time between dispatch and failure of the job.
+     */
+    public void jobFailed(String satelliteName, long latencyNanos) {
+        SatelliteLoad load = satellites.getLoad(satelliteName);
+        if (load != null) {
+            load.jobFailed(latencyNanos);
+        }
+    }
+
+    /**
+     * Returns the load of the satellite with the given name, null if there is no such satellite.
+     */
+    public SatelliteLoad getLoad(String satelliteName) {
+        return satellites.getLoad(satelliteName);
     }
 }
@@ -0,0 +1,512 @@
+package appserver.server;
+
+import appserver.comm.FramedProtocol;
+import appserver.comm.Message;
+import static appserver.comm.MessageTypes.PULL_JOBS;
+import static appserver.comm.MessageTypes.RESULT_CHUNK;
+import appserver.comm.PullRequest;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import utils.ConnectionExecutor;
+
+/**
+ * The class [NioServer] is the non-blocking transport of the application server.
+ *
+ * One acceptor thread hands new client connections to a few event loops. Each event loop
+ * serves its connections with a Selector: it reads the bytes of a message as they come in,
+ * decodes the message once it is complete, hands it to the RequestProcessor on a dispatch
+ * executor, as connecting and writing to a satellite may block, and writes the reply back
+ * when the satellite delivered it. No thread waits for the result of a satellite,
+ * so a few threads can serve a large number of concurrent clients.
+ *
+ * The wire format is the same as with the blocking transport, i.e. either one serialized Message
+ * per connection, answered by the serialized reply, or many messages in frames of the FramedProtocol.
+ * The few, long-lived connections of satellites that pull jobs are handed over to threads of their own.
+ *
+ * A serialized Message has no length, so it is complete only once it decodes. A message that comes
+ * in over many reads is decoded again only when its bytes doubled, or when no more bytes came in
+ * for a moment, so decoding a large message does not take time quadratic in its size.
+ * A message the dispatch executor has no room for is answered with SERVER_BUSY.
+ *
+ * @author manoj
+ */
+public class NioServer {
+
+    // messages of clients are small, anything larger than this is not accepted
+    static final int MAX_MESSAGE_SIZE = 1 << 20;
+    // milliseconds without new bytes after which a plain message is decoded, even if its bytes did not double
+    static final long DEFERRED_DECODE_MILLIS = 5;
+
+    private final ServerSocketChannel serverChannel;
+    private final EventLoop[] eventLoops;
+    private final RequestProcessor requestProcessor;
+    private final PullDispatcher pullDispatcher;
+    // the bytes of streamed results queued for a client at most
+    private final long clientBufferBytes;
+    // processes the messages, off the event loops, as dispatching a job may block on a satellite
+    private final ConnectionExecutor dispatchExecutor;
+
+    /**
+     * Constructor, opens the server channel.
+     *
+     * @param port the port to listen on
+     * @param eventLoopCount the number of event loop threads
+     * @param requestProcessor processes the messages of the clients
+     * @param pullDispatcher serves the satellites that pull jobs, null if jobs are pushed
+     * @param clientBufferBytes the bytes of streamed results queued for a client at most
+     * @param dispatchExecutor runs the processing of the messages
+     * @throws IOException if the server channel cannot be opened
+     */
+    public NioServer(int port, int eventLoopCount, RequestProcessor requestProcessor, PullDispatcher pullDispatcher,
+            long clientBufferBytes, ConnectionExecutor dispatchExecutor) throws IOException {
+        this.requestProcessor = requestProcessor;
+        this.pullDispatcher = pullDispatcher;
+        this.clientBufferBytes = clientBufferBytes;
+        this.dispatchExecutor = dispatchExecutor;
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+
+        eventLoops = new EventLoop[Math.max(1, eventLoopCount)];
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop("NioServer-EventLoop-" + i);
+            eventLoops[i].start();
+        }
+    }
+
+    /**
+     * Accepts client connections and distributes them over the event loops.
+     */
+    public void run() {
+        int next = 0;
+        while (true) {
+            try {
+                SocketChannel client = serverChannel.accept();
+                client.configureBlocking(false);
+                client.socket().setTcpNoDelay(true);
+                eventLoops[next].register(client);
+                next = (next + 1) % eventLoops.length;
+            } catch (IOException ex) {
+                System.out.println("[NioServer.run] Severe: unable to create connection");
+            }
+        }
+    }
+
+    // the state of one client connection
+    private static class Connection {
+
+        final SocketChannel channel;
+        // the bytes read, but not processed so far, from requestStart up to requestLength
+        byte[] request = new byte[512];
+        int requestStart = 0;
+        int requestLength = 0;
+        // whether the client speaks the framed protocol, and in which codec, known once the first 4 bytes are there
+        boolean modeKnown = false;
+        boolean framed = false;
+        FramedProtocol.Codec codec = null;
+        // the serialized replies waiting to be written, in order
+        final ConcurrentLinkedQueue<ByteBuffer> replies = new ConcurrentLinkedQueue<>();
+        // the bytes of the queued replies, not written so far
+        final AtomicLong queuedBytes = new AtomicLong();
+        // set when the one reply of a plain connection is queued
+        volatile boolean lastReplyQueued = false;
+        // set when a satellite pulls jobs over the connection
+        PullRequest pullRequest = null;
+        // the bytes of a plain message when it failed to decode last, when bytes came in last, and
+        // whether it is to be decoded once no more bytes come in
+        int undecodedLength = 0;
+        long lastReadNanos = 0;
+        boolean decodeDeferred = false;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    // a thread serving its connections with a selector
+    private class EventLoop extends Thread {
+
+        private final Selector selector;
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(16 * 1024);
+        // connections to be registered and connections with replies to be sent, handed over by other threads
+        private final ConcurrentLinkedQueue<SocketChannel> newConnections = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<Connection> readyReplies = new ConcurrentLinkedQueue<>();
+        // connections of satellites that pull jobs, to be handed over after the selected keys are done
+        private final List<SelectionKey> pullConnections = new ArrayList<>();
+        // plain connections whose message is to be decoded once no more bytes come in
+        private final List<SelectionKey> deferredDecodes = new ArrayList<>();
+
+        EventLoop(String name) throws IOException {
+            super(name);
+            setDaemon(true);
+            selector = Selector.open();
+        }
+
+        void register(SocketChannel client) {
+            newConnections.add(client);
+            selector.wakeup();
+        }
+
+        void replyReady(Connection connection, ByteBuffer reply) {
+            connection.queuedBytes.addAndGet(reply.remaining());
+            connection.replies.add(reply);
+            readyReplies.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select(deferredDecodes.isEmpty() ? 0 : DEFERRED_DECODE_MILLIS);
+
+                    SocketChannel client;
+                    while ((client = newConnections.poll()) != null) {
+                        client.register(selector, SelectionKey.OP_READ, new Connection(client));
+                    }
+
+                    Connection ready;
+                    while ((ready = readyReplies.poll()) != null) {
+                        SelectionKey key = ready.channel.keyFor(selector);
+                        if (key != null && key.isValid()) {
+                            key.interestOps(ready.framed ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_WRITE);
+                        }
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                read(key, connection);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                write(key, connection);
+                            }
+                        } catch (Throwable ex) {
+                            // only this connection is affected, whatever went wrong
+                            System.err.println("[NioServer.EventLoop] Connection closed: " + ex);
+                            close(key);
+                        }
+                    }
+
+                    if (!pullConnections.isEmpty()) {
+                        handOverPullConnections();
+                    }
+                    if (!deferredDecodes.isEmpty()) {
+                        decodeDeferred();
+                    }
+                } catch (IOException ex) {
+                    System.err.println("[NioServer.EventLoop] Severe: " + ex.getMessage());
+                }
+            }
+        }
+
+        // reads what is there and processes the messages that are complete
+        private void read(SelectionKey key, Connection connection) throws IOException {
+            readBuffer.clear();
+            int bytesRead = connection.channel.read(readBuffer);
+            if (bytesRead == -1) {
+                // a client may close right after its message, which must not be lost while its decoding is deferred
+                if (!connection.decodeDeferred || !decodePlainMessage(key, connection)) {
+                    close(key);
+                }
+                return;
+            }
+            readBuffer.flip();
+
+            // append to the bytes read so far
+            int pending = connection.requestLength - connection.requestStart;
+            int needed = pending + readBuffer.remaining();
+            if (needed > (connection.framed ? FramedProtocol.MAX_FRAME_SIZE + 4 : MAX_MESSAGE_SIZE)) {
+                throw new IOException("message too large");
+            }
+            if (connection.requestLength + readBuffer.remaining() > connection.request.length) {
+                // move the pending bytes to the front, into a larger array if they fill half of it,
+                // so each byte is copied a few times at most
+                byte[] request = needed > connection.request.length / 2
+                        ? new byte[Math.max(needed, 2 * connection.request.length)] : connection.request;
+                System.arraycopy(connection.request, connection.requestStart, request, 0, pending);
+                connection.request = request;
+                connection.requestStart = 0;
+                connection.requestLength = pending;
+            }
+            int incoming = readBuffer.remaining();
+            readBuffer.get(connection.request, connection.requestLength, incoming);
+            connection.requestLength += incoming;
+
+            if (!connection.modeKnown) {
+                if (connection.requestLength - connection.requestStart < 4) {
+                    return;
+                }
+                connection.modeKnown = true;
+                connection.codec = FramedProtocol.Codec.forPreamble(readInt(connection.request, connection.requestStart));
+                connection.framed = connection.codec != null;
+                if (connection.framed) {
+                    consume(connection, 4);
+                }
+            }
+
+            if (connection.framed) {
+                readFrames(connection);
+            } else {
+                readPlainMessage(key, connection);
+            }
+        }
+
+        // processes all complete frames, replies are sent as they come in
+        private void readFrames(Connection connection) throws IOException {
+            int offset = connection.requestStart;
+            while (connection.requestLength - offset >= 4) {
+                int length = readInt(connection.request, offset);
+                if (length < 0 || length > FramedProtocol.MAX_FRAME_SIZE) {
+                    throw new IOException("bad frame length " + length);
+                }
+                if (connection.requestLength - offset - 4 < length) {
+                    // wait for the rest of the frame
+                    break;
+                }
+                Message message = FramedProtocol.decode(connection.request, offset + 4, length, connection.codec);
+                offset += 4 + length;
+
+                if (message.getType() == PULL_JOBS && pullDispatcher != null) {
+                    // stop reading, the connection goes to a thread of its own
+                    connection.pullRequest = (PullRequest) message.getContent();
+                    SelectionKey key = connection.channel.keyFor(selector);
+                    key.interestOps(0);
+                    pullConnections.add(key);
+                    break;
+                }
+
+                long correlationId = message.getCorrelationId();
+                // chunks of a streamed result are queued ahead of the reply, as they come in
+                ChunkRelay resultChunks = new ChunkRelay(chunk -> {
+                    // as long as the client keeps up, at least one chunk is taken
+                    long queued = connection.queuedBytes.get();
+                    if (queued > 0 && queued + chunk.length > clientBufferBytes) {
+                        return false;
+                    }
+                    replyReady(connection, encodeFrame(new Message(RESULT_CHUNK, chunk, correlationId), connection.codec));
+                    return true;
+                });
+                process(message, resultChunks).thenAccept(reply -> {
+                    if (reply != RequestProcessor.NO_REPLY) {
+                        replyReady(connection, encodeFrame(RequestProcessor.replyMessage(resultChunks.reply(reply), correlationId), connection.codec));
+                    }
+                });
+            }
+            consume(connection, offset - connection.requestStart);
+        }
+
+        // processes the one message of a plain connection once it is complete
+        private void readPlainMessage(SelectionKey key, Connection connection) throws IOException {
+            connection.lastReadNanos = System.nanoTime();
+            if (connection.requestLength - connection.requestStart < 2 * connection.undecodedLength) {
+                // decoding on every read would take time quadratic in the size of the message
+                if (!connection.decodeDeferred) {
+                    connection.decodeDeferred = true;
+                    deferredDecodes.add(key);
+                }
+                return;
+            }
+            decodePlainMessage(key, connection);
+        }
+
+        // decodes the messages of plain connections no bytes came in for lately
+        private void decodeDeferred() {
+            long now = System.nanoTime();
+            Iterator<SelectionKey> keys = deferredDecodes.iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                Connection connection = (Connection) key.attachment();
+                if (!key.isValid() || !connection.decodeDeferred) {
+                    keys.remove();
+                } else if (now - connection.lastReadNanos >= TimeUnit.MILLISECONDS.toNanos(DEFERRED_DECODE_MILLIS)) {
+                    keys.remove();
+                    try {
+                        decodePlainMessage(key, connection);
+                    } catch (Throwable ex) {
+                        // only this connection is affected, whatever went wrong
+                        System.err.println("[NioServer.EventLoop] Connection closed: " + ex);
+                        close(key);
+                    }
+                }
+            }
+        }
+
+        // processes the message of a plain connection if it is complete, returns whether it was
+        private boolean decodePlainMessage(SelectionKey key, Connection connection) throws IOException {
+            connection.decodeDeferred = false;
+            Message message = decode(connection);
+            if (message == null) {
+                // wait for the rest of the message
+                connection.undecodedLength = connection.requestLength - connection.requestStart;
+                return false;
+            }
+
+            // stop reading until the reply is sent
+            key.interestOps(0);
+            process(message, null).thenAccept(reply -> {
+                connection.lastReplyQueued = true;
+                replyReady(connection, reply == RequestProcessor.NO_REPLY ? ByteBuffer.allocate(0) : encode(reply));
+            });
+            return true;
+        }
+
+        // has a message processed by the dispatch executor, the reply is SERVER_BUSY if the executor is full
+        private CompletableFuture<Object> process(Message message, Consumer<byte[]> resultChunks) {
+            CompletableFuture<Object> reply = new CompletableFuture<>();
+            boolean accepted = dispatchExecutor.execute(() -> {
+                try {
+                    requestProcessor.process(message, resultChunks).thenAccept(reply::complete);
+                } catch (RuntimeException ex) {
+                    System.err.println("[NioServer.process] Severe: " + ex);
+                    reply.complete(null);
+                }
+            });
+            if (!accepted) {
+                System.err.println("[NioServer.process] Warning: too many requests, rejecting request (" + dispatchExecutor + ")");
+                reply.complete(requestProcessor.busyReply());
+            }
+            return reply;
+        }
+
+        // writes as much of the replies as the channel takes, closes a plain connection when its reply is sent
+        private void write(SelectionKey key, Connection connection) throws IOException {
+            ByteBuffer reply;
+            while ((reply = connection.replies.peek()) != null) {
+                connection.channel.write(reply);
+                if (reply.hasRemaining()) {
+                    return;
+                }
+                connection.replies.poll();
+                connection.queuedBytes.addAndGet(-reply.limit());
+            }
+
+            if (connection.framed) {
+                key.interestOps(SelectionKey.OP_READ);
+            } else if (connection.lastReplyQueued) {
+                close(key);
+            }
+        }
+
+        // hands the connections of satellites that pull jobs over to threads of their own,
+        // in blocking mode, as such a connection is busy for its whole life
+        private void handOverPullConnections() throws IOException {
+            for (SelectionKey key : pullConnections) {
+                key.cancel();
+            }
+            // deregister the channels, they cannot be put in blocking mode before
+            selector.selectNow();
+
+            for (SelectionKey key : pullConnections) {
+                Connection connection = (Connection) key.attachment();
+                try {
+                    connection.channel.configureBlocking(true);
+                    // the bytes read, but not processed so far come first
+                    DataInputStream input = new DataInputStream(new BufferedInputStream(new SequenceInputStream(
+                            new ByteArrayInputStream(connection.request, connection.requestStart, connection.requestLength - connection.requestStart),
+                            connection.channel.socket().getInputStream())));
+                    DataOutputStream output = new DataOutputStream(new BufferedOutputStream(connection.channel.socket().getOutputStream()));
+
+                    Thread puller = new Thread(() -> pullDispatcher.serve(connection.pullRequest, input, output, connection.channel, connection.codec),
+                            "NioServer-Pull-" + connection.pullRequest.getSatelliteName());
+                    puller.setDaemon(true);
+                    puller.start();
+                } catch (IOException ex) {
+                    System.err.println("[NioServer.EventLoop] Connection closed: " + ex.getMessage());
+                    close(key);
+                }
+            }
+            pullConnections.clear();
+        }
+
+        private void close(SelectionKey key) {
+            key.cancel();
+            try {
+                key.channel().close();
+            } catch (IOException ex) {
+                // nothing left to do
+            }
+        }
+    }
+
+    // drops the first bytes read so far, they are overwritten once the array is full
+    private static void consume(Connection connection, int count) {
+        connection.requestStart += count;
+        if (connection.requestStart == connection.requestLength) {
+            connection.requestStart = 0;
+            connection.requestLength = 0;
+        }
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16) | ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+    }
+
+    // encodes a reply as a frame, length included
+    private static ByteBuffer encodeFrame(Message reply, FramedProtocol.Codec codec) {
+        try {
+            byte[] frame = FramedProtocol.encode(reply, codec);
+            ByteBuffer buffer = ByteBuffer.allocate(4 + frame.length);
+            buffer.putInt(frame.length).put(frame).flip();
+            return buffer;
+        } catch (IOException ex) {
+            System.err.println("[NioServer.encodeFrame] Severe: " + ex.getMessage());
+            return ByteBuffer.allocate(0);
+        }
+    }
+
+    /**
+     * Decodes the message read so far.
+     *
+     * @return the message, null if it is not complete yet
+     * @throws IOException if the bytes are not a message
+     */
+    private static Message decode(Connection connection) throws IOException {
+        try (ObjectInputStream readFromNet = new ObjectInputStream(new ByteArrayInputStream(connection.request, connection.requestStart,
+                connection.requestLength - connection.requestStart))) {
+            return (Message) readFromNet.readObject();
+        } catch (EOFException ex) {
+            return null;
+        } catch (ClassNotFoundException | ClassCastException ex) {
+            throw new IOException("not a message: " + ex.getMessage());
+        }
+    }
+
+    // serializes a reply the way an ObjectOutputStream on a socket would send it
+    private static ByteBuffer encode(Object reply) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream writeToNet = new ObjectOutputStream(bytes)) {
+            writeToNet.writeObject(reply);
+        } catch (IOException ex) {
+            System.err.println("[NioServer.encode] Severe: " + ex.getMessage());
+        }
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+}
@@ -0,0 +1,32 @@
+package appserver.server;
+
+import appserver.job.Job;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The class [PowerOfTwoChoicesPolicy] samples two satellites at random and picks the one
+ * with fewer jobs in flight. This is almost as good as looking at all satellites,
+ * but does not send every job to the same idle satellite when the load information is stale.
+ *
+ * @author sampath
+ */
+public class PowerOfTwoChoicesPolicy implements SchedulingPolicy {
+
+    @Override
+    public SatelliteLoad select(List<SatelliteLoad> satellites, Job job) {
+        int size = satellites.size();
+        if (size == 1) {
+            return satellites.get(0);
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        // pick a second satellite, different from the first one
+        int second = (first + 1 + random.nextInt(size - 1)) % size;
+
+        SatelliteLoad a = satellites.get(first);
+        SatelliteLoad b = satellites.get(second);
+        return b.getInFlight() < a.getInFlight() ? b : a;
+    }
+}
@@ -0,0 +1,413 @@
+package appserver.server;
+
+import appserver.comm.FramedProtocol;
+import appserver.comm.Message;
+import static appserver.comm.MessageTypes.JOB_REQUEST;
+import static appserver.comm.MessageTypes.JOB_RESULT;
+import static appserver.comm.MessageTypes.PULL_JOBS;
+import static appserver.comm.MessageTypes.RESULT_CHUNK;
+import static appserver.comm.MessageTypes.SERVER_BUSY;
+import appserver.comm.PullRequest;
+import appserver.comm.TimingTrace;
+import appserver.job.Job;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class [PullDispatcher] hands jobs to satellites that pull them. Each pulling satellite
+ * keeps a framed connection to the server open and tells how many jobs it takes at a time,
+ * its slots. A job goes to the satellite with the most free slots, and a slot is free again
+ * when the satellite sends back the result. Jobs never wait on a satellite that is busy,
+ * they wait in the DispatchQueue instead, so faster satellites take more jobs on their own.
+ * A job that still finds no free slot, e.g. before the first satellite connected, waits here
+ * for a slot, and fails only if none is free within the given time.
+ *
+ * A satellite that does not send back a result in time, or that was ejected since it went
+ * silent, loses its connection, so the jobs it holds fail over like on a broken connection.
+ *
+ * A satellite offers to pull jobs with a PULL_JOBS message, the server accepts by sending a
+ * PULL_JOBS message with true back. A server that pushes jobs sends false instead.
+ *
+ * @author sampath
+ */
+public class PullDispatcher {
+
+    // a connection of a satellite that pulls jobs
+    private static class PullConnection {
+
+        final String satelliteName;
+        final DataOutputStream output;
+        final FramedProtocol.Codec codec;
+        final Closeable connection;
+        final AtomicInteger slots = new AtomicInteger();
+        final AtomicInteger freeSlots = new AtomicInteger();
+        final AtomicLong dispatched = new AtomicLong();
+        // jobs sent over this connection and waiting for their result, keyed by correlation id
+        final ConcurrentHashMap<Long, CompletableFuture<Object>> pendingResults = new ConcurrentHashMap<>();
+        // the jobs among them, to take over the timing the satellite sends back and the chunks of streamed results
+        final ConcurrentHashMap<Long, Job> pendingJobs = new ConcurrentHashMap<>();
+        final ChunkedResults chunkedResults = new ChunkedResults();
+
+        PullConnection(String satelliteName, DataOutputStream output, FramedProtocol.Codec codec, Closeable connection) {
+            this.satelliteName = satelliteName;
+            this.output = output;
+            this.codec = codec;
+            this.connection = connection;
+        }
+
+        // closes the connection, the thread serving it fails the jobs still waiting for their result
+        void close() {
+            try {
+                connection.close();
+            } catch (IOException ex) {
+                // nothing left to do
+            }
+        }
+
+        void addSlots(int count) {
+            slots.addAndGet(count);
+            freeSlots.addAndGet(count);
+        }
+
+        // takes a free slot, false if there is none
+        boolean takeSlot() {
+            int free;
+            do {
+                free = freeSlots.get();
+                if (free <= 0) {
+                    return false;
+                }
+            } while (!freeSlots.compareAndSet(free, free - 1));
+            return true;
+        }
+    }
+
+    // a job waiting for a free slot
+    private static class WaitingJob {
+
+        final Job job;
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+
+        WaitingJob(Job job) {
+            this.job = job;
+        }
+    }
+
+    private final LoadManager loadManager;
+    // records the latency of the jobs on the satellites
+    private final ServerMetrics metrics;
+    private final CopyOnWriteArrayList<PullConnection> connections = new CopyOnWriteArrayList<>();
+    private final AtomicLong nextCorrelationId = new AtomicLong();
+    // is told when satellites have free slots again, e.g. to start waiting jobs
+    private volatile Runnable slotsFreed = () -> { };
+    // the jobs that found no free slot, in the order they came in
+    private final ArrayDeque<WaitingJob> waitingJobs = new ArrayDeque<>();
+    private final long slotWaitMillis;
+    // the time a job waits for its result, 0 for no limit
+    private final long replyTimeoutMillis;
+    // sends the waiting jobs, not on the threads that read from the satellites
+    private final ExecutorService sender = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "PullDispatcher-Sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Constructor
+     *
+     * @param loadManager keeps track of the jobs of the satellites
+     * @param metrics records the latency of the jobs on the satellites
+     * @param slotWaitMillis the time a job waits for a free slot before it fails
+     * @param replyTimeoutMillis the time a job waits for its result before it fails and the
+     *        satellite's connection is closed, 0 for no limit
+     */
+    public PullDispatcher(LoadManager loadManager, ServerMetrics metrics, long slotWaitMillis, long replyTimeoutMillis) {
+        this.loadManager = loadManager;
+        this.metrics = metrics;
+        this.slotWaitMillis = slotWaitMillis;
+        this.replyTimeoutMillis = replyTimeoutMillis;
+    }
+
+    /**
+     * Sets what to do when slots became free without a job completing, i.e. when a satellite
+     * connected or pulled more jobs.
+     */
+    public void setSlotsFreed(Runnable slotsFreed) {
+        this.slotsFreed = slotsFreed;
+    }
+
+    /**
+     * Closes the connections of a satellite, e.g. when it was ejected since it went silent.
+     * The jobs it holds fail, so they can be sent to another satellite.
+     *
+     * @param satelliteName the name of the satellite
+     */
+    public void close(String satelliteName) {
+        for (PullConnection connection : connections) {
+            if (connection.satelliteName.equals(satelliteName)) {
+                System.err.println("[PullDispatcher.close] Closing the connection of " + satelliteName);
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of slots of all satellites that pull jobs.
+     */
+    public int getSlots() {
+        int slots = 0;
+        for (PullConnection connection : connections) {
+            slots += connection.slots.get();
+        }
+        return slots;
+    }
+
+    /**
+     * Returns the number of slots not taken by a job.
+     */
+    public int getFreeSlots() {
+        int freeSlots = 0;
+        for (PullConnection connection : connections) {
+            freeSlots += Math.max(0, connection.freeSlots.get());
+        }
+        return freeSlots;
+    }
+
+    /**
+     * Sends a job to the pulling satellite with the most free slots, or waits for a free slot.
+     *
+     * @param job the job
+     * @return the future result, it fails if no slot is free in time or the connection breaks
+     */
+    public CompletableFuture<Object> dispatch(Job job) {
+        PullConnection target = takeSlot();
+        if (target != null) {
+            return send(target, job);
+        }
+
+        WaitingJob waiting = new WaitingJob(job);
+        synchronized (waitingJobs) {
+            waitingJobs.add(waiting);
+        }
+        CompletableFuture.delayedExecutor(slotWaitMillis, TimeUnit.MILLISECONDS).execute(() -> {
+            boolean removed;
+            synchronized (waitingJobs) {
+                removed = waitingJobs.remove(waiting);
+            }
+            if (removed) {
+                waiting.result.completeExceptionally(new Exception("No satellites available."));
+            }
+        });
+        // a slot may have been freed meanwhile
+        sendWaiting();
+        return waiting.result;
+    }
+
+    // takes a free slot of the satellite with the most free slots, null if no slot is free
+    private PullConnection takeSlot() {
+        while (true) {
+            PullConnection target = null;
+            for (PullConnection connection : connections) {
+                if (connection.freeSlots.get() > 0 && (target == null || connection.freeSlots.get() > target.freeSlots.get())) {
+                    target = connection;
+                }
+            }
+            if (target == null) {
+                return null;
+            }
+            if (target.takeSlot()) {
+                return target;
+            }
+            // another job took the slot meanwhile, look again
+        }
+    }
+
+    // sends the waiting jobs there are free slots for
+    private void sendWaiting() {
+        while (true) {
+            WaitingJob waiting;
+            PullConnection target;
+            synchronized (waitingJobs) {
+                if (waitingJobs.isEmpty() || (target = takeSlot()) == null) {
+                    return;
+                }
+                waiting = waitingJobs.poll();
+            }
+            send(target, waiting.job).whenComplete((value, failure) -> {
+                if (failure == null) {
+                    waiting.result.complete(value);
+                } else {
+                    waiting.result.completeExceptionally(failure);
+                }
+            });
+        }
+    }
+
+    // slots were freed, the waiting jobs go first
+    private void freed() {
+        boolean waiting;
+        synchronized (waitingJobs) {
+            waiting = !waitingJobs.isEmpty();
+        }
+        if (waiting) {
+            sender.execute(this::sendWaiting);
+        }
+    }
+
+    // sends a job to a satellite whose slot it took
+    private CompletableFuture<Object> send(PullConnection target, Job job) {
+        target.dispatched.incrementAndGet();
+
+        String satelliteName = target.satelliteName;
+        System.out.println("\n [PullDispatcher.dispatch] job request pulled by " + satelliteName);
+        loadManager.jobStarted(satelliteName);
+        job.setSatelliteName(satelliteName);
+        long dispatched = System.nanoTime();
+
+        long correlationId = nextCorrelationId.incrementAndGet();
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        target.pendingResults.put(correlationId, result);
+        target.pendingJobs.put(correlationId, job);
+        try {
+            synchronized (target.output) {
+                FramedProtocol.writeFrame(target.output, new Message(JOB_REQUEST, job, correlationId), target.codec);
+            }
+        } catch (IOException ex) {
+            target.pendingResults.remove(correlationId);
+            target.pendingJobs.remove(correlationId);
+            target.freeSlots.incrementAndGet();
+            result.completeExceptionally(new JobNotSentException(satelliteName, ex));
+        }
+        if (replyTimeoutMillis > 0 && !result.isDone()) {
+            CompletableFuture.delayedExecutor(replyTimeoutMillis, TimeUnit.MILLISECONDS).execute(() -> {
+                if (target.pendingResults.remove(correlationId, result)) {
+                    // the satellite is taken for dead, its other jobs fail when the connection closes
+                    target.pendingJobs.remove(correlationId);
+                    System.err.println("[PullDispatcher.send] Warning: no result from " + satelliteName
+                            + " within " + replyTimeoutMillis + " ms, closing its connection");
+                    result.completeExceptionally(new SocketTimeoutException("No result from " + satelliteName
+                            + " within " + replyTimeoutMillis + " ms"));
+                    target.close();
+                }
+            });
+        }
+        return result.whenComplete((value, failure) -> {
+            long latency = System.nanoTime() - dispatched;
+            if (failure == null) {
+                loadManager.jobCompleted(satelliteName, latency);
+            } else {
+                loadManager.jobFailed(satelliteName, latency);
+            }
+            metrics.recordSatellite(job, satelliteName, latency);
+            job.recordTiming(TimingTrace.SATELLITE, latency);
+        });
+    }
+
+    /**
+     * Serves the connection of a satellite that pulls jobs, until the connection is closed.
+     * The results coming in complete the jobs, the jobs that are still waiting for their
+     * result when the connection breaks fail, so they can be sent to another satellite.
+     *
+     * @param pullRequest the first PULL_JOBS request of the satellite
+     * @param input the connection from the satellite
+     * @param output the connection to the satellite
+     * @param connection closes the connection
+     * @param codec the codec of the frames on the connection
+     */
+    public void serve(PullRequest pullRequest, DataInputStream input, DataOutputStream output, Closeable connection,
+            FramedProtocol.Codec codec) {
+        PullConnection pullConnection = new PullConnection(pullRequest.getSatelliteName(), output, codec, connection);
+        pullConnection.addSlots(pullRequest.getSlots());
+
+        IOException failure;
+        try {
+            // accept the offer before any job goes out
+            synchronized (output) {
+                FramedProtocol.writeFrame(output, new Message(PULL_JOBS, Boolean.TRUE), codec);
+            }
+            connections.add(pullConnection);
+            System.out.println("[PullDispatcher.serve] " + pullRequest.getSatelliteName() + " pulls jobs, slots: " + pullRequest.getSlots());
+            freed();
+            slotsFreed.run();
+
+            while (true) {
+                Message message = FramedProtocol.readFrame(input, codec);
+                if (message.getType() == JOB_RESULT || message.getType() == SERVER_BUSY) {
+                    CompletableFuture<Object> result = pullConnection.pendingResults.remove(message.getCorrelationId());
+                    Job job = pullConnection.pendingJobs.remove(message.getCorrelationId());
+                    TimingTrace trace = job == null ? null : job.getTrace();
+                    if (trace != null && message.getTrace() != null) {
+                        trace.merge(message.getTrace());
+                    }
+                    Object content = pullConnection.chunkedResults.complete(job, message.getCorrelationId(), message.getContent());
+                    if (result == null) {
+                        System.err.println("[PullDispatcher.serve] Warning: result of unknown job " + message.getCorrelationId());
+                        continue;
+                    }
+                    // free the slot before the result is delivered, which starts the next job
+                    pullConnection.freeSlots.incrementAndGet();
+                    freed();
+                    if (message.getType() == SERVER_BUSY) {
+                        // the satellite had no room for the job
+                        result.completeExceptionally(new ServerBusyException(((Number) content).longValue()));
+                    } else {
+                        result.complete(content);
+                    }
+                } else if (message.getType() == RESULT_CHUNK) {
+                    pullConnection.chunkedResults.add(pullConnection.pendingJobs.get(message.getCorrelationId()),
+                            message.getCorrelationId(), (byte[]) message.getContent());
+                } else if (message.getType() == PULL_JOBS) {
+                    pullConnection.addSlots(((PullRequest) message.getContent()).getSlots());
+                    freed();
+                    slotsFreed.run();
+                } else {
+                    System.err.println("[PullDispatcher.serve] Warning: Message type not implemented");
+                }
+            }
+        } catch (EOFException ex) {
+            failure = new IOException("Satellite " + pullConnection.satelliteName + " closed the connection");
+        } catch (IOException ex) {
+            failure = ex;
+        } catch (Throwable ex) {
+            // a bad message ends this connection only, its jobs fail over like on a broken connection
+            failure = new IOException("Bad message from " + pullConnection.satelliteName + ": " + ex, ex);
+        }
+
+        connections.remove(pullConnection);
+        pullConnection.chunkedResults.clear();
+        System.err.println("[PullDispatcher.serve] " + pullConnection.satelliteName + " stopped pulling jobs: " + failure.getMessage());
+        try {
+            connection.close();
+        } catch (IOException ex) {
+            // nothing left to do
+        }
+        for (Long correlationId : pullConnection.pendingResults.keySet()) {
+            CompletableFuture<Object> result = pullConnection.pendingResults.remove(correlationId);
+            if (result != null) {
+                result.completeExceptionally(failure);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder stats = new StringBuilder("slots: " + getSlots() + ", free: " + getFreeSlots());
+        for (PullConnection connection : connections) {
+            stats.append(", ").append(connection.satelliteName).append(": ").append(connection.dispatched.get());
+        }
+        return stats.toString();
+    }
+}
@@ -0,0 +1,252 @@
+package appserver.server;
+
+import appserver.job.Idempotent;
+import appserver.job.Job;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * The class [RequestHedger] sends a second copy of a job to another satellite when the first
+ * satellite takes longer than most jobs of the same tool, and takes whichever result comes first.
+ * A single slow satellite then no longer holds up the jobs routed to it.
+ *
+ * The hedge delay is a percentile of the latencies of recent jobs of the tool with parameters
+ * of about the same size, so at most a few percent of the jobs are hedged, and a job with large
+ * parameters is not hedged just because it takes longer than the small jobs of its tool. Until
+ * there are enough jobs of a size, the latencies of all jobs of the tool are taken. Only jobs of tools that are Idempotent are hedged.
+ *
+ * Only the latency of the first copy of a job is recorded, up to the moment the job completed, so
+ * hedges that win do not shorten the hedge delay, which would hedge ever more jobs. The hedges are
+ * also capped at a share of all jobs. The copy that comes second is cancelled, so a satellite that
+ * did not start it yet does not run it.
+ *
+ * @author sampath
+ */
+public class RequestHedger {
+
+    // the number of recent latencies kept per tool
+    static final int WINDOW_SIZE = 256;
+    // the number of latencies needed before a tool is hedged
+    static final int MIN_SAMPLES = 20;
+
+    // the latencies of the recent jobs of one tool, in a ring
+    private static final class LatencyWindow {
+
+        final AtomicLongArray samples = new AtomicLongArray(WINDOW_SIZE);
+        final AtomicLong count = new AtomicLong();
+
+        void record(long latencyNanos) {
+            samples.set((int) (count.getAndIncrement() % WINDOW_SIZE), latencyNanos);
+        }
+
+        // the given percentile of the recent latencies, -1 if there are too few of them
+        long percentile(double percentile) {
+            int size = (int) Math.min(count.get(), WINDOW_SIZE);
+            if (size < MIN_SAMPLES) {
+                return -1;
+            }
+            long[] sorted = new long[size];
+            for (int i = 0; i < size; i++) {
+                sorted[i] = samples.get(i);
+            }
+            Arrays.sort(sorted);
+            return sorted[Math.min(size - 1, (int) Math.ceil(percentile / 100 * size) - 1)];
+        }
+    }
+
+    private final double percentile;
+    private final long minDelayNanos;
+    // the share of the jobs that may be hedged, in percent
+    private final double maxHedgeRate;
+    // the latencies by tool, and by tool and size class of the parameters
+    private final ConcurrentHashMap<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+    // fires the hedges
+    private final ScheduledThreadPoolExecutor timer;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong hedgesCapped = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param percentile the percentile of the recent latencies after which a job is hedged, e.g. 95
+     * @param minDelayMillis the shortest time after which a job is hedged
+     * @param maxHedgeRate the share of the jobs that may be hedged, in percent
+     */
+    public RequestHedger(double percentile, long minDelayMillis, double maxHedgeRate) {
+        this.percentile = percentile;
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMillis);
+        this.maxHedgeRate = maxHedgeRate;
+
+        timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "RequestHedger-Timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Tells whether a job may be hedged, i.e. whether its tool is idempotent.
+     * Tools the server cannot load are taken as not idempotent.
+     */
+    public boolean isHedgeable(Job job) {
+        return ToolClasses.implementsMarker(job.getToolName(), Idempotent.class);
+    }
+
+    /**
+     * Runs a job on one satellite and, if it is not done after the hedge delay of its tool,
+     * on a second one as well.
+     *
+     * @param job the job
+     * @param primary sends the job to the first satellite
+     * @param hedge sends the job to a second satellite
+     * @return the first result, it fails only if both copies of the job failed
+     *         or the first failed while no hedge was sent
+     */
+    public CompletableFuture<Object> dispatch(Job job, Supplier<CompletableFuture<Object>> primary,
+            Supplier<CompletableFuture<Object>> hedge) {
+        requests.incrementAndGet();
+        LatencyWindow toolWindow = latencies.computeIfAbsent(job.getToolName(), key -> new LatencyWindow());
+        LatencyWindow sizeWindow = latencies.computeIfAbsent(job.getToolName() + "#" + sizeClass(job.getParameters()), key -> new LatencyWindow());
+        long recentLatency = sizeWindow.percentile(percentile);
+        if (recentLatency < 0) {
+            recentLatency = toolWindow.percentile(percentile);
+        }
+        long dispatched = System.nanoTime();
+
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        // the copies of the job that are still running
+        AtomicInteger running = new AtomicInteger(1);
+        CompletableFuture<Object> first = primary.get();
+        first.whenComplete(completion(result, running, toolWindow, sizeWindow, dispatched, false));
+        result.whenComplete((value, failure) -> first.cancel(false));
+        if (recentLatency < 0) {
+            // no idea yet how long jobs of this tool take
+            return result;
+        }
+
+        long hedgeDelay = Math.max(minDelayNanos, recentLatency);
+        ScheduledFuture<?> hedgeTimer = timer.schedule(() -> {
+            // do not hedge a job that completed or failed meanwhile, nor more than the share of the jobs
+            if (result.isDone() || !takeHedge()) {
+                return;
+            }
+            if (running.getAndUpdate(count -> count == 0 ? 0 : count + 1) == 0) {
+                hedges.decrementAndGet();
+                return;
+            }
+            System.out.println("[RequestHedger.dispatch] hedging job after " + TimeUnit.NANOSECONDS.toMillis(hedgeDelay) + " ms (" + this + ")");
+            CompletableFuture<Object> second;
+            try {
+                second = hedge.get();
+            } catch (RuntimeException ex) {
+                second = CompletableFuture.failedFuture(ex);
+            }
+            second.whenComplete(completion(result, running, toolWindow, sizeWindow, dispatched, true));
+            CompletableFuture<Object> hedged = second;
+            result.whenComplete((value, failure) -> hedged.cancel(false));
+        }, hedgeDelay, TimeUnit.NANOSECONDS);
+        result.whenComplete((value, failure) -> hedgeTimer.cancel(false));
+        return result;
+    }
+
+    // takes a hedge from the share of the jobs that may be hedged, false if it is used up
+    private boolean takeHedge() {
+        long count;
+        do {
+            count = hedges.get();
+            if (count + 1 > requests.get() * maxHedgeRate / 100) {
+                hedgesCapped.incrementAndGet();
+                return false;
+            }
+        } while (!hedges.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    // completes the result with the first copy of the job that succeeds, or the last that fails; the
+    // latency of the first copy is recorded, if the hedge won it took at least until then
+    private BiConsumer<Object, Throwable> completion(CompletableFuture<Object> result, AtomicInteger running,
+            LatencyWindow toolWindow, LatencyWindow sizeWindow, long dispatched, boolean isHedge) {
+        return (value, failure) -> {
+            if (failure == null) {
+                if (result.complete(value)) {
+                    long latency = System.nanoTime() - dispatched;
+                    toolWindow.record(latency);
+                    sizeWindow.record(latency);
+                    if (isHedge) {
+                        hedgeWins.incrementAndGet();
+                    }
+                }
+            } else if (running.decrementAndGet() == 0) {
+                result.completeExceptionally(failure);
+            }
+        };
+    }
+
+    /**
+     * Returns the size class of the parameters of a job: the number of bits of a number,
+     * or of the length of a string, an array or a collection, 0 for other parameters.
+     */
+    static int sizeClass(Object parameters) {
+        long size;
+        if (parameters instanceof Number) {
+            size = Math.abs(((Number) parameters).longValue());
+        } else if (parameters instanceof CharSequence) {
+            size = ((CharSequence) parameters).length();
+        } else if (parameters instanceof Collection) {
+            size = ((Collection<?>) parameters).size();
+        } else if (parameters != null && parameters.getClass().isArray()) {
+            size = Array.getLength(parameters);
+        } else {
+            return 0;
+        }
+        return 64 - Long.numberOfLeadingZeros(size);
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getHedges() {
+        return hedges.get();
+    }
+
+    public long getHedgeWins() {
+        return hedgeWins.get();
+    }
+
+    /**
+     * Returns the number of jobs that were not hedged since the share of hedged jobs was used up.
+     */
+    public long getHedgesCapped() {
+        return hedgesCapped.get();
+    }
+
+    /**
+     * Returns the share of the jobs that were hedged, in percent.
+     */
+    public double getHedgeRate() {
+        long count = requests.get();
+        return count == 0 ? 0 : 100.0 * hedges.get() / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("requests: %d, hedges: %d (%.1f%%), hedge wins: %d, capped: %d", getRequests(), getHedges(), getHedgeRate(),
+                getHedgeWins(), getHedgesCapped());
+    }
+}
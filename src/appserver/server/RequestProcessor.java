@@ -0,0 +1,218 @@
+package appserver.server;
+
+import appserver.comm.ConnectivityInfo;
+import appserver.comm.FetchRequest;
+import appserver.comm.JobStatus;
+import appserver.comm.Message;
+import appserver.comm.TimingTrace;
+import static appserver.comm.MessageTypes.FETCH_RESULT;
+import static appserver.comm.MessageTypes.HEARTBEAT;
+import static appserver.comm.MessageTypes.JOB_BATCH;
+import static appserver.comm.MessageTypes.JOB_REQUEST;
+import static appserver.comm.MessageTypes.JOB_RESULT;
+import static appserver.comm.MessageTypes.JOB_STATUS;
+import static appserver.comm.MessageTypes.PULL_JOBS;
+import static appserver.comm.MessageTypes.REGISTER_SATELLITE;
+import static appserver.comm.MessageTypes.SERVER_BUSY;
+import static appserver.comm.MessageTypes.SUBMIT_JOB;
+import static appserver.comm.MessageTypes.UNREGISTER_SATELLITE;
+import appserver.job.Job;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+/**
+ * The class [RequestProcessor] processes the messages that come in to the server,
+ * independent of the transport they came in on.
+ *
+ * Processing never blocks: it returns the future reply, which is to be sent back
+ * to the client, unless it is NO_REPLY. Jobs go through the DispatchQueue, a job it
+ * rejects is answered with a SERVER_BUSY message carrying the milliseconds after which
+ * the client may try again. A transport that can send messages ahead of the reply may take the
+ * chunks of a streamed job result as they come, the reply is then a StreamedResult.
+ *
+ * @author manoj
+ */
+public class RequestProcessor {
+
+    // reply of messages the sender does not expect an answer to
+    public static final Object NO_REPLY = new Object();
+
+    private final SatelliteManager satelliteManager;
+    private final DispatchQueue dispatchQueue;
+    private final JobTable jobTable;
+
+    public RequestProcessor(SatelliteManager satelliteManager, DispatchQueue dispatchQueue, JobTable jobTable) {
+        this.satelliteManager = satelliteManager;
+        this.dispatchQueue = dispatchQueue;
+        this.jobTable = jobTable;
+    }
+
+    /**
+     * Returns the reply to a request the server has no thread for, a SERVER_BUSY message.
+     */
+    public Message busyReply() {
+        return new Message(SERVER_BUSY, dispatchQueue.getRetryAfterMillis());
+    }
+
+    /**
+     * Returns the message a reply is sent in over a framed connection. Replies that are
+     * messages of their own, e.g. SERVER_BUSY, keep their type, all others are a JOB_RESULT.
+     *
+     * @param reply the reply to a request
+     * @param correlationId the correlation id of the request
+     */
+    public static Message replyMessage(Object reply, long correlationId) {
+        if (reply instanceof Message) {
+            Message message = (Message) reply;
+            Message replyMessage = new Message(message.getType(), message.getContent(), correlationId);
+            replyMessage.setTrace(message.getTrace());
+            return replyMessage;
+        }
+        return new Message(JOB_RESULT, reply, correlationId);
+    }
+
+    /**
+     * Processes a message, results of jobs come back in one piece.
+     *
+     * @param message the message that came in
+     * @return the future reply to the message, never fails
+     */
+    public CompletableFuture<Object> process(Message message) {
+        return process(message, null);
+    }
+
+    /**
+     * Processes a message.
+     *
+     * @param message the message that came in
+     * @param resultChunks takes the chunks of a streamed result of a JOB_REQUEST that asks for its result in chunks,
+     *                     null if the client cannot take chunks
+     * @return the future reply to the message, never fails
+     */
+    public CompletableFuture<Object> process(Message message, Consumer<byte[]> resultChunks) {
+        switch (message.getType()) {
+
+            // handle register satellite request
+            case REGISTER_SATELLITE:
+                // register satellite, this makes it available to the load manager as well
+                satelliteManager.registerSatellite((ConnectivityInfo) message.getContent());
+                return CompletableFuture.completedFuture(NO_REPLY);
+
+            // handle unregister satellite request, e.g. from a satellite shutting down
+            case UNREGISTER_SATELLITE:
+                satelliteManager.unregisterSatellite(((ConnectivityInfo) message.getContent()).getName());
+                return CompletableFuture.completedFuture(NO_REPLY);
+
+            // handle heartbeat of a satellite
+            case HEARTBEAT:
+                satelliteManager.heartbeat((ConnectivityInfo) message.getContent());
+                return CompletableFuture.completedFuture(NO_REPLY);
+
+            // handle job request
+            case JOB_REQUEST:
+                System.err.println("\n[RequestProcessor.process] Received job request");
+
+                // the client gets null back if the job cannot be done
+                Job requestedJob = (Job) message.getContent();
+                // only jobs that ask for it get their result in chunks, the others may be hedged and retried
+                if (resultChunks != null && requestedJob.isChunkedResult()) {
+                    requestedJob.setChunkConsumer(resultChunks);
+                }
+                return submit(requestedJob).exceptionally(failure -> failedJobReply(failure, "process"));
+
+            // handle a batch of jobs, they are spread over the satellites in parallel
+            case JOB_BATCH:
+                return processBatch((List<?>) message.getContent());
+
+            // handle asynchronous job submission, the client gets the id of the job right away
+            case SUBMIT_JOB:
+                Job job = (Job) message.getContent();
+                if (dispatchQueue.isFull()) {
+                    return CompletableFuture.completedFuture(failedJobReply(dispatchQueue.reject(job), "process"));
+                }
+                long jobId = jobTable.add(() -> submit(job));
+                if (jobId == -1) {
+                    System.err.println("[RequestProcessor.process] Warning: job table full, job rejected");
+                    return CompletableFuture.completedFuture(JobStatus.REJECTED);
+                }
+                return CompletableFuture.completedFuture(jobId);
+
+            // handle job status request of a submitted job
+            case JOB_STATUS:
+                return CompletableFuture.completedFuture(jobTable.getStatus((Long) message.getContent()));
+
+            // handle fetch request of the result of a submitted job
+            case FETCH_RESULT:
+                FetchRequest fetchRequest = (FetchRequest) message.getContent();
+                return jobTable.fetch(fetchRequest.getJobId(), fetchRequest.getWaitMillis());
+
+            // handle a satellite that offers to pull jobs, a server in pull mode takes the offer before it gets here
+            case PULL_JOBS:
+                System.out.println("[RequestProcessor.process] Satellite offers to pull jobs, but jobs are pushed");
+                return CompletableFuture.completedFuture(new Message(PULL_JOBS, Boolean.FALSE));
+
+            default:
+                System.err.println("[RequestProcessor.process] Warning: Message type not implemented");
+                return CompletableFuture.completedFuture(NO_REPLY);
+        }
+    }
+
+    /**
+     * Dispatches a job, the result of a job whose timing the client asked for comes in a JOB_RESULT
+     * message with the timing, whether the job came alone, in a batch or was submitted.
+     *
+     * @param job the job
+     * @return the future result of the job
+     */
+    private CompletableFuture<Object> submit(Job job) {
+        if (job.getTrace() == null) {
+            return dispatchQueue.submit(job);
+        }
+        long received = System.nanoTime();
+        return dispatchQueue.submit(job).thenApply(result -> {
+            job.recordTiming(TimingTrace.SERVER_TOTAL, System.nanoTime() - received);
+            Message reply = new Message(JOB_RESULT, result);
+            // the timing as it is now, the copy of a hedged job that completes later does not change it
+            reply.setTrace(job.getTrace().copy());
+            return reply;
+        });
+    }
+
+    /**
+     * Dispatches all jobs of a batch at once.
+     *
+     * @param jobs the jobs of the batch
+     * @return the future list of results, in the order of the jobs, null for jobs that could not be done,
+     *         a SERVER_BUSY message for jobs that were rejected and a JOB_RESULT message for traced jobs
+     */
+    private CompletableFuture<Object> processBatch(List<?> jobs) {
+        System.err.println("\n[RequestProcessor.processBatch] Received batch of " + jobs.size() + " jobs");
+
+        List<CompletableFuture<Object>> results = new ArrayList<>(jobs.size());
+        for (Object job : jobs) {
+            results.add(submit((Job) job).exceptionally(failure -> failedJobReply(failure, "processBatch")));
+        }
+
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            ArrayList<Object> replies = new ArrayList<>(results.size());
+            for (CompletableFuture<Object> result : results) {
+                replies.add(result.join());
+            }
+            return replies;
+        });
+    }
+
+    // the reply to a job that failed, a SERVER_BUSY message if the job was rejected, null otherwise
+    private Object failedJobReply(Throwable failure, String method) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        if (cause instanceof ServerBusyException) {
+            System.err.println("[RequestProcessor." + method + "] Warning: server busy, job rejected (" + dispatchQueue + ")");
+            return new Message(SERVER_BUSY, ((ServerBusyException) cause).getRetryAfterMillis());
+        }
+        System.err.println("[RequestProcessor." + method + "] Severe: " + cause.getMessage());
+        return null;
+    }
+}
@@ -0,0 +1,238 @@
+package appserver.server;
+
+import appserver.comm.StreamedResult;
+import appserver.comm.TimingTrace;
+import appserver.job.Deterministic;
+import appserver.job.Job;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * The class [ResultCache] keeps the results of jobs of deterministic tools, so a job
+ * that was done before can be answered without a satellite.
+ *
+ * The cache holds at most a given number of results and drops the least recently used
+ * one when it is full. Results may also expire after a given time.
+ *
+ * Jobs that come in while the same job is in flight wait for its result, instead of being
+ * sent to a satellite as well. Null results, i.e. jobs the tool could not do, are handed to
+ * the jobs that waited for them, but they are not cached.
+ *
+ * A job that waits for the same job in flight gets the timing the satellite recorded for that
+ * one, its own queue wait stays. Jobs are shared whatever their tenant and priority: a job gets
+ * here only after the DispatchQueue let it through in the order of its tenant and priority, and
+ * the job it waits for is at a satellite already, so it never waits behind jobs of lower priority.
+ *
+ * @author Srinivasa
+ */
+public class ResultCache {
+
+    // key of a cached result, i.e. the tool name and the parameters of a job
+    private static final class Key {
+
+        final String toolName;
+        final Object parameters;
+
+        Key(Job job) {
+            this.toolName = job.getToolName();
+            this.parameters = job.getParameters();
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) object;
+            // arrays are compared by content
+            return toolName.equals(other.toolName) && Objects.deepEquals(parameters, other.parameters);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * toolName.hashCode() + Arrays.deepHashCode(new Object[]{parameters});
+        }
+    }
+
+    // a cached result
+    private static final class CachedResult {
+
+        final Object result;
+        final long storedNanos;
+
+        CachedResult(Object result, long storedNanos) {
+            this.result = result;
+            this.storedNanos = storedNanos;
+        }
+    }
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<Key, CachedResult> results;
+    // a job in flight and its future result
+    private static final class InFlight {
+
+        final Job job;
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+
+        InFlight(Job job) {
+            this.job = job;
+        }
+    }
+
+    // the jobs in flight, the jobs that come in meanwhile share their results
+    private final ConcurrentHashMap<Key, InFlight> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param maxEntries the maximum number of results kept
+     * @param ttlMillis the time after which a result expires, 0 if results never expire
+     */
+    public ResultCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        // in access order, the eldest entry is the least recently used one
+        this.results = new LinkedHashMap<Key, CachedResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedResult> eldest) {
+                return size() > ResultCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Tells whether the result of a job may be cached, i.e. whether its tool is deterministic.
+     * Tools the server cannot load are taken as not deterministic.
+     */
+    public boolean isCacheable(Job job) {
+        return ToolClasses.implementsMarker(job.getToolName(), Deterministic.class);
+    }
+
+    /**
+     * Returns the cached result of a job, null if there is none.
+     */
+    public Object get(Job job) {
+        Key key = new Key(job);
+        CachedResult entry;
+        synchronized (results) {
+            entry = results.get(key);
+            if (entry != null && ttlNanos > 0 && System.nanoTime() - entry.storedNanos > ttlNanos) {
+                results.remove(key);
+                entry = null;
+            }
+        }
+
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.result;
+    }
+
+    /**
+     * Dispatches a job whose result is not cached, unless the same job is in flight already, then
+     * it gets the result of that one. The result is stored unless it is null, failed or streamed.
+     * Jobs whose result is streamed are always dispatched, as the chunks go to one client only.
+     * A job that gets the result of another one takes over the timing recorded for that one.
+     *
+     * @param job the job
+     * @param dispatcher dispatches the job
+     * @return the future result of the job
+     */
+    public CompletableFuture<Object> dispatchOnce(Job job, Function<Job, CompletableFuture<Object>> dispatcher) {
+        if (job.isStreamed()) {
+            return dispatcher.apply(job);
+        }
+
+        Key key = new Key(job);
+        InFlight pending = new InFlight(job);
+        InFlight running = inFlight.putIfAbsent(key, pending);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            return running.result.whenComplete((value, failure) -> takeTrace(job, running.job));
+        }
+
+        CompletableFuture<Object> result;
+        try {
+            result = dispatcher.apply(job);
+        } catch (RuntimeException ex) {
+            result = CompletableFuture.failedFuture(ex);
+        }
+        result.whenComplete((value, failure) -> {
+            // the chunks of a relayed result are gone, only results in one piece are cached,
+            // the result is stored before the job is no longer in flight, so no job misses both
+            if (failure == null && !(value instanceof StreamedResult)) {
+                put(job, value);
+            }
+            inFlight.remove(key, pending);
+            if (failure == null) {
+                pending.result.complete(value);
+            } else {
+                pending.result.completeExceptionally(failure);
+            }
+        });
+        return pending.result;
+    }
+
+    // gives a job that waited for another one the stages recorded for that one, keeps those it recorded itself
+    private static void takeTrace(Job job, Job running) {
+        TimingTrace trace = job.getTrace();
+        if (trace == null || running.getTrace() == null) {
+            return;
+        }
+        TimingTrace own = trace.copy();
+        trace.merge(running.getTrace());
+        trace.merge(own);
+    }
+
+    /**
+     * Stores the result of a job, null results are not cached.
+     */
+    public void put(Job job, Object result) {
+        if (result == null) {
+            return;
+        }
+        synchronized (results) {
+            results.put(new Key(job), new CachedResult(result, System.nanoTime()));
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of jobs that got the result of the same job in flight.
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public int size() {
+        synchronized (results) {
+            return results.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "hits: " + getHits() + ", misses: " + getMisses() + ", coalesced: " + getCoalesced() + ", size: " + size();
+    }
+}
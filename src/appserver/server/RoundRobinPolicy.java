@@ -0,0 +1,21 @@
+package appserver.server;
+
+import appserver.job.Job;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The class [RoundRobinPolicy] hands out the satellites in turn, regardless of their load.
+ *
+ * @author sampath
+ */
+public class RoundRobinPolicy implements SchedulingPolicy {
+
+    // the index of the last selected satellite
+    private final AtomicInteger lastSatelliteIndex = new AtomicInteger(-1);
+
+    @Override
+    public SatelliteLoad select(List<SatelliteLoad> satellites, Job job) {
+        return satellites.get(Math.floorMod(lastSatelliteIndex.incrementAndGet(), satellites.size()));
+    }
+}
@@ -0,0 +1,248 @@
+package appserver.server;
+
+import appserver.comm.ConnectivityInfo;
+import appserver.comm.FramedProtocol;
+import appserver.comm.Message;
+import static appserver.comm.MessageTypes.CANCEL_JOB;
+import static appserver.comm.MessageTypes.RESULT_CHUNK;
+import static appserver.comm.MessageTypes.SERVER_BUSY;
+import appserver.comm.TimingTrace;
+import appserver.job.Job;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class [SatelliteChannel] is a long-lived connection to a satellite that is
+ * shared by many job requests at the same time.
+ *
+ * Every request gets a correlation id, so replies can come back in any order.
+ * A reader thread hands each reply to the request waiting for it. The messages go
+ * over object streams, or in frames of the FramedProtocol if a codec is given.
+ * A result the satellite streams back comes in RESULT_CHUNK messages before its reply.
+ * A job the satellite has no room for is answered with SERVER_BUSY and fails with a
+ * ServerBusyException. Cancelling the future reply of a job, e.g. of a hedged copy that lost,
+ * sends CANCEL_JOB, so the satellite drops the job if it did not start it yet.
+ * A request whose reply does not come in time fails with a SocketTimeoutException, i.e. an
+ * IOException like a broken connection, as do all requests waiting for their reply when the
+ * channel closes.
+ *
+ * @author manoj
+ */
+class SatelliteChannel {
+
+    private final ConnectivityInfo satelliteInfo;
+    private final Socket satellite;
+    // the object streams, or the streams of the frames and their codec
+    private ObjectOutputStream writeToNet;
+    private ObjectInputStream readFromNet;
+    private final FramedProtocol.Codec codec;
+    // the time a request waits for its reply, 0 for no limit
+    private final long replyTimeoutMillis;
+    private DataOutputStream frameOutput;
+    private DataInputStream frameInput;
+
+    // requests that were sent out and wait for their reply, keyed by correlation id
+    private final ConcurrentHashMap<Long, CompletableFuture<Object>> pendingReplies = new ConcurrentHashMap<>();
+    // the jobs among them, to take over the timing the satellite sends back and the chunks of streamed results
+    private final ConcurrentHashMap<Long, Job> pendingJobs = new ConcurrentHashMap<>();
+    private final ChunkedResults chunkedResults = new ChunkedResults();
+    private final AtomicLong nextCorrelationId = new AtomicLong();
+    private volatile boolean open = true;
+
+    /**
+     * Connects to the satellite, opens the object streams and starts the reader thread.
+     *
+     * @param satelliteInfo the connectivity info of the satellite
+     * @param codec the codec of the frames, null for object streams
+     * @param connectTimeoutMillis the time connecting and opening the streams may take, 0 for no limit
+     * @param replyTimeoutMillis the time a request waits for its reply, 0 for no limit
+     * @throws IOException if the satellite cannot be reached in time
+     */
+    SatelliteChannel(ConnectivityInfo satelliteInfo, FramedProtocol.Codec codec, int connectTimeoutMillis, long replyTimeoutMillis)
+            throws IOException {
+        this.satelliteInfo = satelliteInfo;
+        this.codec = codec;
+        this.replyTimeoutMillis = replyTimeoutMillis;
+
+        satellite = new Socket();
+        try {
+            // a satellite without a host is on the loopback address, like with new Socket(null, port)
+            satellite.connect(new InetSocketAddress(InetAddress.getByName(satelliteInfo.getHost()), satelliteInfo.getPort()),
+                    connectTimeoutMillis);
+            satellite.setTcpNoDelay(true);
+            // a satellite that takes the connection but does not answer must not hold up the caller either
+            satellite.setSoTimeout(connectTimeoutMillis);
+            if (codec != null) {
+                frameOutput = new DataOutputStream(new BufferedOutputStream(satellite.getOutputStream()));
+                frameOutput.writeInt(codec.getPreamble());
+                frameOutput.flush();
+                frameInput = new DataInputStream(new BufferedInputStream(satellite.getInputStream()));
+            } else {
+                writeToNet = new ObjectOutputStream(satellite.getOutputStream());
+                writeToNet.flush();
+                readFromNet = new ObjectInputStream(satellite.getInputStream());
+            }
+            satellite.setSoTimeout(0);
+        } catch (IOException ex) {
+            satellite.close();
+            throw ex;
+        }
+
+        Thread reader = new Thread(this::readReplies, "SatelliteChannel-" + satelliteInfo.getName());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Sends a message to the satellite without waiting for the reply.
+     *
+     * @param message the message to be sent, it is not modified
+     * @return the future reply content of the satellite, cancelling it cancels the job
+     * @throws IOException if the message cannot be written, the channel is closed then
+     */
+    CompletableFuture<Object> send(Message message) throws IOException {
+        long correlationId = nextCorrelationId.incrementAndGet();
+        CompletableFuture<Object> reply = new CompletableFuture<>();
+        pendingReplies.put(correlationId, reply);
+        if (message.getContent() instanceof Job) {
+            pendingJobs.put(correlationId, (Job) message.getContent());
+        }
+
+        try {
+            write(new Message(message.getType(), message.getContent(), correlationId));
+        } catch (IOException ex) {
+            pendingReplies.remove(correlationId);
+            pendingJobs.remove(correlationId);
+            close(ex);
+            throw ex;
+        }
+
+        reply.whenComplete((value, failure) -> {
+            if (failure instanceof CancellationException && pendingReplies.remove(correlationId, reply)) {
+                // a reply that comes in later is dropped
+                pendingJobs.remove(correlationId);
+                chunkedResults.discard(correlationId);
+                try {
+                    write(new Message(CANCEL_JOB, null, correlationId));
+                } catch (IOException ex) {
+                    close(ex);
+                }
+            }
+        });
+
+        if (replyTimeoutMillis > 0) {
+            CompletableFuture.delayedExecutor(replyTimeoutMillis, TimeUnit.MILLISECONDS).execute(() -> {
+                if (pendingReplies.remove(correlationId, reply)) {
+                    // a reply that comes in later is dropped
+                    pendingJobs.remove(correlationId);
+                    chunkedResults.discard(correlationId);
+                    System.err.println("[SatelliteChannel.send] Warning: no reply from " + satelliteInfo.getName()
+                            + " within " + replyTimeoutMillis + " ms");
+                    reply.completeExceptionally(new SocketTimeoutException("No reply from " + satelliteInfo.getName()
+                            + " within " + replyTimeoutMillis + " ms"));
+                }
+            });
+        }
+        return reply;
+    }
+
+    // writes a message, messages of concurrent requests must not interleave on the stream
+    private void write(Message message) throws IOException {
+        if (codec != null) {
+            synchronized (frameOutput) {
+                FramedProtocol.writeFrame(frameOutput, message, codec);
+            }
+        } else {
+            synchronized (writeToNet) {
+                writeToNet.writeObject(message);
+                writeToNet.flush();
+                // forget the objects written so far, the stream lives for many requests
+                writeToNet.reset();
+            }
+        }
+    }
+
+    /**
+     * Tells whether the channel can still be used.
+     */
+    boolean isOpen() {
+        return open;
+    }
+
+    ConnectivityInfo getSatelliteInfo() {
+        return satelliteInfo;
+    }
+
+    /**
+     * Closes the connection and fails all requests still waiting for a reply.
+     */
+    void close(Exception cause) {
+        open = false;
+        try {
+            satellite.close();
+        } catch (IOException ex) {
+            // nothing left to do
+        }
+
+        pendingJobs.clear();
+        chunkedResults.clear();
+        IOException failure = new IOException("Connection to " + satelliteInfo.getName() + " closed", cause);
+        for (Long correlationId : pendingReplies.keySet()) {
+            CompletableFuture<Object> reply = pendingReplies.remove(correlationId);
+            if (reply != null) {
+                reply.completeExceptionally(failure);
+            }
+        }
+    }
+
+    // reader loop, matches replies with the requests waiting for them
+    private void readReplies() {
+        try {
+            while (open) {
+                Message reply = codec != null ? FramedProtocol.readFrame(frameInput, codec) : (Message) readFromNet.readObject();
+                if (reply.getType() == RESULT_CHUNK) {
+                    chunkedResults.add(pendingJobs.get(reply.getCorrelationId()), reply.getCorrelationId(), (byte[]) reply.getContent());
+                    continue;
+                }
+                CompletableFuture<Object> pendingReply = pendingReplies.remove(reply.getCorrelationId());
+                Job job = pendingJobs.remove(reply.getCorrelationId());
+                TimingTrace trace = job == null ? null : job.getTrace();
+                if (trace != null && reply.getTrace() != null) {
+                    trace.merge(reply.getTrace());
+                }
+                Object content = chunkedResults.complete(job, reply.getCorrelationId(), reply.getContent());
+                if (pendingReply != null && reply.getType() == SERVER_BUSY) {
+                    pendingReply.completeExceptionally(new ServerBusyException(((Number) content).longValue()));
+                } else if (pendingReply != null) {
+                    pendingReply.complete(content);
+                } else {
+                    System.err.println("[SatelliteChannel.readReplies] Warning: unexpected reply " + reply.getCorrelationId()
+                            + " from " + satelliteInfo.getName());
+                }
+            }
+        } catch (IOException | ClassNotFoundException ex) {
+            if (open) {
+                System.err.println("[SatelliteChannel.readReplies] Connection to " + satelliteInfo.getName() + " lost: " + ex.getMessage());
+            }
+            close(ex);
+        } catch (Throwable ex) {
+            // e.g. a reply the server cannot take, the requests waiting on this channel must not hang
+            System.err.println("[SatelliteChannel.readReplies] Severe: bad reply from " + satelliteInfo.getName() + ": " + ex);
+            close(new IOException("Bad reply from " + satelliteInfo.getName(), ex));
+        }
+    }
+}
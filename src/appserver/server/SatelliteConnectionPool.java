@@ -0,0 +1,175 @@
+package appserver.server;
+
+import appserver.comm.ConnectivityInfo;
+import appserver.comm.FramedProtocol;
+import appserver.comm.Message;
+import appserver.comm.TimingTrace;
+import appserver.job.Job;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class [SatelliteConnectionPool] keeps a few long-lived channels open to every satellite
+ * and reuses them for all job requests, instead of connecting to a satellite once per job.
+ *
+ * Channels are multiplexed, i.e. many jobs can be in flight on one channel at the same time.
+ * The pool counts hits (an open channel was reused), misses (a channel had to be opened)
+ * and the time it took to connect. Channels are opened outside of any lock and within a
+ * connect timeout, so a satellite host that is down does not hold up the jobs of others.
+ *
+ * @author manoj
+ */
+public class SatelliteConnectionPool {
+
+    // the channels of every satellite, a slot is null until it gets used for the first time
+    private final ConcurrentHashMap<ConnectivityInfo, SatelliteChannel[]> channels = new ConcurrentHashMap<>();
+    private final int channelsPerSatellite;
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    // records the connect latency per satellite
+    private final ServerMetrics metrics;
+    // the codec of the frames on the channels, null for object streams
+    private final FramedProtocol.Codec codec;
+    // the time opening a channel may take, 0 for no limit
+    private final int connectTimeoutMillis;
+    // the time a job waits for its result on a channel, 0 for no limit
+    private final long replyTimeoutMillis;
+
+    // statistics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong connectNanos = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param channelsPerSatellite the number of channels that are kept open to each satellite
+     * @param metrics records the connect latency per satellite
+     * @param codec the codec of the frames on the channels, null for object streams
+     * @param connectTimeoutMillis the time opening a channel may take, 0 for no limit
+     * @param replyTimeoutMillis the time a job waits for its result on a channel, 0 for no limit
+     */
+    public SatelliteConnectionPool(int channelsPerSatellite, ServerMetrics metrics, FramedProtocol.Codec codec, int connectTimeoutMillis,
+            long replyTimeoutMillis) {
+        this.channelsPerSatellite = Math.max(1, channelsPerSatellite);
+        this.metrics = metrics;
+        this.codec = codec;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.replyTimeoutMillis = replyTimeoutMillis;
+    }
+
+    /**
+     * Sends a message to a satellite over a pooled channel.
+     *
+     * A reused channel may have been closed by the satellite in the meantime. In that case
+     * a new channel is opened and the message is sent once more.
+     *
+     * @param satelliteInfo the connectivity info of the satellite
+     * @param message the message to be sent
+     * @return the future reply content of the satellite
+     * @throws IOException if the satellite cannot be reached
+     */
+    public CompletableFuture<Object> send(ConnectivityInfo satelliteInfo, Message message) throws IOException {
+        Job job = message.getContent() instanceof Job ? (Job) message.getContent() : null;
+        SatelliteChannel[] slots = channels.computeIfAbsent(satelliteInfo, key -> new SatelliteChannel[channelsPerSatellite]);
+        int slot = Math.floorMod(nextSlot.getAndIncrement(), slots.length);
+
+        SatelliteChannel channel;
+        synchronized (slots) {
+            channel = slots[slot];
+        }
+        boolean reused = channel != null && channel.isOpen();
+        if (!reused) {
+            channel = replace(slots, slot, channel, satelliteInfo, job);
+        }
+
+        try {
+            return channel.send(message);
+        } catch (IOException ex) {
+            if (!reused) {
+                throw ex;
+            }
+            // stale channel, connect once more
+            return replace(slots, slot, channel, satelliteInfo, job).send(message);
+        } finally {
+            if (reused) {
+                hits.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Closes all channels to a satellite.
+     *
+     * @param satelliteInfo the connectivity info of the satellite
+     */
+    public void close(ConnectivityInfo satelliteInfo) {
+        SatelliteChannel[] slots = channels.remove(satelliteInfo);
+        if (slots == null) {
+            return;
+        }
+        synchronized (slots) {
+            for (SatelliteChannel channel : slots) {
+                if (channel != null) {
+                    channel.close(null);
+                }
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the average time it took to open a channel, in milliseconds.
+     */
+    public double getAverageConnectMillis() {
+        long connects = misses.get();
+        return connects == 0 ? 0.0 : connectNanos.get() / 1e6 / connects;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits: %d, misses: %d, avg connect: %.2f ms", getHits(), getMisses(), getAverageConnectMillis());
+    }
+
+    // opens a new channel in place of one that is missing or closed, unless another job did so meanwhile
+    private SatelliteChannel replace(SatelliteChannel[] slots, int slot, SatelliteChannel stale, ConnectivityInfo satelliteInfo,
+            Job job) throws IOException {
+        SatelliteChannel channel = connect(satelliteInfo, job);
+        SatelliteChannel current;
+        synchronized (slots) {
+            current = slots[slot];
+            if (current == stale || current == null || !current.isOpen()) {
+                slots[slot] = channel;
+                return channel;
+            }
+        }
+        // use the channel the other job opened, keep only one per slot
+        channel.close(null);
+        return current;
+    }
+
+    // opens a new channel and records the connect latency, also for the job if there is one
+    private SatelliteChannel connect(ConnectivityInfo satelliteInfo, Job job) throws IOException {
+        long start = System.nanoTime();
+        SatelliteChannel channel = new SatelliteChannel(satelliteInfo, codec, connectTimeoutMillis, replyTimeoutMillis);
+        long connectTime = System.nanoTime() - start;
+        connectNanos.addAndGet(connectTime);
+        metrics.recordConnect(job, satelliteInfo.getName(), connectTime);
+        if (job != null) {
+            job.recordTiming(TimingTrace.CONNECT, connectTime);
+        }
+        misses.incrementAndGet();
+
+        System.out.println("[SatelliteConnectionPool.connect] Opened channel to " + satelliteInfo.getName() + " (" + this + ")");
+        return channel;
+    }
+}
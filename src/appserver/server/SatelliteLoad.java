@@ -0,0 +1,192 @@
+package appserver.server;
+
+import appserver.comm.SatelliteCapacity;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class [SatelliteLoad] keeps track of the load of one satellite, i.e. the number of jobs
+ * that are in flight and a moving average of the time it took to complete a job.
+ *
+ * A job that failed, e.g. since the connection broke or its reply timed out, does not lower the
+ * average: a satellite that fails jobs fast must not look fast and draw even more jobs. Its
+ * latency counts as at least FAILURE_PENALTY times the average instead.
+ *
+ * The server updates it when a job is dispatched and when the job completes, the
+ * scheduling policies read it to pick a satellite. It also remembers when the
+ * satellite was last heard of, to tell satellites that went silent, and the
+ * capacity the satellite advertised last.
+ *
+ * @author sampath
+ */
+public class SatelliteLoad {
+
+    // weight of the latest completion in the moving average of the latency
+    static final double EWMA_ALPHA = 0.3;
+    // a failed job counts as taking at least this many times the average latency
+    static final double FAILURE_PENALTY = 2.0;
+
+    private final String name;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    // moving average of the completion latency in nanoseconds, stored as the bits of a double
+    private final AtomicLong ewmaLatencyBits = new AtomicLong(Double.doubleToLongBits(0.0));
+    // when the satellite registered or sent a heartbeat last
+    private volatile long lastHeartbeatNanos = System.nanoTime();
+    // the resources the satellite advertised last, null if it did not
+    private volatile SatelliteCapacity capacity = null;
+
+    public SatelliteLoad(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of jobs that were dispatched to the satellite, but did not complete yet.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Returns the number of jobs the satellite completed.
+     */
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * Returns the number of jobs that failed on the satellite.
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Returns the moving average of the completion latency in nanoseconds, 0 if no job completed yet.
+     */
+    public double getEwmaLatency() {
+        return Double.longBitsToDouble(ewmaLatencyBits.get());
+    }
+
+    /**
+     * Returns the number of jobs the satellite takes at a time, i.e. the worker slots it advertised,
+     * or the given number if it advertised none.
+     *
+     * @param defaultMaxJobs the number of jobs of a satellite that advertised no worker slots,
+     *        0 for no limit, which then holds for all satellites
+     */
+    public int getMaxJobs(int defaultMaxJobs) {
+        SatelliteCapacity advertised = capacity;
+        if (defaultMaxJobs <= 0 || advertised == null || advertised.getWorkerSlots() <= 0) {
+            return defaultMaxJobs;
+        }
+        return advertised.getWorkerSlots();
+    }
+
+    /**
+     * Is to be called when a job is dispatched to the satellite.
+     */
+    public void jobStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Is to be called when a job is to be dispatched to the satellite, unless the satellite is at the limit.
+     *
+     * @param maxJobs the number of jobs the satellite takes at a time, 0 for no limit
+     * @return false if the satellite is at the limit, the job is not counted then
+     */
+    public boolean tryJobStarted(int maxJobs) {
+        if (maxJobs <= 0) {
+            inFlight.incrementAndGet();
+            return true;
+        }
+        int count;
+        do {
+            count = inFlight.get();
+            if (count >= maxJobs) {
+                return false;
+            }
+        } while (!inFlight.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    /**
+     * Is to be called when a job counted as started was not sent to the satellite after all.
+     */
+    public void jobCancelled() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Is to be called when a job dispatched to the satellite completed.
+     *
+     * @param latencyNanos the time between dispatch and completion of the job
+     */
+    public void jobCompleted(long latencyNanos) {
+        inFlight.decrementAndGet();
+        long count = completed.incrementAndGet();
+        updateLatency(latencyNanos, count == 1, false);
+    }
+
+    /**
+     * Is to be called when a job dispatched to the satellite failed. Until a job completed,
+     * failures leave the average alone, as there is nothing to penalize.
+     *
+     * @param latencyNanos the time between dispatch and failure of the job
+     */
+    public void jobFailed(long latencyNanos) {
+        inFlight.decrementAndGet();
+        failed.incrementAndGet();
+        if (completed.get() > 0) {
+            updateLatency(latencyNanos, false, true);
+        }
+    }
+
+    // adds a latency to the moving average, a failure counts as at least FAILURE_PENALTY times the average
+    private void updateLatency(long latencyNanos, boolean first, boolean failure) {
+        long oldBits;
+        double newLatency;
+        do {
+            oldBits = ewmaLatencyBits.get();
+            double oldLatency = Double.longBitsToDouble(oldBits);
+            double latency = failure ? Math.max(latencyNanos, FAILURE_PENALTY * oldLatency) : latencyNanos;
+            newLatency = first ? latency : EWMA_ALPHA * latency + (1 - EWMA_ALPHA) * oldLatency;
+        } while (!ewmaLatencyBits.compareAndSet(oldBits, Double.doubleToLongBits(newLatency)));
+    }
+
+    /**
+     * Is to be called when the satellite sends a sign of life.
+     */
+    public void heartbeat() {
+        lastHeartbeatNanos = System.nanoTime();
+    }
+
+    /**
+     * Returns when the satellite was last heard of, as System.nanoTime().
+     */
+    public long getLastHeartbeatNanos() {
+        return lastHeartbeatNanos;
+    }
+
+    /**
+     * Returns the capacity the satellite advertised last, null if it did not.
+     */
+    public SatelliteCapacity getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(SatelliteCapacity capacity) {
+        this.capacity = capacity;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (in flight: %d, avg latency: %.2f ms)", name, getInFlight(), getEwmaLatency() / 1e6);
+    }
+}
@@ -1,35 +1,65 @@
 package appserver.server;
 
 import appserver.comm.ConnectivityInfo;
-import java.util.Hashtable;
 
 /**
  * The class [SatelliteManager] manages the connectivity information of all satellite servers. 
  * 
- * It provides methods to register a new satellite and to get the connectivity info for a given satellite name.
+ * It provides methods to register and unregister a satellite, to record its heartbeats
+ * and to get the connectivity info for a given satellite name.
  * 
  * @author Srinivasa 
  */
 public class SatelliteManager {
 
-    // (the one) hash table that contains the connectivity information of all satellite servers
-    static private Hashtable<String, ConnectivityInfo> satellites = null;
+    // (the one) registry that contains the connectivity information of all satellite servers
+    private final SatelliteRegistry satellites;
 
     /**
-     * Constructor that initializes the hash table for the connectivity info of the satellites.
+     * Constructor
+     *
+     * @param satellites The registry shared with the LoadManager.
      */
-    public SatelliteManager() {
-        satellites = new Hashtable();
+    public SatelliteManager(SatelliteRegistry satellites) {
+        this.satellites = satellites;
     }
     
     /**
-     * Registers a new satellite by adding its connectivity info to the hash table.
+     * Registers a new satellite by adding its connectivity info to the registry.
+     * This makes the satellite available to the LoadManager as well.
      *
      * @param satelliteInfo The connectivity info of the satellite to be registered.
      */
     public void registerSatellite(ConnectivityInfo satelliteInfo) {
         System.out.println("[SatelliteManager.registerSatellite] " + satelliteInfo.getName() + " is added to the registry");
-        satellites.put(satelliteInfo.getName(), satelliteInfo);
+        satellites.register(satelliteInfo);
+    }
+    
+    /**
+     * Removes a satellite from the registry, it does not get any more jobs.
+     *
+     * @param satelliteName The name of the satellite to be removed.
+     */
+    public void unregisterSatellite(String satelliteName) {
+        if (satellites.unregister(satelliteName)) {
+            System.out.println("[SatelliteManager.unregisterSatellite] " + satelliteName + " is removed from the registry");
+        }
+    }
+
+    /**
+     * Records a heartbeat of a satellite and the capacity it advertises. A satellite that
+     * is not in the registry, e.g. since it was taken for dead, is registered again.
+     *
+     * @param satelliteInfo The connectivity info of the satellite.
+     */
+    public void heartbeat(ConnectivityInfo satelliteInfo) {
+        SatelliteLoad load = satellites.getLoad(satelliteInfo.getName());
+        if (load == null || !satelliteInfo.equals(satellites.getInfo(satelliteInfo.getName()))) {
+            registerSatellite(satelliteInfo);
+        } else {
+            load.setCapacity(satelliteInfo.getCapacity());
+            load.heartbeat();
+        }
     }
     
     /**
@@ -39,6 +69,6 @@ public class SatelliteManager {
      * @return The connectivity info of the specified satellite.
      */
     public ConnectivityInfo getSatelliteForName(String satelliteName) {
-        return satellites.get(satelliteName);
+        return satellites.getInfo(satelliteName);
     }
 }
@@ -0,0 +1,77 @@
+package appserver.server;
+
+import appserver.comm.ConnectivityInfo;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The class [SatelliteMonitor] ejects satellites that went silent, i.e. that did not send
+ * a heartbeat for longer than the heartbeat timeout. Their pooled connections are closed,
+ * as are their connections to pull jobs, so jobs waiting on them fail over to other satellites.
+ *
+ * @author Srinivasa
+ */
+public class SatelliteMonitor extends Thread {
+
+    private final SatelliteRegistry satellites;
+    private final SatelliteManager satelliteManager;
+    private final SatelliteConnectionPool connectionPool;
+    private final long heartbeatTimeoutNanos;
+    // the connections of satellites that pull jobs, null if jobs are pushed
+    private volatile PullDispatcher pullDispatcher;
+
+    /**
+     * Constructor
+     *
+     * @param heartbeatTimeoutMillis the time after which a silent satellite is taken for dead
+     */
+    public SatelliteMonitor(SatelliteRegistry satellites, SatelliteManager satelliteManager,
+            SatelliteConnectionPool connectionPool, long heartbeatTimeoutMillis) {
+        super("SatelliteMonitor");
+        setDaemon(true);
+        this.satellites = satellites;
+        this.satelliteManager = satelliteManager;
+        this.connectionPool = connectionPool;
+        this.heartbeatTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatTimeoutMillis);
+    }
+
+    /**
+     * Sets the dispatcher whose connections of ejected satellites are closed as well.
+     */
+    public void setPullDispatcher(PullDispatcher pullDispatcher) {
+        this.pullDispatcher = pullDispatcher;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                Thread.sleep(Math.max(1, TimeUnit.NANOSECONDS.toMillis(heartbeatTimeoutNanos) / 4));
+            } catch (InterruptedException ex) {
+                return;
+            }
+
+            long now = System.nanoTime();
+            for (SatelliteLoad load : satellites.getLoads()) {
+                if (now - load.getLastHeartbeatNanos() > heartbeatTimeoutNanos) {
+                    System.err.println("[SatelliteMonitor.run] Warning: no heartbeat from " + load.getName() + ", ejecting it");
+                    eject(load.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a satellite from the registry and closes the connections to it.
+     */
+    void eject(String satelliteName) {
+        ConnectivityInfo satelliteInfo = satellites.getInfo(satelliteName);
+        satelliteManager.unregisterSatellite(satelliteName);
+        if (satelliteInfo != null) {
+            connectionPool.close(satelliteInfo);
+        }
+        PullDispatcher pullDispatcher = this.pullDispatcher;
+        if (pullDispatcher != null) {
+            pullDispatcher.close(satelliteName);
+        }
+    }
+}
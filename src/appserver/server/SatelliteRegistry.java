@@ -0,0 +1,134 @@
+package appserver.server;
+
+import appserver.comm.ConnectivityInfo;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The class [SatelliteRegistry] is the one place where the server keeps its satellites,
+ * shared by the SatelliteManager and the LoadManager.
+ *
+ * Readers never take a lock: they work on an immutable snapshot of the registry.
+ * Changes copy the current snapshot and publish the copy atomically (copy-on-write),
+ * which is cheap since satellites come and go rarely compared to job requests.
+ *
+ * @author Srinivasa
+ */
+public class SatelliteRegistry {
+
+    /**
+     * An immutable view of all registered satellites.
+     */
+    static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(Collections.emptyList(), Collections.emptyMap(), Collections.emptyMap());
+
+        // the load of the satellites, in order of registration
+        final List<SatelliteLoad> loads;
+        final Map<String, SatelliteLoad> loadsByName;
+        final Map<String, ConnectivityInfo> infosByName;
+
+        private Snapshot(List<SatelliteLoad> loads, Map<String, SatelliteLoad> loadsByName, Map<String, ConnectivityInfo> infosByName) {
+            this.loads = loads;
+            this.loadsByName = loadsByName;
+            this.infosByName = infosByName;
+        }
+    }
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(Snapshot.EMPTY);
+
+    /**
+     * Returns the current snapshot of the registry.
+     */
+    Snapshot snapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * Adds a satellite to the registry. A satellite that registers again under the same name
+     * keeps its load, only its connectivity info and capacity are replaced and it counts as alive.
+     *
+     * @param satelliteInfo the connectivity info of the satellite
+     */
+    public void register(ConnectivityInfo satelliteInfo) {
+        String name = satelliteInfo.getName();
+        Snapshot current;
+        Snapshot updated;
+        do {
+            current = snapshot.get();
+
+            Map<String, ConnectivityInfo> infosByName = new HashMap<>(current.infosByName);
+            infosByName.put(name, satelliteInfo);
+
+            List<SatelliteLoad> loads = current.loads;
+            Map<String, SatelliteLoad> loadsByName = current.loadsByName;
+            if (!loadsByName.containsKey(name)) {
+                SatelliteLoad load = new SatelliteLoad(name);
+                loads = new ArrayList<>(loads);
+                loads.add(load);
+                loadsByName = new HashMap<>(loadsByName);
+                loadsByName.put(name, load);
+                loads = Collections.unmodifiableList(loads);
+                loadsByName = Collections.unmodifiableMap(loadsByName);
+            }
+
+            updated = new Snapshot(loads, loadsByName, Collections.unmodifiableMap(infosByName));
+        } while (!snapshot.compareAndSet(current, updated));
+        SatelliteLoad load = updated.loadsByName.get(name);
+        load.setCapacity(satelliteInfo.getCapacity());
+        load.heartbeat();
+    }
+
+    /**
+     * Removes a satellite from the registry.
+     *
+     * @param satelliteName the name of the satellite
+     * @return false if there was no such satellite
+     */
+    public boolean unregister(String satelliteName) {
+        Snapshot current;
+        Snapshot updated;
+        do {
+            current = snapshot.get();
+            if (!current.infosByName.containsKey(satelliteName)) {
+                return false;
+            }
+
+            Map<String, ConnectivityInfo> infosByName = new HashMap<>(current.infosByName);
+            infosByName.remove(satelliteName);
+            Map<String, SatelliteLoad> loadsByName = new HashMap<>(current.loadsByName);
+            SatelliteLoad load = loadsByName.remove(satelliteName);
+            List<SatelliteLoad> loads = new ArrayList<>(current.loads);
+            loads.remove(load);
+
+            updated = new Snapshot(Collections.unmodifiableList(loads), Collections.unmodifiableMap(loadsByName),
+                    Collections.unmodifiableMap(infosByName));
+        } while (!snapshot.compareAndSet(current, updated));
+        return true;
+    }
+
+    /**
+     * Returns the connectivity info of the satellite with the given name, null if there is no such satellite.
+     */
+    public ConnectivityInfo getInfo(String satelliteName) {
+        return satelliteName == null ? null : snapshot.get().infosByName.get(satelliteName);
+    }
+
+    /**
+     * Returns the load of the satellite with the given name, null if there is no such satellite.
+     */
+    public SatelliteLoad getLoad(String satelliteName) {
+        return satelliteName == null ? null : snapshot.get().loadsByName.get(satelliteName);
+    }
+
+    /**
+     * Returns the load of all satellites, in order of registration.
+     */
+    public List<SatelliteLoad> getLoads() {
+        return snapshot.get().loads;
+    }
+}
@@ -0,0 +1,123 @@
+package appserver.server;
+
+import appserver.comm.TimingTrace;
+import appserver.job.Job;
+import appserver.job.SplittableTool;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * The class [ScatterGather] spreads the jobs of splittable tools over the satellites: a job
+ * is split into parts, a few per registered satellite, the parts are dispatched all at once
+ * like jobs of their own, and their results are merged when the last one is in.
+ *
+ * No thread waits for the parts, the merge runs on the thread that delivers the last result.
+ * A job fails if one of its parts fails, i.e. its dispatch failed or its result is null.
+ * The DispatchQueue counts a split job as many jobs as it has parts, so the parts are
+ * admitted with the job and charged to its tenant.
+ *
+ * @author sampath
+ */
+public class ScatterGather {
+
+    private final SatelliteRegistry satellites;
+    private final int partsPerSatellite;
+    // the instances of the tools that split their jobs, by class
+    private final ConcurrentHashMap<Class<?>, SplittableTool> tools = new ConcurrentHashMap<>();
+
+    private final AtomicLong splitJobs = new AtomicLong();
+    private final AtomicLong parts = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param satellites the registry of available satellites, their number gives the number of parts
+     * @param partsPerSatellite the number of parts per satellite a job is split into
+     */
+    public ScatterGather(SatelliteRegistry satellites, int partsPerSatellite) {
+        this.satellites = satellites;
+        this.partsPerSatellite = Math.max(1, partsPerSatellite);
+    }
+
+    /**
+     * Tells whether the tool of a job splits its jobs.
+     */
+    public boolean isSplittable(Job job) {
+        return tool(job) != null;
+    }
+
+    /**
+     * Returns the number of parts a job is split into now, from the number of registered satellites.
+     */
+    public int getPartCount() {
+        return partsPerSatellite * Math.max(1, satellites.getLoads().size());
+    }
+
+    // an instance of the tool of a job, null if the tool does not split its jobs
+    private SplittableTool tool(Job job) {
+        Class<?> toolClass = ToolClasses.forName(job.getToolName());
+        if (toolClass == null || !SplittableTool.class.isAssignableFrom(toolClass)) {
+            return null;
+        }
+        // only a tool that splits its jobs is initialized on the server
+        return tools.computeIfAbsent(toolClass, splittableClass -> {
+            try {
+                return (SplittableTool) splittableClass.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError ex) {
+                System.err.println("[ScatterGather.tool] Warning: cannot create " + splittableClass.getName() + ": " + ex);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Splits a job, dispatches its parts and merges their results.
+     *
+     * @param job the job of a splittable tool
+     * @param dispatchPart dispatches a part to a satellite
+     * @return the future merged result, it fails if a part fails
+     */
+    public CompletableFuture<Object> dispatch(Job job, Function<Job, CompletableFuture<Object>> dispatchPart) {
+        SplittableTool tool = tool(job);
+        int partCount = getPartCount();
+        List<?> partParameters;
+        try {
+            partParameters = tool.split(job.getParameters(), partCount);
+        } catch (RuntimeException ex) {
+            return CompletableFuture.failedFuture(new Exception("Cannot split job of " + job.getToolName() + ": " + ex));
+        }
+        splitJobs.incrementAndGet();
+        parts.addAndGet(partParameters.size());
+        System.out.println("\n [ScatterGather.dispatch] job split into " + partParameters.size() + " parts");
+
+        long dispatched = System.nanoTime();
+        List<CompletableFuture<Object>> results = new ArrayList<>(partParameters.size());
+        for (Object parameters : partParameters) {
+            Job part = new Job(job.getToolName(), parameters, job.getTenant(), job.getPriority());
+            results.add(dispatchPart.apply(part).thenApply(result -> {
+                if (result == null) {
+                    throw new IllegalStateException("A part of the job of " + job.getToolName() + " could not be done");
+                }
+                return result;
+            }));
+        }
+
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            job.recordTiming(TimingTrace.SATELLITE, System.nanoTime() - dispatched);
+            List<Object> partResults = new ArrayList<>(results.size());
+            for (CompletableFuture<Object> result : results) {
+                partResults.add(result.join());
+            }
+            return tool.merge(partResults);
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "split jobs: " + splitJobs.get() + ", parts: " + parts.get();
+    }
+}
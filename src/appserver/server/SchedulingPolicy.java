@@ -0,0 +1,64 @@
+package appserver.server;
+
+import appserver.job.Job;
+import java.util.List;
+
+/**
+ * Interface [SchedulingPolicy] Decides which satellite a job is dispatched to.
+ * The LoadManager delegates the choice to one implementation of this interface,
+ * which is chosen with SCHEDULING_POLICY in the server properties.
+ *
+ * @author sampath
+ */
+public interface SchedulingPolicy {
+
+    /**
+     * Picks the satellite the next job is dispatched to.
+     *
+     * @param satellites the satellites that are available, never empty
+     * @param job the job to be dispatched, may be null if it is not known
+     * @return the chosen satellite
+     */
+    public SatelliteLoad select(List<SatelliteLoad> satellites, Job job);
+
+    /**
+     * Picks the satellite the next job is dispatched to, among some of the registered satellites,
+     * e.g. the ones below their job limit. Policies that place the jobs by all registered
+     * satellites, like a hash ring, override this; the others pick among the candidates.
+     *
+     * @param registered all registered satellites
+     * @param candidates the satellites the job may go to, never empty
+     * @param job the job to be dispatched, may be null if it is not known
+     * @return the chosen satellite, one of the candidates
+     */
+    public default SatelliteLoad select(List<SatelliteLoad> registered, List<SatelliteLoad> candidates, Job job) {
+        return select(candidates, job);
+    }
+
+    /**
+     * Creates the policy with the given name.
+     *
+     * @param name one of "round-robin", "least-outstanding", "power-of-two", "ewma-latency", "consistent-hash"
+     *             or "capacity-weighted"
+     * @return the policy
+     * @throws IllegalArgumentException if there is no policy with this name
+     */
+    public static SchedulingPolicy forName(String name) {
+        switch (name.trim().toLowerCase()) {
+            case "round-robin":
+                return new RoundRobinPolicy();
+            case "least-outstanding":
+                return new LeastOutstandingPolicy();
+            case "power-of-two":
+                return new PowerOfTwoChoicesPolicy();
+            case "ewma-latency":
+                return new EwmaLatencyPolicy();
+            case "consistent-hash":
+                return new ConsistentHashPolicy();
+            case "capacity-weighted":
+                return new CapacityWeightedPolicy();
+            default:
+                throw new IllegalArgumentException("Unknown scheduling policy: " + name);
+        }
+    }
+}
@@ -1,31 +1,60 @@
 package appserver.server;
 
+import appserver.comm.FramedProtocol;
 import appserver.comm.Message;
-import static appserver.comm.MessageTypes.JOB_REQUEST;
-import static appserver.comm.MessageTypes.REGISTER_SATELLITE;
-import appserver.comm.ConnectivityInfo;
+import static appserver.comm.MessageTypes.PULL_JOBS;
+import appserver.comm.PullRequest;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import utils.ConnectionExecutor;
 import utils.PropertyHandler;
+import web.MetricsWebServer;
 
 /**
  * The class [Server] represents the Application Server
  * 
  * It listens for incoming client connections and spawns ServerThread objects
- * to handle each incoming request.
+ * to handle each incoming request, or leaves them to the non-blocking NioServer,
+ * depending on TRANSPORT in the server properties.
  * 
  * @author manoj
  */
 public class Server {
 
     // Singleton objects - there is only one of them. For simplicity, this is not enforced though ...
+    static SatelliteRegistry satelliteRegistry = null;
     static SatelliteManager satelliteManager = null;
     static LoadManager loadManager = null;
+    static ServerMetrics metrics = null;
+    static SatelliteConnectionPool connectionPool = null;
+    static ResultCache resultCache = null;
+    static RequestHedger requestHedger = null;
+    static DispatchQueue dispatchQueue = null;
+    static PullDispatcher pullDispatcher = null;
+    static JobDispatcher jobDispatcher = null;
+    static JobTable jobTable = null;
+    static RequestProcessor requestProcessor = null;
+    static ConnectionExecutor connectionExecutor = null;
     static ServerSocket serverSocket = null;
+    static NioServer nioServer = null;
+    static MetricsWebServer metricsWebServer = null;
+    // the bytes of streamed results buffered for a client at most
+    static long clientBufferBytes = 0;
 
     /**
      * Constructor for the Server class.
@@ -37,9 +66,10 @@ public class Server {
 
         Properties properties;
 
-        // create satellite manager and load manager
-        satelliteManager = new SatelliteManager();
-        loadManager = new LoadManager();
+        // create satellite manager and load manager, both share the registry of satellites
+        satelliteRegistry = new SatelliteRegistry();
+        satelliteManager = new SatelliteManager(satelliteRegistry);
+        loadManager = new LoadManager(satelliteRegistry);
         
         // read properties and create server socket
         try {
@@ -50,35 +80,221 @@ public class Server {
             System.out.println("[Server.Server] NAME: " + name);
             int port = Integer.parseInt(properties.getProperty("PORT"));
             System.out.println("[Server.Server] Port: " + port);
+
+            // the quantiles of the metrics cover the last METRICS_WINDOW seconds, the tools
+            // in METRICS_TOOLS have a label of their own, the other ones count as "other"
+            long metricsWindow = Long.parseLong(properties.getProperty("METRICS_WINDOW", "60").trim());
+            System.out.println("[Server.Server] METRICS_WINDOW: " + metricsWindow);
+            Set<String> metricsTools = new TreeSet<>();
+            for (String toolName : properties.getProperty("METRICS_TOOLS", "").split(",")) {
+                if (!toolName.trim().isEmpty()) {
+                    metricsTools.add(toolName.trim());
+                }
+            }
+            System.out.println("[Server.Server] METRICS_TOOLS: " + metricsTools);
+            metrics = new ServerMetrics(satelliteRegistry, metricsWindow * 1000, metricsTools);
+
+            // create the pool of connections to the satellites
+            int satelliteConnections = Integer.parseInt(properties.getProperty("SATELLITE_CONNECTIONS", "2"));
+            System.out.println("[Server.Server] SATELLITE_CONNECTIONS: " + satelliteConnections);
+            // frames of the binary codec on the connections to the satellites, or object streams
+            FramedProtocol.Codec codec = FramedProtocol.Codec.forName(properties.getProperty("CODEC", "java"));
+            System.out.println("[Server.Server] CODEC: " + codec);
+            // give up on a satellite that cannot be connected to within SATELLITE_CONNECT_TIMEOUT milliseconds
+            int satelliteConnectTimeout = Integer.parseInt(properties.getProperty("SATELLITE_CONNECT_TIMEOUT", "2000").trim());
+            System.out.println("[Server.Server] SATELLITE_CONNECT_TIMEOUT: " + satelliteConnectTimeout);
+            // fail jobs whose result does not come back within SATELLITE_REPLY_TIMEOUT milliseconds
+            long satelliteReplyTimeout = Long.parseLong(properties.getProperty("SATELLITE_REPLY_TIMEOUT", "0").trim());
+            System.out.println("[Server.Server] SATELLITE_REPLY_TIMEOUT: " + satelliteReplyTimeout);
+            connectionPool = new SatelliteConnectionPool(satelliteConnections, metrics, codec == FramedProtocol.Codec.BINARY ? codec : null,
+                    satelliteConnectTimeout, satelliteReplyTimeout);
+
+            // set the policy that picks a satellite for a job
+            String schedulingPolicy = properties.getProperty("SCHEDULING_POLICY", "round-robin");
+            System.out.println("[Server.Server] SCHEDULING_POLICY: " + schedulingPolicy);
+            try {
+                loadManager.setSchedulingPolicy(SchedulingPolicy.forName(schedulingPolicy));
+            } catch (IllegalArgumentException ex) {
+                System.err.println("[Server.Server] Warning: " + ex.getMessage() + ", using round-robin");
+            }
             
-            // create a server socket
-            serverSocket = new ServerSocket(port);
+            // create the dispatcher of jobs and the processor of incoming messages
+            int resultCacheSize = Integer.parseInt(properties.getProperty("RESULT_CACHE_SIZE", "0").trim());
+            long resultCacheTtl = Long.parseLong(properties.getProperty("RESULT_CACHE_TTL", "0").trim());
+            System.out.println("[Server.Server] RESULT_CACHE_SIZE: " + resultCacheSize + ", RESULT_CACHE_TTL: " + resultCacheTtl);
+            resultCache = resultCacheSize > 0 ? new ResultCache(resultCacheSize, resultCacheTtl) : null;
+            int dispatchRetries = Integer.parseInt(properties.getProperty("DISPATCH_RETRIES", "2").trim());
+            System.out.println("[Server.Server] DISPATCH_RETRIES: " + dispatchRetries);
+
+            // hedge jobs that take longer than the given percentile of the recent jobs of their tool
+            double hedgePercentile = Double.parseDouble(properties.getProperty("HEDGE_PERCENTILE", "0").trim());
+            long hedgeMinDelay = Long.parseLong(properties.getProperty("HEDGE_MIN_DELAY", "10").trim());
+            double hedgeMaxRate = Double.parseDouble(properties.getProperty("HEDGE_MAX_RATE", "5").trim());
+            System.out.println("[Server.Server] HEDGE_PERCENTILE: " + hedgePercentile + ", HEDGE_MIN_DELAY: " + hedgeMinDelay
+                    + ", HEDGE_MAX_RATE: " + hedgeMaxRate);
+            requestHedger = hedgePercentile > 0 ? new RequestHedger(hedgePercentile, hedgeMinDelay, hedgeMaxRate) : null;
+
+            jobDispatcher = new JobDispatcher(satelliteManager, loadManager, connectionPool, resultCache, dispatchRetries, requestHedger, metrics);
+
+            // split the jobs of splittable tools into SPLIT_PARTS_PER_SATELLITE parts per satellite
+            int splitPartsPerSatellite = Integer.parseInt(properties.getProperty("SPLIT_PARTS_PER_SATELLITE", "0").trim());
+            System.out.println("[Server.Server] SPLIT_PARTS_PER_SATELLITE: " + splitPartsPerSatellite);
+            if (splitPartsPerSatellite > 0) {
+                jobDispatcher.setScatterGather(new ScatterGather(satelliteRegistry, splitPartsPerSatellite));
+            }
+
+            // eject satellites that stop sending heartbeats
+            long heartbeatTimeout = Long.parseLong(properties.getProperty("HEARTBEAT_TIMEOUT", "0").trim());
+            System.out.println("[Server.Server] HEARTBEAT_TIMEOUT: " + heartbeatTimeout);
+            SatelliteMonitor satelliteMonitor = null;
+            if (heartbeatTimeout > 0) {
+                satelliteMonitor = new SatelliteMonitor(satelliteRegistry, satelliteManager, connectionPool, heartbeatTimeout);
+                satelliteMonitor.start();
+            }
+            int jobTableSize = Integer.parseInt(properties.getProperty("JOB_TABLE_SIZE", "10000").trim());
+            long jobResultTtl = Long.parseLong(properties.getProperty("JOB_RESULT_TTL", "60000").trim());
+            System.out.println("[Server.Server] JOB_TABLE_SIZE: " + jobTableSize + ", JOB_RESULT_TTL: " + jobResultTtl);
+            jobTable = new JobTable(jobTableSize, jobResultTtl);
+
+            // admit at most MAX_JOBS_PER_SATELLITE jobs per satellite at a time, queue the rest up to DISPATCH_QUEUE_SIZE
+            int maxJobsPerSatellite = Integer.parseInt(properties.getProperty("MAX_JOBS_PER_SATELLITE", "0").trim());
+            int dispatchQueueSize = Integer.parseInt(properties.getProperty("DISPATCH_QUEUE_SIZE", "1000").trim());
+            System.out.println("[Server.Server] MAX_JOBS_PER_SATELLITE: " + maxJobsPerSatellite + ", DISPATCH_QUEUE_SIZE: " + dispatchQueueSize);
+            loadManager.setMaxJobsPerSatellite(maxJobsPerSatellite);
+            dispatchQueue = new DispatchQueue(jobDispatcher, satelliteRegistry, maxJobsPerSatellite, dispatchQueueSize, metrics);
+
+            // share the satellites among the tenants by the weights and limits of TENANT_WEIGHT.<tenant> and TENANT_MAX_JOBS.<tenant>
+            Set<String> tenants = new TreeSet<>();
+            for (String key : properties.stringPropertyNames()) {
+                if (key.startsWith("TENANT_WEIGHT.") || key.startsWith("TENANT_MAX_JOBS.")) {
+                    tenants.add(key.substring(key.indexOf('.') + 1));
+                }
+            }
+            for (String tenant : tenants) {
+                int weight = Integer.parseInt(properties.getProperty("TENANT_WEIGHT." + tenant, "1").trim());
+                int maxJobs = Integer.parseInt(properties.getProperty("TENANT_MAX_JOBS." + tenant, "0").trim());
+                System.out.println("[Server.Server] tenant " + tenant + ", weight: " + weight + ", max jobs: " + maxJobs);
+                dispatchQueue.setTenantLimits(tenant, weight, maxJobs);
+            }
+
+            // either push jobs to the satellites, or let the satellites pull them
+            String dispatchMode = properties.getProperty("DISPATCH_MODE", "push").trim();
+            System.out.println("[Server.Server] DISPATCH_MODE: " + dispatchMode);
+            if (dispatchMode.equalsIgnoreCase("pull")) {
+                // a job that finds no free slot waits up to PULL_SLOT_WAIT milliseconds for one
+                long pullSlotWait = Long.parseLong(properties.getProperty("PULL_SLOT_WAIT", "10000").trim());
+                System.out.println("[Server.Server] PULL_SLOT_WAIT: " + pullSlotWait);
+                // a satellite that does not send back a result within SATELLITE_REPLY_TIMEOUT loses its connection
+                pullDispatcher = new PullDispatcher(loadManager, metrics, pullSlotWait, satelliteReplyTimeout);
+                jobDispatcher.setPullDispatcher(pullDispatcher);
+                dispatchQueue.setPullDispatcher(pullDispatcher);
+                if (satelliteMonitor != null) {
+                    satelliteMonitor.setPullDispatcher(pullDispatcher);
+                }
+            }
+            requestProcessor = new RequestProcessor(satelliteManager, dispatchQueue, jobTable);
+
+            // a client that falls more than CLIENT_BUFFER_BYTES behind a streamed result does not get the rest of it
+            clientBufferBytes = Long.parseLong(properties.getProperty("CLIENT_BUFFER_BYTES", "8388608").trim());
+            System.out.println("[Server.Server] CLIENT_BUFFER_BYTES: " + clientBufferBytes);
+
+            // create the transport, either blocking with a ServerThread per connection or non-blocking
+            String transport = properties.getProperty("TRANSPORT", "blocking").trim();
+            System.out.println("[Server.Server] TRANSPORT: " + transport);
+            if (transport.equalsIgnoreCase("nio")) {
+                int eventLoops = Integer.parseInt(properties.getProperty("NIO_EVENT_LOOPS", "1").trim());
+                System.out.println("[Server.Server] NIO_EVENT_LOOPS: " + eventLoops);
+                // the messages are processed off the event loops, by the executor of EXECUTION_MODE
+                connectionExecutor = new ConnectionExecutor("NioServer-Dispatch", properties);
+                nioServer = new NioServer(port, eventLoops, requestProcessor, pullDispatcher, clientBufferBytes, connectionExecutor);
+            } else {
+                // create the executor that serves the client connections
+                connectionExecutor = new ConnectionExecutor("ServerThread", properties);
+
+                // create a server socket
+                serverSocket = new ServerSocket(port);
+            }
+
+            // serve the metrics to be scraped, in the text format of Prometheus
+            int metricsPort = Integer.parseInt(properties.getProperty("METRICS_PORT", "0").trim());
+            System.out.println("[Server.Server] METRICS_PORT: " + metricsPort);
+            if (metricsPort > 0) {
+                addSampledMetrics();
+                metricsWebServer = new MetricsWebServer(metricsPort, metrics::render);
+                Thread metricsThread = new Thread(metricsWebServer, "MetricsWebServer");
+                metricsThread.setDaemon(true);
+                metricsThread.start();
+            }
             System.out.println("[Server.Server] Waiting for connections on Port #" + port);
         } catch (IOException ex) {
             System.err.println("[Server.Server] Severe: " + ex.getMessage());
         }
     }
     
+    // the metrics that are read from the singletons when they are scraped
+    private static void addSampledMetrics() {
+        metrics.addSampled("appserver_dispatch_queue_depth", "gauge", "Jobs waiting for a satellite", dispatchQueue::getQueueDepth);
+        metrics.addSampled("appserver_dispatch_queue_running", "gauge", "Admitted jobs that did not complete yet", dispatchQueue::getRunning);
+        metrics.addSampled("appserver_dispatch_queue_admitted_total", "counter", "Jobs admitted to the satellites", dispatchQueue::getAdmitted);
+        metrics.addSampled("appserver_dispatch_queue_rejected_total", "counter", "Jobs rejected as the server was busy", dispatchQueue::getRejected);
+        metrics.addSampled("appserver_connection_pool_hits_total", "counter", "Jobs sent over an open channel to a satellite", connectionPool::getHits);
+        metrics.addSampled("appserver_connection_pool_misses_total", "counter", "Channels opened to satellites", connectionPool::getMisses);
+        if (resultCache != null) {
+            metrics.addSampled("appserver_result_cache_hits_total", "counter", "Jobs answered from the result cache", resultCache::getHits);
+            metrics.addSampled("appserver_result_cache_misses_total", "counter", "Cacheable jobs not found in the result cache", resultCache::getMisses);
+            metrics.addSampled("appserver_result_cache_coalesced_total", "counter", "Cacheable jobs that got the result of the same job in flight", resultCache::getCoalesced);
+        }
+        if (requestHedger != null) {
+            metrics.addSampled("appserver_hedges_total", "counter", "Jobs sent to a second satellite", requestHedger::getHedges);
+            metrics.addSampled("appserver_hedge_wins_total", "counter", "Hedged jobs whose second copy completed first", requestHedger::getHedgeWins);
+            metrics.addSampled("appserver_hedges_capped_total", "counter", "Jobs not hedged since the share of hedged jobs was used up", requestHedger::getHedgesCapped);
+        }
+        if (pullDispatcher != null) {
+            metrics.addSampled("appserver_pull_slots", "gauge", "Slots of the satellites that pull jobs", pullDispatcher::getSlots);
+            metrics.addSampled("appserver_pull_slots_free", "gauge", "Slots of the satellites that pull jobs not taken by a job", pullDispatcher::getFreeSlots);
+        }
+        if (connectionExecutor != null) {
+            metrics.addSampled("appserver_client_connections_active", "gauge", "Client connections being served", connectionExecutor::getActiveCount);
+            metrics.addSampled("appserver_client_connections_queued", "gauge", "Client connections waiting for a thread", connectionExecutor::getQueuedCount);
+        }
+    }
+
     /**
      * The run method listens for incoming client connections in a server loop.
      * 
-     * When a request comes in, a ServerThread object is spawned to handle the request.
+     * When a request comes in, a ServerThread object is handed to the connection executor to handle the request.
      */
     public void run() {
+        if (nioServer != null) {
+            nioServer.run();
+            return;
+        }
+
         // serve clients in server loop ...
         // when a request comes in, a ServerThread object is spawned
         while (true) {
+            Socket client;
             try {
-                new ServerThread(serverSocket.accept()).start();
+                client = serverSocket.accept();
             } catch (IOException ex) {
                 System.out.println("[Server.run] Severe: unable to create connection");
+                continue;
+            }
+            if (!connectionExecutor.execute(new ServerThread(client))) {
+                System.err.println("[Server.run] Warning: too many connections, closing connection (" + connectionExecutor + ")");
+                try {
+                    client.close();
+                } catch (IOException ex) {
+                    // nothing left to do
+                }
+                continue;
             }
-            System.out.println("[Server.run] A connection to a client is established!");
+            System.out.println("[Server.run] A connection to a client is established! (" + connectionExecutor + ", dispatch queue " + dispatchQueue + ")");
         }
     }
 
     // objects of this helper class communicate with satellites or clients
-    private class ServerThread extends Thread {
+    private class ServerThread implements Runnable {
 
         Socket client = null;
         ObjectInputStream readFromNet = null;
@@ -88,7 +304,6 @@ public class Server {
         /**
          * Constructor for the ServerThread class.
          * 
-         * Initializes the object streams and reads the incoming message.
          * @param client the client socket
          */
         private ServerThread(Socket client) {
@@ -96,89 +311,121 @@ public class Server {
         }
         
         /**
-         * The run method processes the incoming message and responds appropriately.
+         * The run method reads the incoming message, has it processed and sends back the reply.
          */
         @Override
         public void run() {
             // set up object streams and read message
             try {
-                readFromNet = new ObjectInputStream(client.getInputStream());
+                DataInputStream input = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+
+                // clients of the framed protocol start with the preamble of their codec, plain clients with an object stream
+                input.mark(4);
+                FramedProtocol.Codec codec = FramedProtocol.Codec.forPreamble(input.readInt());
+                if (codec != null) {
+                    serveFramed(input, codec);
+                    return;
+                }
+                input.reset();
+
+                readFromNet = new ObjectInputStream(input);
                 writeToNet = new ObjectOutputStream(client.getOutputStream());
                 message = (Message) readFromNet.readObject();
             } catch (IOException | ClassNotFoundException ex) {
                 System.err.println("[ServerThread.run] Sever: Error in opening object streams");
+                return;
             }
 
-            
-            // process message
-            switch (message.getType()) {
-                
-                // handle register satellite request 
-                case REGISTER_SATELLITE:
-                    // read satellite info
-                    ConnectivityInfo connectivityInfo = (ConnectivityInfo) message.getContent();
-                    
-                    // register satellite
-                    synchronized (Server.satelliteManager) {
-                        Server.satelliteManager.registerSatellite(connectivityInfo);
-                    }
+            // process message and wait for the reply
+            Object reply = null;
+            try {
+                reply = Server.requestProcessor.process(message).get();
+            } catch (ExecutionException ex) {
+                System.err.println("[ServerThread.run] Severe: " + ex.getMessage());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
 
-                    // add satellite to loadManager
-                    synchronized (Server.loadManager) {
-                        Server.loadManager.satelliteAdded(connectivityInfo.getName());
-                    }
+            // send back the reply to client
+            if (reply != RequestProcessor.NO_REPLY) {
+                try {
+                    writeToNet.writeObject(reply);
+                } catch (IOException ex) {
+                    System.err.println("[ServerThread.run] Severe: " + ex.getMessage());
+                }
+            }
+        }
 
-                    break;
-                
-                // handle job request    
-                case JOB_REQUEST:
-                    System.err.println("\n[ServerThread.run] Received job request");
-
-                    String satelliteName = null;
-                    synchronized (Server.loadManager) {
-                        // get next satellite from load manager
-                        try {
-                            satelliteName = Server.loadManager.nextSatellite();
-                            
-                            System.out.println("\n [ServerThread.run] job request handled by " + satelliteName );
-                        } catch(Exception ex) {
-                            System.err.println("[ServerThread.run] " + ex.getMessage());
-                        }
-                        
-                        // get connectivity info for next satellite from satellite manager
-                        connectivityInfo = Server.satelliteManager.getSatelliteForName(satelliteName);
-                    }
+        /**
+         * Serves a client of the framed protocol: reads requests as long as the connection is open
+         * and sends back each reply as soon as it is there, tagged with the correlation id of the request.
+         * A client that closes its side of the connection still gets the replies to the requests it sent,
+         * the connection is closed when they are written, or right away if reading from it failed.
+         */
+        private void serveFramed(DataInputStream input, FramedProtocol.Codec codec) throws IOException {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()));
+            FramedWriter writer = new FramedWriter(output, codec, Server.clientBufferBytes);
+            writer.start();
+            // the replies that are not handed to the writer yet
+            Set<CompletableFuture<Void>> pendingReplies = ConcurrentHashMap.newKeySet();
+            boolean clientDone = false;
+            boolean handedOver = false;
 
-                    Socket satellite = null;
-                    Integer result = null;
-                    
+            try {
+                while (true) {
+                    Message request;
                     try {
-                        // connect to satellite
-                        satellite = new Socket(connectivityInfo.getHost(), connectivityInfo.getPort());
-                        
-                        // open object streams
-                        ObjectOutputStream writeToNet = new ObjectOutputStream(satellite.getOutputStream());
-                        writeToNet.writeObject(message);
-                        
-                        ObjectInputStream readFromNet = new ObjectInputStream(satellite.getInputStream());
-                        // get the result
-                        result = (Integer) readFromNet.readObject();
-                        
-                    } catch (IOException | ClassNotFoundException ex) {
-                        System.err.println("[ServerThread.run] Severe: " + ex.getMessage());
+                        request = FramedProtocol.readFrame(input, codec);
+                    } catch (EOFException ex) {
+                        // client closed the connection, or at least its side of it
+                        clientDone = true;
+                        break;
                     }
-                    
-                    // send back the result to client
-                    try {
-                        writeToNet.writeObject(result);
-                    } catch (IOException ex) {
-                        System.err.println("[ServerThread.run] Severe: " + ex.getMessage());
+
+                    if (request.getType() == PULL_JOBS && Server.pullDispatcher != null) {
+                        // a satellite that pulls jobs, the connection is used for jobs and results from now on,
+                        // the writer must be done before the pull dispatcher writes to it
+                        finish(writer, pendingReplies);
+                        handedOver = true;
+                        Server.pullDispatcher.serve((PullRequest) request.getContent(), input, output, client, codec);
+                        return;
+                    }
+
+                    long correlationId = request.getCorrelationId();
+                    // chunks of a streamed result go out ahead of the reply, as they come in, as long as the client keeps up
+                    ChunkRelay resultChunks = new ChunkRelay(chunk -> writer.offerChunk(chunk, correlationId));
+                    CompletableFuture<Void> reply = Server.requestProcessor.process(request, resultChunks).thenAccept(content -> {
+                        if (content != RequestProcessor.NO_REPLY) {
+                            writer.send(RequestProcessor.replyMessage(resultChunks.reply(content), correlationId));
+                        }
+                    });
+                    pendingReplies.add(reply);
+                    reply.whenComplete((value, failure) -> pendingReplies.remove(reply));
+                }
+            } finally {
+                if (!handedOver) {
+                    // the replies to the requests read so far still go out, unless the connection broke
+                    if (!clientDone) {
+                        pendingReplies.clear();
                     }
-          
-                    break;
+                    finish(writer, pendingReplies);
+                    client.close();
+                }
+            }
+        }
 
-                default:
-                    System.err.println("[ServerThread.run] Warning: Message type not implemented");
+        // waits for the replies that are pending, then until the writer wrote all of them
+        private void finish(FramedWriter writer, Set<CompletableFuture<Void>> pendingReplies) {
+            try {
+                CompletableFuture.allOf(pendingReplies.toArray(new CompletableFuture<?>[0])).join();
+            } catch (CompletionException ex) {
+                System.err.println("[ServerThread.finish] Severe: " + ex.getMessage());
+            }
+            writer.finish();
+            try {
+                writer.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
             }
         }
     }
@@ -0,0 +1,24 @@
+package appserver.server;
+
+/**
+ * Class [ServerBusyException] Exception that is raised when the server does not take a job,
+ * since the dispatch queue is full or the satellite it was sent to has no room for it.
+ * The client may try again after the given time.
+ * 
+ * @author sampath
+ */
+public class ServerBusyException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterMillis;
+
+    public ServerBusyException(long retryAfterMillis) {
+        super("Server busy, retry after " + retryAfterMillis + " ms");
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,278 @@
+package appserver.server;
+
+import appserver.job.Job;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+import utils.LatencyHistogram;
+import utils.WindowedHistogram;
+
+/**
+ * The class [ServerMetrics] keeps the latency histograms and counters of the server, per tool
+ * and per satellite, and renders them in the text format of Prometheus, to be scraped from the
+ * MetricsWebServer.
+ *
+ * For each tool and for each satellite, it records how long jobs waited in the DispatchQueue,
+ * how long it took to connect to the satellite, how long jobs took on the satellite and how
+ * long they took in all, and for each tool it counts the jobs that were done, failed or were
+ * rejected. The quantiles are taken from the jobs of the last window of time, NaN if there
+ * were none, the sums and counts from all jobs. Only a bounded number of tools get a label of their own, the jobs of
+ * the other tools count as tool "other", so clients cannot make up any number of series.
+ * Recording takes no locks, so it is done for every job. Other values, e.g. the depth of the
+ * dispatch queue, are read only when the metrics are rendered.
+ *
+ * @author sampath
+ */
+public class ServerMetrics {
+
+    // the quantiles of the latencies that are rendered
+    static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    // the tools that get a label of their own if there is no list of tools
+    static final int MAX_TOOL_LABELS = 32;
+    // the label of the tools without a label of their own
+    static final String OTHER_TOOLS = "other";
+
+    // the latencies of the stages of jobs, of one tool or of one satellite
+    private static class StageMetrics {
+
+        final WindowedHistogram queueWait;
+        final WindowedHistogram connect;
+        final WindowedHistogram satellite;
+        final WindowedHistogram total;
+
+        StageMetrics(long windowMillis) {
+            queueWait = new WindowedHistogram(windowMillis);
+            connect = new WindowedHistogram(windowMillis);
+            satellite = new WindowedHistogram(windowMillis);
+            total = new WindowedHistogram(windowMillis);
+        }
+    }
+
+    // the metrics of the jobs of one tool
+    private static final class ToolMetrics extends StageMetrics {
+
+        final AtomicLong done = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+
+        ToolMetrics(long windowMillis) {
+            super(windowMillis);
+        }
+    }
+
+    // a value that is read when the metrics are rendered
+    private static final class Sampled {
+
+        final String name;
+        final String type;
+        final String help;
+        final DoubleSupplier value;
+
+        Sampled(String name, String type, String help, DoubleSupplier value) {
+            this.name = name;
+            this.type = type;
+            this.help = help;
+            this.value = value;
+        }
+    }
+
+    private final SatelliteRegistry satellites;
+    private final long windowMillis;
+    private final Set<String> toolLabels;
+    private final ConcurrentHashMap<String, ToolMetrics> tools = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, StageMetrics> satelliteMetrics = new ConcurrentHashMap<>();
+    private final List<Sampled> sampled = new CopyOnWriteArrayList<>();
+
+    /**
+     * Constructor
+     *
+     * @param satellites the registry of available satellites, whose jobs in flight are rendered
+     * @param windowMillis the time the quantiles cover, in milliseconds
+     * @param toolLabels the tools with a label of their own, empty for the first MAX_TOOL_LABELS tools
+     */
+    public ServerMetrics(SatelliteRegistry satellites, long windowMillis, Set<String> toolLabels) {
+        this.satellites = satellites;
+        this.windowMillis = windowMillis;
+        this.toolLabels = toolLabels;
+    }
+
+    /**
+     * Adds a value that is read each time the metrics are rendered.
+     *
+     * @param name the name of the metric, e.g. appserver_dispatch_queue_depth
+     * @param type gauge or counter
+     * @param help what the value is
+     * @param value reads the value
+     */
+    public void addSampled(String name, String type, String help, DoubleSupplier value) {
+        sampled.add(new Sampled(name, type, help, value));
+    }
+
+    /**
+     * Records how long it took to open a channel to a satellite, for the job it was opened for.
+     *
+     * @param job the job the channel was opened for, null if it was not opened for a job
+     * @param satelliteName the name of the satellite
+     * @param nanos the nanoseconds it took
+     */
+    public void recordConnect(Job job, String satelliteName, long nanos) {
+        if (job != null) {
+            tool(job).connect.record(nanos);
+        }
+        satellite(satelliteName).connect.record(nanos);
+    }
+
+    /**
+     * Records how long a job took on a satellite, from sending the job to receiving its result.
+     */
+    public void recordSatellite(Job job, String satelliteName, long nanos) {
+        tool(job).satellite.record(nanos);
+        satellite(satelliteName).satellite.record(nanos);
+    }
+
+    /**
+     * Records how long a job waited in the dispatch queue and how long it took in all, from
+     * admitting it to its result, and whether it failed. The latencies count for the satellite
+     * the job was sent to last as well, if it was sent to one.
+     *
+     * @param job the job
+     * @param queueWaitNanos the nanoseconds the job waited for a satellite
+     * @param totalNanos the nanoseconds the job took in all
+     * @param failed true if the job failed
+     */
+    public void recordCompleted(Job job, long queueWaitNanos, long totalNanos, boolean failed) {
+        ToolMetrics metrics = tool(job);
+        metrics.queueWait.record(queueWaitNanos);
+        metrics.total.record(totalNanos);
+        (failed ? metrics.failed : metrics.done).incrementAndGet();
+
+        String satelliteName = job.getSatelliteName();
+        if (satelliteName != null) {
+            StageMetrics satellite = satellite(satelliteName);
+            satellite.queueWait.record(queueWaitNanos);
+            satellite.total.record(totalNanos);
+        }
+    }
+
+    /**
+     * Counts a job that was rejected because the server was busy.
+     */
+    public void recordRejected(Job job) {
+        tool(job).rejected.incrementAndGet();
+    }
+
+    // the metrics of the tool of a job, or of the other tools if the tool has no label of its own
+    private ToolMetrics tool(Job job) {
+        String toolName = job.getToolName();
+        ToolMetrics metrics = tools.get(toolName);
+        if (metrics != null) {
+            return metrics;
+        }
+        if (!toolLabels.isEmpty()) {
+            return tools.computeIfAbsent(toolLabels.contains(toolName) ? toolName : OTHER_TOOLS, name -> new ToolMetrics(windowMillis));
+        }
+        synchronized (tools) {
+            String label = tools.size() < MAX_TOOL_LABELS ? toolName : OTHER_TOOLS;
+            return tools.computeIfAbsent(label, name -> new ToolMetrics(windowMillis));
+        }
+    }
+
+    private StageMetrics satellite(String satelliteName) {
+        return satelliteMetrics.computeIfAbsent(satelliteName, name -> new StageMetrics(windowMillis));
+    }
+
+    /**
+     * Renders all metrics in the text format of Prometheus, version 0.0.4.
+     * Latencies are in seconds, as summaries with their quantiles, sum and count.
+     */
+    public String render() {
+        StringBuilder text = new StringBuilder();
+        Map<String, ToolMetrics> sortedTools = new TreeMap<>(tools);
+        Map<String, StageMetrics> sortedSatellites = new TreeMap<>(satelliteMetrics);
+
+        header(text, "appserver_job_seconds", "summary", "Latency of jobs by tool and stage: queue_wait, connect, satellite or total");
+        for (Map.Entry<String, ToolMetrics> tool : sortedTools.entrySet()) {
+            stages(text, "appserver_job_seconds", "tool=\"" + escape(tool.getKey()) + "\"", tool.getValue());
+        }
+
+        header(text, "appserver_jobs_total", "counter", "Jobs by tool and outcome: done, failed or rejected");
+        for (Map.Entry<String, ToolMetrics> tool : sortedTools.entrySet()) {
+            String labels = "tool=\"" + escape(tool.getKey()) + "\",outcome=";
+            sample(text, "appserver_jobs_total", labels + "\"done\"", tool.getValue().done.get());
+            sample(text, "appserver_jobs_total", labels + "\"failed\"", tool.getValue().failed.get());
+            sample(text, "appserver_jobs_total", labels + "\"rejected\"", tool.getValue().rejected.get());
+        }
+
+        header(text, "appserver_satellite_seconds", "summary", "Latency of jobs by satellite and stage: queue_wait, connect, satellite or total");
+        for (Map.Entry<String, StageMetrics> satellite : sortedSatellites.entrySet()) {
+            stages(text, "appserver_satellite_seconds", "satellite=\"" + escape(satellite.getKey()) + "\"", satellite.getValue());
+        }
+
+        List<SatelliteLoad> loads = satellites.getLoads();
+        header(text, "appserver_satellite_jobs_in_flight", "gauge", "Jobs dispatched to a registered satellite that did not complete yet");
+        for (SatelliteLoad load : loads) {
+            sample(text, "appserver_satellite_jobs_in_flight", "satellite=\"" + escape(load.getName()) + "\"", load.getInFlight());
+        }
+        header(text, "appserver_satellite_jobs_completed_total", "counter", "Jobs a registered satellite completed since it registered");
+        for (SatelliteLoad load : loads) {
+            sample(text, "appserver_satellite_jobs_completed_total", "satellite=\"" + escape(load.getName()) + "\"", load.getCompleted());
+        }
+        header(text, "appserver_satellite_jobs_failed_total", "counter", "Jobs that failed on a registered satellite since it registered");
+        for (SatelliteLoad load : loads) {
+            sample(text, "appserver_satellite_jobs_failed_total", "satellite=\"" + escape(load.getName()) + "\"", load.getFailed());
+        }
+
+        for (Sampled metric : sampled) {
+            header(text, metric.name, metric.type, metric.help);
+            sample(text, metric.name, null, metric.value.getAsDouble());
+        }
+        return text.toString();
+    }
+
+    private static void header(StringBuilder text, String name, String type, String help) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void stages(StringBuilder text, String name, String labels, StageMetrics stages) {
+        summary(text, name, labels + ",stage=\"queue_wait\"", stages.queueWait);
+        summary(text, name, labels + ",stage=\"connect\"", stages.connect);
+        summary(text, name, labels + ",stage=\"satellite\"", stages.satellite);
+        summary(text, name, labels + ",stage=\"total\"", stages.total);
+    }
+
+    private static void summary(StringBuilder text, String name, String labels, WindowedHistogram histogram) {
+        // there are no quantiles of a window without jobs
+        LatencyHistogram window = histogram.getWindow();
+        for (double quantile : QUANTILES) {
+            double value = window.getCount() == 0 ? Double.NaN : window.getPercentile(quantile * 100) / 1e9;
+            sample(text, name, labels + ",quantile=\"" + quantile + "\"", value);
+        }
+        sample(text, name + "_sum", labels, histogram.getSum() / 1e9);
+        sample(text, name + "_count", labels, histogram.getCount());
+    }
+
+    private static void sample(StringBuilder text, String name, String labels, double value) {
+        text.append(name);
+        if (labels != null) {
+            text.append('{').append(labels).append('}');
+        }
+        text.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            text.append((long) value);
+        } else {
+            text.append(value);
+        }
+        text.append('\n');
+    }
+
+    // escapes a label value
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
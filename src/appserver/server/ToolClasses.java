@@ -0,0 +1,66 @@
+package appserver.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The class [ToolClasses] looks up the classes of tools by name, to tell which marker
+ * interfaces, e.g. Deterministic, Idempotent or SplittableTool, a tool implements.
+ * A class is loaded, but not initialized, by the lookup, so no code of a tool runs on
+ * the server just to look at it. Tools the server cannot load implement no marker interface.
+ *
+ * The tool names come from the clients, so only the most recently used ones are kept.
+ *
+ * @author sampath
+ */
+final class ToolClasses {
+
+    // the number of tool names kept at most
+    static final int MAX_TOOLS = 1024;
+
+    // the classes by tool name, empty for tools the server cannot load, in access order
+    private static final Map<String, Optional<Class<?>>> CLASSES = new LinkedHashMap<String, Optional<Class<?>>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Optional<Class<?>>> eldest) {
+            return size() > MAX_TOOLS;
+        }
+    };
+
+    private ToolClasses() {
+    }
+
+    /**
+     * Returns the class of a tool, null if the server cannot load it.
+     */
+    static Class<?> forName(String toolName) {
+        synchronized (CLASSES) {
+            Optional<Class<?>> toolClass = CLASSES.get(toolName);
+            if (toolClass != null) {
+                return toolClass.orElse(null);
+            }
+        }
+
+        Optional<Class<?>> toolClass;
+        try {
+            toolClass = Optional.of(Class.forName(toolName, false, ToolClasses.class.getClassLoader()));
+        } catch (ClassNotFoundException | LinkageError ex) {
+            toolClass = Optional.empty();
+        }
+        synchronized (CLASSES) {
+            CLASSES.put(toolName, toolClass);
+        }
+        return toolClass.orElse(null);
+    }
+
+    /**
+     * Tells whether a tool implements a marker interface.
+     *
+     * @param toolName the name of the tool class
+     * @param marker the marker interface
+     */
+    static boolean implementsMarker(String toolName, Class<?> marker) {
+        Class<?> toolClass = forName(toolName);
+        return toolClass != null && marker.isAssignableFrom(toolClass);
+    }
+}
@@ -0,0 +1,173 @@
+package utils;
+
+import java.lang.reflect.Method;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * class [ConnectionExecutor]
+ * <p>
+ * Runs the tasks of a server, e.g. one task per connection, according to the execution mode
+ * set in the server's properties file:
+ * <ul>
+ * <li><code>EXECUTION_MODE thread</code> a new platform thread per task (default)</li>
+ * <li><code>EXECUTION_MODE pool</code> a bounded pool of <code>POOL_SIZE</code> threads,
+ * with up to <code>QUEUE_CAPACITY</code> tasks waiting for a thread</li>
+ * <li><code>EXECUTION_MODE virtual</code> a new virtual thread per task, on a Java runtime
+ * that has virtual threads, a new platform thread otherwise</li>
+ * </ul>
+ * A server that runs two kinds of tasks, e.g. connections and jobs, reads the settings of one of
+ * them with a prefix, e.g. <code>CONNECTION_EXECUTION_MODE</code>.
+ * It counts the tasks that are running and the tasks that are waiting in the queue.
+ *
+ * @author manoj
+ */
+public class ConnectionExecutor {
+
+    public static final String THREAD = "thread";
+    public static final String POOL = "pool";
+    public static final String VIRTUAL = "virtual";
+
+    private final String name;
+    private final String mode;
+    private final ExecutorService executor;
+    private final ThreadPoolExecutor pool;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    /**
+     * constructor
+     *
+     * @param name the name of the server, used for the thread names
+     * @param properties the properties of the server
+     */
+    public ConnectionExecutor(String name, Properties properties) {
+        this(name, properties, "");
+    }
+
+    /**
+     * constructor
+     *
+     * @param name the name of the server, used for the thread names
+     * @param properties the properties of the server
+     * @param prefix the prefix of the keys of the settings, e.g. CONNECTION_
+     */
+    public ConnectionExecutor(String name, Properties properties, String prefix) {
+        this.name = name;
+
+        String requestedMode = properties.getProperty(prefix + "EXECUTION_MODE", THREAD).trim().toLowerCase();
+        int poolSize = Integer.parseInt(properties.getProperty(prefix + "POOL_SIZE", String.valueOf(2 * Runtime.getRuntime().availableProcessors())).trim());
+        int queueCapacity = Integer.parseInt(properties.getProperty(prefix + "QUEUE_CAPACITY", "128").trim());
+
+        ExecutorService virtualExecutor = null;
+        if (requestedMode.equals(VIRTUAL)) {
+            virtualExecutor = newVirtualThreadExecutor();
+            if (virtualExecutor == null) {
+                System.err.println("[ConnectionExecutor] Warning: virtual threads are not available on this Java runtime, using one thread per task");
+                requestedMode = THREAD;
+            }
+        }
+
+        switch (requestedMode) {
+            case POOL:
+                pool = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), this::newThread);
+                executor = pool;
+                break;
+            case VIRTUAL:
+                pool = null;
+                executor = virtualExecutor;
+                break;
+            case THREAD:
+                pool = null;
+                executor = null;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown " + prefix + "EXECUTION_MODE: " + requestedMode);
+        }
+        mode = requestedMode;
+
+        System.out.println("[ConnectionExecutor] " + name + " " + prefix + "EXECUTION_MODE: " + mode
+                + (pool != null ? ", " + prefix + "POOL_SIZE: " + poolSize + ", " + prefix + "QUEUE_CAPACITY: " + queueCapacity : ""));
+    }
+
+    /**
+     * Runs a task, or rejects it if the pool and its queue are full.
+     *
+     * @param task the task to be run
+     * @return false if the task was rejected
+     */
+    public boolean execute(Runnable task) {
+        Runnable countedTask = () -> {
+            active.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                active.decrementAndGet();
+            }
+        };
+
+        if (executor == null) {
+            newThread(countedTask).start();
+            return true;
+        }
+        try {
+            executor.execute(countedTask);
+            return true;
+        } catch (RejectedExecutionException ex) {
+            return false;
+        }
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    /**
+     * Returns the number of tasks that are running.
+     */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /**
+     * Returns the number of threads of the pool, 0 if there is no pool.
+     */
+    public int getPoolSize() {
+        return pool == null ? 0 : pool.getMaximumPoolSize();
+    }
+
+    /**
+     * Returns the number of tasks that wait for a thread of the pool, 0 if there is no pool.
+     */
+    public int getQueuedCount() {
+        return pool == null ? 0 : pool.getQueue().size();
+    }
+
+    @Override
+    public String toString() {
+        return "active: " + getActiveCount() + ", queued: " + getQueuedCount();
+    }
+
+    private Thread newThread(Runnable task) {
+        return new Thread(task, name + "-" + threadNumber.incrementAndGet());
+    }
+
+    /**
+     * Looks up Executors.newVirtualThreadPerTaskExecutor(), which exists from Java 21 on.
+     * The project is compiled for older runtimes, hence the reflection.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Class [LatencyHistogram]
+ * <p>
+ * Counts latencies in log-linear buckets, in the manner of an HDR histogram: every power
+ * of two is split into 16 buckets of equal width, so a percentile read from the histogram
+ * is off by at most 1/16 of the value, from nanoseconds up to years.
+ * <p>
+ * Recording takes no locks and does not allocate, one increment of an atomic counter per
+ * latency, so it can be done on every job. Percentiles read while latencies are recorded
+ * may lag behind by the latencies recorded meanwhile.
+ *
+ * @author sampath
+ */
+public class LatencyHistogram {
+
+    // the buckets per power of two are 2^SUB_BUCKET_BITS
+    static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // values below SUB_BUCKETS have a bucket each, then 16 buckets per power of two up to 2^63
+    static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds, negative values count as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long currentMax;
+        while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+            // another thread raised the maximum, try again
+        }
+    }
+
+    /**
+     * Adds the latencies recorded in another histogram to this one.
+     *
+     * @param other the histogram to add, it is not changed
+     */
+    public void add(LatencyHistogram other) {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            long bucketCount = other.counts.get(bucket);
+            if (bucketCount != 0) {
+                counts.addAndGet(bucket, bucketCount);
+            }
+        }
+        count.addAndGet(other.count.get());
+        sum.addAndGet(other.sum.get());
+
+        long otherMax = other.max.get();
+        long currentMax;
+        while (otherMax > (currentMax = max.get()) && !max.compareAndSet(currentMax, otherMax)) {
+            // another thread raised the maximum, try again
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the sum of all latencies in nanoseconds.
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * Returns the largest latency in nanoseconds.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the latency below which the given share of the latencies is, in nanoseconds.
+     *
+     * @param percentile the share in percent, e.g. 99.9
+     * @return the upper end of the bucket the percentile is in, never more than the largest latency,
+     *         0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(upperBound(bucket), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    // the bucket of a value
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (highestBit - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (highestBit - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    // the largest value of a bucket
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int highestBit = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = bucket % SUB_BUCKETS;
+        int shift = highestBit - SUB_BUCKET_BITS;
+        long lowerBound = (long) (SUB_BUCKETS + subBucket) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,93 @@
+package utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Class [WindowedHistogram]
+ * <p>
+ * Keeps the latencies of a recent window of time, e.g. the last minute, in a ring of
+ * LatencyHistograms that cover a slice of the window each. Percentiles are read from the
+ * slices of the window only, so a change of the latencies shows within one window instead
+ * of being diluted by all latencies since the start. The count and the sum of the latencies
+ * are kept since the start, as counters only ever go up.
+ * <p>
+ * A slice is replaced by an empty one when its turn comes round again. A latency recorded
+ * by another thread while its slice is replaced may be lost.
+ *
+ * @author sampath
+ */
+public class WindowedHistogram {
+
+    // the slices of a window, the percentiles cover between SLICES - 1 and SLICES of them
+    static final int SLICES = 6;
+
+    private final long sliceNanos;
+    private final AtomicReferenceArray<LatencyHistogram> slices = new AtomicReferenceArray<>(SLICES);
+    // the number of the slice of time each histogram covers
+    private final AtomicLongArray sliceNumbers = new AtomicLongArray(SLICES);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param windowMillis the time the percentiles cover, in milliseconds
+     */
+    public WindowedHistogram(long windowMillis) {
+        sliceNanos = Math.max(1, TimeUnit.MILLISECONDS.toNanos(windowMillis) / SLICES);
+        for (int index = 0; index < SLICES; index++) {
+            slices.set(index, new LatencyHistogram());
+            sliceNumbers.set(index, Long.MIN_VALUE);
+        }
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds, negative values count as 0
+     */
+    public void record(long nanos) {
+        long sliceNumber = Math.floorDiv(System.nanoTime(), sliceNanos);
+        int index = Math.floorMod(sliceNumber, SLICES);
+        long current = sliceNumbers.get(index);
+        if (current < sliceNumber && sliceNumbers.compareAndSet(index, current, sliceNumber)) {
+            slices.set(index, new LatencyHistogram());
+        }
+        slices.get(index).record(nanos);
+        count.incrementAndGet();
+        sum.addAndGet(Math.max(0, nanos));
+    }
+
+    /**
+     * Returns the number of latencies recorded since the start.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the sum of the latencies recorded since the start, in nanoseconds.
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * Returns the latencies recorded within the window, to read percentiles from.
+     *
+     * @return a new histogram, it does not change when more latencies are recorded
+     */
+    public LatencyHistogram getWindow() {
+        long oldest = Math.floorDiv(System.nanoTime(), sliceNanos) - SLICES + 1;
+        LatencyHistogram window = new LatencyHistogram();
+        for (int index = 0; index < SLICES; index++) {
+            if (sliceNumbers.get(index) >= oldest) {
+                window.add(slices.get(index));
+            }
+        }
+        return window;
+    }
+}
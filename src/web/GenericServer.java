@@ -17,8 +17,8 @@ import utils.PropertyHandler;
  */
 public abstract class GenericServer implements Runnable {
 
-    static ServerSocket serverSocket;
-    static int port;
+    protected ServerSocket serverSocket;
+    protected int port;
 
     protected Socket socket;
 
@@ -39,6 +39,13 @@ public abstract class GenericServer implements Runnable {
         this.port = port;
     }
 
+    /**
+     * The Constructor for servers that are configured by their owner, not by a properties file
+     */
+    public GenericServer(int port) {
+        this.port = port;
+    }
+
     /**
      * The method <code>run()</code> implements the interface
      * <code>Runnable</code>
@@ -0,0 +1,85 @@
+package web;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.StringTokenizer;
+import java.util.function.Supplier;
+
+/**
+ * Class [MetricsWebServer]
+ *
+ * A web server that answers every GET with the current metrics of its owner, in the text
+ * format of Prometheus, so the metrics can be scraped.
+ *
+ * Scrapes are rare and quick, so they are served one at a time on the thread of the server.
+ */
+public class MetricsWebServer extends GenericServer {
+
+    // the time a scraper may take to send its request
+    static final int READ_TIMEOUT_MILLIS = 5000;
+
+    private final Supplier<String> metrics;
+
+    /**
+     * The constructor
+     *
+     * @param port the port to listen on
+     * @param metrics renders the metrics
+     */
+    public MetricsWebServer(int port, Supplier<String> metrics) {
+        super(port);
+        this.metrics = metrics;
+    }
+
+    /**
+     * The method <code>processConnection()</code> sends the metrics to the scraper.
+     */
+    protected void processConnection(Socket socket) {
+        try {
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            BufferedReader readFromNet = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            PrintStream writeToNet = new PrintStream(socket.getOutputStream());
+
+            String inputLine = readFromNet.readLine();
+            if (inputLine == null) {
+                return;
+            }
+            StringTokenizer tokenizer = new StringTokenizer(inputLine);
+            String httpMethod = tokenizer.hasMoreTokens() ? tokenizer.nextToken() : "";
+
+            // Skip the rest
+            while ((inputLine = readFromNet.readLine()) != null) {
+                if (inputLine.trim().equals("")) {
+                    break;
+                }
+            }
+
+            if (httpMethod.equals("GET")) {
+                byte[] theData = metrics.get().getBytes(StandardCharsets.UTF_8);
+                writeToNet.print("HTTP/1.0 200 OK\r\n");
+                writeToNet.print("Date: " + new Date() + "\r\n");
+                writeToNet.print("Content-length: " + theData.length + "\r\n");
+                writeToNet.print("Content-type: text/plain; version=0.0.4; charset=utf-8\r\n\r\n");
+                writeToNet.write(theData);
+            } else {
+                writeToNet.print("HTTP/1.0 501 Not Implemented\r\n");
+                writeToNet.print("Date: " + new Date() + "\r\n");
+                writeToNet.print("Content-type: text/plain\r\n\r\n");
+                writeToNet.println("Method " + httpMethod + " is not supported");
+            }
+            writeToNet.close();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[MetricsWebServer.processConnection] Warning: " + e.getMessage());
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+}
@@ -11,6 +11,7 @@ import java.net.Socket;
 import java.util.Date;
 import java.util.Properties;
 import java.util.StringTokenizer;
+import utils.ConnectionExecutor;
 import utils.PropertyHandler;
 
 /**
@@ -24,6 +25,7 @@ public class SimpleWebServer extends GenericServer {
 
     static String documentRoot;
     static String indexfile = "index.html";
+    static ConnectionExecutor connectionExecutor;
 
     /**
      * The constructor
@@ -36,6 +38,7 @@ public class SimpleWebServer extends GenericServer {
             Properties properties;
             properties = new PropertyHandler(webServerPropertiesFile);
             documentRoot = properties.getProperty("DOC_ROOT");
+            connectionExecutor = new ConnectionExecutor("SocketThread", properties);
 
         } catch (Exception e) {
             System.err.println("Properties file " + webServerPropertiesFile + " not found, exiting ...");
@@ -48,14 +51,22 @@ public class SimpleWebServer extends GenericServer {
      * of the web server.
      */
     protected void processConnection(Socket socket) {
-        (new SocketThread(socket)).start();
+        if (!connectionExecutor.execute(new SocketThread(socket))) {
+            System.err.println("[SimpleWebServer.processConnection] Warning: too many connections, closing connection (" + connectionExecutor + ")");
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+            return;
+        }
+        System.out.println("[SimpleWebServer.processConnection] " + connectionExecutor);
     }
 
     /**
      * Inner Class [SocketThread] This thread processes a client (web browser)
      * request. In the meantime the web server can accept other clients.
      */
-    class SocketThread extends Thread {
+    class SocketThread implements Runnable {
 
         Socket socket = null;
 
@@ -0,0 +1,304 @@
+package appserver.comm;
+
+import appserver.job.Job;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Class [BinaryCodecTest] Encodes a message of every type with the content it carries in the
+ * application, decodes it again and compares the two. Frames that are not messages must fail
+ * to decode with an IOException.
+ *
+ * @author sampath
+ */
+public class BinaryCodecTest {
+
+    @Test
+    public void jobRequest() throws IOException {
+        Job job = new Job("appserver.job.impl.PlusOne", 42, "batch", 3);
+        job.setTrace(trace());
+        job.setChunkedResult(true);
+
+        Message message = roundTrip(new Message(MessageTypes.JOB_REQUEST, job, 7));
+        assertEquals(MessageTypes.JOB_REQUEST, message.getType());
+        assertEquals(7, message.getCorrelationId());
+        assertJob(job, (Job) message.getContent());
+    }
+
+    @Test
+    public void registerSatellite() throws IOException {
+        assertSatellite(MessageTypes.REGISTER_SATELLITE);
+    }
+
+    @Test
+    public void unregisterSatellite() throws IOException {
+        assertSatellite(MessageTypes.UNREGISTER_SATELLITE);
+    }
+
+    @Test
+    public void heartbeat() throws IOException {
+        assertSatellite(MessageTypes.HEARTBEAT);
+    }
+
+    @Test
+    public void jobResult() throws IOException {
+        Message sent = new Message(MessageTypes.JOB_RESULT, 43, 9);
+        sent.setTrace(trace());
+
+        Message message = roundTrip(sent);
+        assertEquals(MessageTypes.JOB_RESULT, message.getType());
+        assertEquals(9, message.getCorrelationId());
+        assertEquals(43, message.getContent());
+        assertTrace(sent.getTrace(), message.getTrace());
+    }
+
+    @Test
+    public void jobResultValues() throws IOException {
+        BigInteger big = BigInteger.valueOf(Long.MAX_VALUE).pow(3).negate();
+        assertEquals(big, roundTrip(new Message(MessageTypes.JOB_RESULT, big)).getContent());
+        assertEquals(12345678901L, roundTrip(new Message(MessageTypes.JOB_RESULT, 12345678901L)).getContent());
+        assertEquals(0.25, roundTrip(new Message(MessageTypes.JOB_RESULT, 0.25)).getContent());
+        assertEquals("result", roundTrip(new Message(MessageTypes.JOB_RESULT, "result")).getContent());
+        assertNull(roundTrip(new Message(MessageTypes.JOB_RESULT, null)).getContent());
+        assertArrayEquals(new int[] {1, -2, 3}, (int[]) roundTrip(new Message(MessageTypes.JOB_RESULT, new int[] {1, -2, 3})).getContent());
+        assertArrayEquals(new long[] {4, -5}, (long[]) roundTrip(new Message(MessageTypes.JOB_RESULT, new long[] {4, -5})).getContent());
+        assertArrayEquals(new double[] {0.5, -1.5}, (double[]) roundTrip(new Message(MessageTypes.JOB_RESULT, new double[] {0.5, -1.5})).getContent(), 0);
+
+        StreamedResult streamed = (StreamedResult) roundTrip(new Message(MessageTypes.JOB_RESULT, new StreamedResult(161, 10520833))).getContent();
+        assertEquals(161, streamed.getChunks());
+        assertEquals(10520833, streamed.getLength());
+
+        // a class the codec does not know is serialized
+        Date date = new Date(1234567890L);
+        assertEquals(date, roundTrip(new Message(MessageTypes.JOB_RESULT, date)).getContent());
+    }
+
+    @Test
+    public void submitJob() throws IOException {
+        Job job = new Job("appserver.job.impl.Fibonacci", 30, null, Job.DEFAULT_PRIORITY);
+
+        Message message = roundTrip(new Message(MessageTypes.SUBMIT_JOB, job));
+        assertEquals(MessageTypes.SUBMIT_JOB, message.getType());
+        assertJob(job, (Job) message.getContent());
+    }
+
+    @Test
+    public void jobStatus() throws IOException {
+        assertEquals(17L, roundTrip(new Message(MessageTypes.JOB_STATUS, 17L)).getContent());
+        for (JobStatus status : JobStatus.values()) {
+            assertEquals(status, roundTrip(new Message(MessageTypes.JOB_RESULT, status)).getContent());
+        }
+    }
+
+    @Test
+    public void fetchResult() throws IOException {
+        Message message = roundTrip(new Message(MessageTypes.FETCH_RESULT, new FetchRequest(17, 500)));
+        assertEquals(MessageTypes.FETCH_RESULT, message.getType());
+        FetchRequest fetchRequest = (FetchRequest) message.getContent();
+        assertEquals(17, fetchRequest.getJobId());
+        assertEquals(500, fetchRequest.getWaitMillis());
+    }
+
+    @Test
+    public void jobBatch() throws IOException {
+        List<Job> jobs = Arrays.asList(new Job("appserver.job.impl.PlusOne", 1), new Job("appserver.job.impl.PlusOne", 2));
+
+        Message message = roundTrip(new Message(MessageTypes.JOB_BATCH, jobs));
+        assertEquals(MessageTypes.JOB_BATCH, message.getType());
+        List<?> decoded = (List<?>) message.getContent();
+        assertEquals(jobs.size(), decoded.size());
+        for (int i = 0; i < jobs.size(); i++) {
+            assertJob(jobs.get(i), (Job) decoded.get(i));
+        }
+
+        // the reply to a batch holds a message per job
+        List<Message> results = Arrays.asList(new Message(MessageTypes.JOB_RESULT, 2), new Message(MessageTypes.SERVER_BUSY, 250L));
+        List<?> decodedResults = (List<?>) roundTrip(new Message(MessageTypes.JOB_RESULT, results)).getContent();
+        assertEquals(2, ((Message) decodedResults.get(0)).getContent());
+        assertEquals(MessageTypes.SERVER_BUSY, ((Message) decodedResults.get(1)).getType());
+    }
+
+    @Test
+    public void serverBusy() throws IOException {
+        Message message = roundTrip(new Message(MessageTypes.SERVER_BUSY, 250L, 11));
+        assertEquals(MessageTypes.SERVER_BUSY, message.getType());
+        assertEquals(11, message.getCorrelationId());
+        assertEquals(250L, message.getContent());
+    }
+
+    @Test
+    public void pullJobs() throws IOException {
+        Message message = roundTrip(new Message(MessageTypes.PULL_JOBS, new PullRequest("Earth", 8)));
+        assertEquals(MessageTypes.PULL_JOBS, message.getType());
+        PullRequest pullRequest = (PullRequest) message.getContent();
+        assertEquals("Earth", pullRequest.getSatelliteName());
+        assertEquals(8, pullRequest.getSlots());
+
+        // the server's answer to the offer
+        assertEquals(Boolean.TRUE, roundTrip(new Message(MessageTypes.PULL_JOBS, Boolean.TRUE)).getContent());
+    }
+
+    @Test
+    public void cancelJob() throws IOException {
+        Message message = roundTrip(new Message(MessageTypes.CANCEL_JOB, null, 13));
+        assertEquals(MessageTypes.CANCEL_JOB, message.getType());
+        assertEquals(13, message.getCorrelationId());
+        assertNull(message.getContent());
+    }
+
+    @Test
+    public void resultChunk() throws IOException {
+        byte[] chunk = new byte[1000];
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = (byte) i;
+        }
+
+        Message message = roundTrip(new Message(MessageTypes.RESULT_CHUNK, chunk, 5));
+        assertEquals(MessageTypes.RESULT_CHUNK, message.getType());
+        assertEquals(5, message.getCorrelationId());
+        assertArrayEquals(chunk, (byte[]) message.getContent());
+    }
+
+    @Test
+    public void truncatedFrames() throws IOException {
+        Job job = new Job("appserver.job.impl.PlusOne", 42);
+        job.setTrace(trace());
+        byte[] frame = BinaryCodec.encode(new Message(MessageTypes.JOB_REQUEST, job));
+        for (int length = 0; length < frame.length; length++) {
+            assertBadFrame(Arrays.copyOf(frame, length));
+        }
+    }
+
+    @Test
+    public void badJobStatus() throws IOException {
+        byte[] frame = BinaryCodec.encode(new Message(MessageTypes.JOB_RESULT, JobStatus.DONE));
+        frame[frame.length - 2] = 99;
+        assertBadFrame(frame);
+        frame[frame.length - 2] = -1;
+        assertBadFrame(frame);
+    }
+
+    @Test
+    public void badValues() throws IOException {
+        byte[] frame = BinaryCodec.encode(new Message(MessageTypes.JOB_RESULT, 1));
+        // the tag of the content follows the type and the correlation id
+        frame[12] = 99;
+        assertBadFrame(frame);
+
+        // a big integer without bytes
+        frame = BinaryCodec.encode(new Message(MessageTypes.JOB_RESULT, new byte[0]));
+        frame[12] = BinaryCodec.BIG_INTEGER;
+        assertBadFrame(frame);
+
+        // content where a trace belongs
+        frame = BinaryCodec.encode(new Message(MessageTypes.JOB_RESULT, 1));
+        frame[frame.length - 1] = BinaryCodec.BOOLEAN;
+        assertBadFrame(Arrays.copyOf(frame, frame.length + 1));
+
+        // a huge length
+        frame = BinaryCodec.encode(new Message(MessageTypes.RESULT_CHUNK, new byte[4]));
+        frame[13] = 0x7f;
+        assertBadFrame(frame);
+    }
+
+    @Test
+    public void nesting() throws IOException {
+        Object nested = 1;
+        for (int depth = 0; depth < 10; depth++) {
+            nested = Collections.singletonList(nested);
+        }
+        assertEquals(nested, roundTrip(new Message(MessageTypes.JOB_RESULT, nested)).getContent());
+
+        // lists in lists, deeper than any stack, must not overflow it
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(MessageTypes.JOB_RESULT);
+        output.writeLong(0);
+        for (int depth = 0; depth < 200000; depth++) {
+            output.writeByte(BinaryCodec.LIST);
+            output.writeInt(1);
+        }
+        output.writeByte(BinaryCodec.NULL);
+        output.writeByte(BinaryCodec.NULL);
+        assertBadFrame(bytes.toByteArray());
+    }
+
+    private static Message roundTrip(Message message) throws IOException {
+        byte[] frame = BinaryCodec.encode(message);
+        return BinaryCodec.decode(frame, 0, frame.length);
+    }
+
+    private static void assertBadFrame(byte[] frame) {
+        try {
+            BinaryCodec.decode(frame, 0, frame.length);
+            fail("Decoded a bad frame of " + frame.length + " bytes");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+
+    private static void assertSatellite(int type) throws IOException {
+        ConnectivityInfo info = new ConnectivityInfo();
+        info.setName("Venus");
+        info.setHost("127.0.0.1");
+        info.setPort(23659);
+        info.setCapacity(new SatelliteCapacity(4, 8, 1.5, 1000, 2000));
+
+        Message message = roundTrip(new Message(type, info));
+        assertEquals(type, message.getType());
+        ConnectivityInfo decoded = (ConnectivityInfo) message.getContent();
+        assertEquals(info.getName(), decoded.getName());
+        assertEquals(info.getHost(), decoded.getHost());
+        assertEquals(info.getPort(), decoded.getPort());
+        SatelliteCapacity capacity = decoded.getCapacity();
+        assertEquals(4, capacity.getProcessors());
+        assertEquals(8, capacity.getWorkerSlots());
+        assertEquals(1.5, capacity.getLoadAverage(), 0);
+        assertEquals(1000, capacity.getFreeHeapBytes());
+        assertEquals(2000, capacity.getMaxHeapBytes());
+
+        // the host is not known before the server sets it
+        info.setHost(null);
+        assertNull(((ConnectivityInfo) roundTrip(new Message(type, info)).getContent()).getHost());
+    }
+
+    private static void assertJob(Job expected, Job actual) {
+        assertEquals(expected.getToolName(), actual.getToolName());
+        assertEquals(expected.getParameters(), actual.getParameters());
+        assertEquals(expected.getTenant(), actual.getTenant());
+        assertEquals(expected.getPriority(), actual.getPriority());
+        assertEquals(expected.isChunkedResult(), actual.isChunkedResult());
+        if (expected.getTrace() == null) {
+            assertNull(actual.getTrace());
+        } else {
+            assertTrace(expected.getTrace(), actual.getTrace());
+        }
+    }
+
+    private static void assertTrace(TimingTrace expected, TimingTrace actual) {
+        assertNotNull(actual);
+        for (int stage = 0; stage < TimingTrace.STAGE_NAMES.length; stage++) {
+            assertEquals(expected.get(stage), actual.get(stage));
+        }
+    }
+
+    private static TimingTrace trace() {
+        TimingTrace trace = new TimingTrace();
+        for (int stage = 0; stage < TimingTrace.STAGE_NAMES.length; stage++) {
+            trace.record(stage, 1000L * (stage + 1));
+        }
+        return trace;
+    }
+}
@@ -0,0 +1,150 @@
+package appserver.server;
+
+import appserver.job.Job;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Class [ConsistentHashPolicyTest] Places the jobs of many tools on a ring of satellites and
+ * checks that a tool stays on its satellite, that a satellite that comes or goes only moves the
+ * tools next to it, and that the jobs of a hot tool spill over once its satellite is above the bound.
+ *
+ * @author sampath
+ */
+public class ConsistentHashPolicyTest {
+
+    private static final int TOOLS = 200;
+
+    private final ConsistentHashPolicy policy = new ConsistentHashPolicy();
+
+    private static List<SatelliteLoad> satellites(int count) {
+        List<SatelliteLoad> satellites = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            satellites.add(new SatelliteLoad("Satellite-" + i));
+        }
+        return satellites;
+    }
+
+    private static Job job(String toolName) {
+        return new Job(toolName, 1);
+    }
+
+    // the satellite each tool goes to, while no satellite has jobs in flight
+    private Map<String, SatelliteLoad> placement(List<SatelliteLoad> registered, List<SatelliteLoad> candidates) {
+        Map<String, SatelliteLoad> placement = new HashMap<>();
+        for (int tool = 0; tool < TOOLS; tool++) {
+            String toolName = "appserver.job.impl.Tool" + tool;
+            placement.put(toolName, policy.select(registered, candidates, job(toolName)));
+        }
+        return placement;
+    }
+
+    @Test
+    public void sendsToolToSameSatellite() {
+        List<SatelliteLoad> satellites = satellites(4);
+        SatelliteLoad first = policy.select(satellites, job("appserver.job.impl.PlusOne"));
+        for (int i = 0; i < 10; i++) {
+            assertSame(first, policy.select(satellites, job("appserver.job.impl.PlusOne")));
+        }
+    }
+
+    @Test
+    public void spreadsToolsOverSatellites() {
+        List<SatelliteLoad> satellites = satellites(4);
+        Map<SatelliteLoad, Integer> tools = new HashMap<>();
+        for (SatelliteLoad satellite : placement(satellites, satellites).values()) {
+            tools.merge(satellite, 1, Integer::sum);
+        }
+
+        assertEquals(4, tools.size());
+        for (int count : tools.values()) {
+            // a fair share is 50 tools each
+            assertTrue("unbalanced ring " + tools, count >= 25 && count <= 75);
+        }
+    }
+
+    @Test
+    public void spillsOverAboveTheBound() {
+        List<SatelliteLoad> satellites = satellites(4);
+        Job hot = job("appserver.job.impl.PlusOne");
+        SatelliteLoad owner = policy.select(satellites, hot);
+
+        // 1 job in flight: at most ceil(1.25 * 2 / 4) = 1 job per satellite, counting the next one
+        owner.jobStarted();
+        SatelliteLoad spilled = policy.select(satellites, hot);
+        assertTrue(spilled != owner);
+        assertEquals(0, spilled.getInFlight());
+
+        // 2 jobs on each satellite: at most ceil(1.25 * 9 / 4) = 3, the owner has room again
+        owner.jobStarted();
+        for (SatelliteLoad satellite : satellites) {
+            while (satellite.getInFlight() < 2) {
+                satellite.jobStarted();
+            }
+        }
+        assertSame(owner, policy.select(satellites, hot));
+    }
+
+    @Test
+    public void boundsLoadOfHotTool() {
+        List<SatelliteLoad> satellites = satellites(4);
+        Job hot = job("appserver.job.impl.PlusOne");
+        for (int i = 0; i < 100; i++) {
+            policy.select(satellites, hot).jobStarted();
+        }
+
+        for (SatelliteLoad satellite : satellites) {
+            // ceil(1.25 * 100 / 4)
+            assertTrue(satellite + " above the bound", satellite.getInFlight() <= 32);
+        }
+    }
+
+    @Test
+    public void movesOnlyToolsOfSatelliteThatComesOrGoes() {
+        List<SatelliteLoad> satellites = satellites(4);
+        Map<String, SatelliteLoad> before = placement(satellites, satellites);
+
+        List<SatelliteLoad> grown = new ArrayList<>(satellites);
+        SatelliteLoad added = new SatelliteLoad("Satellite-4");
+        grown.add(added);
+        Map<String, SatelliteLoad> after = placement(grown, grown);
+        int moved = 0;
+        for (Map.Entry<String, SatelliteLoad> tool : after.entrySet()) {
+            if (tool.getValue() != before.get(tool.getKey())) {
+                assertSame(added, tool.getValue());
+                moved++;
+            }
+        }
+        // a fair share of the new satellite is 40 tools
+        assertTrue("moved " + moved + " tools", moved > 0 && moved <= 80);
+
+        // the ring is rebuilt when the satellite goes again
+        assertEquals(before, placement(satellites, satellites));
+    }
+
+    @Test
+    public void skipsSatellitesThatAreNoCandidates() {
+        List<SatelliteLoad> satellites = satellites(4);
+        Map<String, SatelliteLoad> before = placement(satellites, satellites);
+
+        SatelliteLoad full = satellites.get(0);
+        List<SatelliteLoad> candidates = Arrays.asList(satellites.get(1), satellites.get(2), satellites.get(3));
+        Map<String, SatelliteLoad> after = placement(satellites, candidates);
+        for (Map.Entry<String, SatelliteLoad> tool : after.entrySet()) {
+            assertTrue(tool.getValue() != full);
+            if (before.get(tool.getKey()) != full) {
+                // the tools of the other satellites stay where they are
+                assertSame(before.get(tool.getKey()), tool.getValue());
+            }
+        }
+
+        assertSame(satellites.get(2), policy.select(satellites, Arrays.asList(satellites.get(2)), job("appserver.job.impl.PlusOne")));
+    }
+}
@@ -0,0 +1,197 @@
+package appserver.server;
+
+import appserver.comm.ConnectivityInfo;
+import appserver.job.Job;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Class [DispatchQueueTest] Admits jobs to satellites that are not there: the dispatcher of the
+ * test records the order the jobs are dispatched in, and either holds them until the test
+ * completes them, or completes them right away. One satellite with room for one job makes
+ * the queue start the waiting jobs one by one, in the order of their priority and their tenants.
+ *
+ * @author sampath
+ */
+public class DispatchQueueTest {
+
+    // records the jobs it is given, and holds them until they are completed
+    private static class RecordingDispatcher extends JobDispatcher {
+
+        final List<Job> dispatched = Collections.synchronizedList(new ArrayList<>());
+        final List<CompletableFuture<Object>> results = Collections.synchronizedList(new ArrayList<>());
+        // the jobs that come after the held ones complete right away
+        volatile boolean completeAtOnce = false;
+
+        RecordingDispatcher() {
+            super(null, null, null, null, 0, null, null);
+        }
+
+        @Override
+        public CompletableFuture<Object> dispatch(Job job) {
+            CompletableFuture<Object> result = completeAtOnce ? CompletableFuture.completedFuture(job.getParameters()) : new CompletableFuture<>();
+            results.add(result);
+            dispatched.add(job);
+            return result;
+        }
+
+        // completes the job dispatched as the given one
+        void complete(int index) {
+            results.get(index).complete(dispatched.get(index).getParameters());
+        }
+
+        // waits until the given number of jobs was dispatched, as the queue starts waiting jobs on a thread of its own
+        void awaitDispatched(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (dispatched.size() < count) {
+                if (System.nanoTime() > deadline) {
+                    fail("dispatched " + dispatched.size() + " of " + count + " jobs");
+                }
+                TimeUnit.MILLISECONDS.sleep(1);
+            }
+        }
+
+        String tenants(int from, int to) {
+            StringBuilder tenants = new StringBuilder();
+            synchronized (dispatched) {
+                for (Job job : dispatched.subList(from, to)) {
+                    tenants.append(job.getTenant());
+                }
+            }
+            return tenants.toString();
+        }
+    }
+
+    private final RecordingDispatcher dispatcher = new RecordingDispatcher();
+
+    // a queue in front of satellites with room for the given number of jobs
+    private DispatchQueue queue(int satelliteCount, int maxJobsPerSatellite, int capacity) {
+        SatelliteRegistry registry = new SatelliteRegistry();
+        for (int i = 0; i < satelliteCount; i++) {
+            ConnectivityInfo info = new ConnectivityInfo();
+            info.setName("Satellite-" + i);
+            info.setPort(20000 + i);
+            registry.register(info);
+        }
+        return new DispatchQueue(dispatcher, registry, maxJobsPerSatellite, capacity,
+                new ServerMetrics(registry, 60000, Collections.<String>emptySet()));
+    }
+
+    private static Job job(Object parameters, String tenant, int priority) {
+        return new Job("appserver.job.impl.PlusOne", parameters, tenant, priority);
+    }
+
+    @Test
+    public void queuesJobsBeyondTheSlotsAndRejectsWhenFull() throws Exception {
+        DispatchQueue queue = queue(1, 2, 2);
+        CompletableFuture<Object> first = queue.submit(job(1, "a", 0));
+        queue.submit(job(2, "a", 0));
+        queue.submit(job(3, "a", 0));
+        queue.submit(job(4, "a", 0));
+        CompletableFuture<Object> rejected = queue.submit(job(5, "a", 0));
+
+        assertEquals(2, dispatcher.dispatched.size());
+        assertEquals(2, queue.getRunning());
+        assertEquals(2, queue.getQueueDepth());
+        assertTrue(queue.isFull());
+        try {
+            rejected.get();
+            fail("the job was admitted");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof ServerBusyException);
+        }
+        assertEquals(1, queue.getRejected());
+
+        dispatcher.complete(0);
+        assertEquals(1, first.get(5, TimeUnit.SECONDS));
+        dispatcher.awaitDispatched(3);
+        assertEquals(3, dispatcher.dispatched.get(2).getParameters());
+        assertEquals(1, queue.getQueueDepth());
+    }
+
+    @Test
+    public void startsHigherPriorityFirst() throws Exception {
+        DispatchQueue queue = queue(1, 1, 10);
+        queue.submit(job(0, "a", 0));
+        queue.submit(job(1, "a", 0));
+        queue.submit(job(2, "b", 5));
+        queue.submit(job(3, "a", 5));
+
+        dispatcher.completeAtOnce = true;
+        dispatcher.complete(0);
+        dispatcher.awaitDispatched(4);
+        // the jobs of priority 5 first, in the turns of their tenants, then the one of priority 0
+        assertEquals(5, dispatcher.dispatched.get(1).getPriority());
+        assertEquals(5, dispatcher.dispatched.get(2).getPriority());
+        assertEquals(1, dispatcher.dispatched.get(3).getParameters());
+    }
+
+    @Test
+    public void sharesSlotsByWeight() throws Exception {
+        DispatchQueue queue = queue(1, 1, 100);
+        queue.setTenantLimits("a", 3, 0);
+        queue.setTenantLimits("b", 1, 0);
+        queue.submit(job(0, "x", 0));
+        for (int i = 0; i < 8; i++) {
+            queue.submit(job(i, "a", 0));
+        }
+        for (int i = 0; i < 8; i++) {
+            queue.submit(job(i, "b", 0));
+        }
+
+        dispatcher.completeAtOnce = true;
+        dispatcher.complete(0);
+        dispatcher.awaitDispatched(17);
+        // 3 jobs of a for each job of b while both wait, then the rest of b
+        assertEquals("AAABAAABAABBBBBB", dispatcher.tenants(1, 17).toUpperCase());
+    }
+
+    @Test
+    public void limitsJobsOfATenant() throws Exception {
+        DispatchQueue queue = queue(1, 4, 10);
+        queue.setTenantLimits("a", 1, 1);
+        queue.submit(job(1, "a", 0));
+        queue.submit(job(2, "a", 0));
+        queue.submit(job(3, "b", 0));
+
+        // b starts right away, though a job of a came first
+        assertEquals("ab", dispatcher.tenants(0, dispatcher.dispatched.size()));
+        assertEquals(1, queue.getQueueDepth("a"));
+
+        dispatcher.complete(0);
+        dispatcher.awaitDispatched(3);
+        assertEquals(2, dispatcher.dispatched.get(2).getParameters());
+    }
+
+    @Test
+    public void forgetsIdleTenants() throws Exception {
+        DispatchQueue queue = queue(1, 1, 1);
+        queue.setTenantLimits("configured", 2, 0);
+        queue.submit(job(1, "made-up", 0));
+        queue.submit(job(2, "waiting", 0));
+        assertEquals(3, queue.getTenantCount());
+
+        // a tenant whose job is rejected has nothing left to keep
+        assertTrue(queue.submit(job(3, "rejected", 0)).isCompletedExceptionally());
+        assertEquals(3, queue.getTenantCount());
+
+        dispatcher.completeAtOnce = true;
+        dispatcher.complete(0);
+        dispatcher.awaitDispatched(2);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (queue.getTenantCount() > 1 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        // the tenant whose limits were set is kept without jobs
+        assertEquals(1, queue.getTenantCount());
+        assertEquals(0, queue.getRunning());
+    }
+}
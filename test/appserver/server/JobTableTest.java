@@ -0,0 +1,172 @@
+package appserver.server;
+
+import appserver.comm.JobStatus;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Class [JobTableTest] Fills the table up to its capacity, also from many threads at once, and
+ * fetches results with and without waiting for them. A result must be handed out once only, and
+ * every place must be given back once its job is gone from the table.
+ *
+ * @author manoj
+ */
+public class JobTableTest {
+
+    @Test
+    public void rejectsJobsWhenFull() {
+        JobTable table = new JobTable(2, 60000);
+        assertTrue(table.add(CompletableFuture::new) > 0);
+        assertTrue(table.add(CompletableFuture::new) > 0);
+        assertEquals(-1, table.add(CompletableFuture::new));
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    public void concurrentAddsDoNotOverfill() throws InterruptedException {
+        int capacity = 50;
+        JobTable table = new JobTable(capacity, 60000);
+        AtomicInteger added = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+
+        Thread[] submitters = new Thread[8];
+        for (int i = 0; i < submitters.length; i++) {
+            submitters[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                for (int job = 0; job < 20; job++) {
+                    if (table.add(CompletableFuture::new) > 0) {
+                        added.incrementAndGet();
+                    }
+                }
+            });
+            submitters[i].start();
+        }
+        start.countDown();
+        for (Thread submitter : submitters) {
+            submitter.join();
+        }
+
+        assertEquals(capacity, added.get());
+        assertEquals(capacity, table.size());
+    }
+
+    @Test
+    public void dropsExpiredResultsToMakeRoom() throws InterruptedException {
+        JobTable table = new JobTable(1, 0);
+        assertTrue(table.add(() -> CompletableFuture.completedFuture(1)) > 0);
+        TimeUnit.MILLISECONDS.sleep(2);
+
+        assertTrue(table.add(CompletableFuture::new) > 0);
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void keepsRunningJobs() {
+        JobTable table = new JobTable(1, 0);
+        long jobId = table.add(CompletableFuture::new);
+
+        assertEquals(-1, table.add(CompletableFuture::new));
+        assertEquals(JobStatus.RUNNING, table.getStatus(jobId));
+    }
+
+    @Test
+    public void handsOutResultOnce() throws Exception {
+        JobTable table = new JobTable(4, 60000);
+        long jobId = table.add(() -> CompletableFuture.completedFuture(43));
+        assertEquals(JobStatus.DONE, table.getStatus(jobId));
+
+        assertEquals(43, table.fetch(jobId, 0).get());
+        assertEquals(JobStatus.UNKNOWN, table.fetch(jobId, 0).get());
+        assertEquals(JobStatus.UNKNOWN, table.getStatus(jobId));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void concurrentFetchesHandOutResultOnce() throws Exception {
+        JobTable table = new JobTable(4, 60000);
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        long jobId = table.add(() -> result);
+        CompletableFuture<Object> first = table.fetch(jobId, 5000);
+        CompletableFuture<Object> second = table.fetch(jobId, 5000);
+
+        result.complete(43);
+        Object firstOutcome = first.get(5, TimeUnit.SECONDS);
+        Object secondOutcome = second.get(5, TimeUnit.SECONDS);
+        assertTrue(firstOutcome.equals(43) != secondOutcome.equals(43));
+        assertEquals(JobStatus.UNKNOWN, firstOutcome.equals(43) ? secondOutcome : firstOutcome);
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void fetchWithoutWaitingReportsRunning() throws Exception {
+        JobTable table = new JobTable(4, 60000);
+        long jobId = table.add(CompletableFuture::new);
+
+        assertEquals(JobStatus.RUNNING, table.fetch(jobId, 0).get());
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void fetchWaitsForResult() throws Exception {
+        JobTable table = new JobTable(4, 60000);
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        long jobId = table.add(() -> result);
+
+        CompletableFuture<Object> fetched = table.fetch(jobId, 5000);
+        assertFalse(fetched.isDone());
+        result.complete(43);
+        assertEquals(43, fetched.get(5, TimeUnit.SECONDS));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void timedOutFetchKeepsResult() throws Exception {
+        JobTable table = new JobTable(4, 60000);
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        long jobId = table.add(() -> result);
+
+        assertEquals(JobStatus.RUNNING, table.fetch(jobId, 20).get(5, TimeUnit.SECONDS));
+        result.complete(43);
+        assertEquals(JobStatus.DONE, table.getStatus(jobId));
+        assertEquals(1, table.size());
+
+        assertEquals(43, table.fetch(jobId, 0).get());
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void failedJobGivesBackItsPlace() throws Exception {
+        JobTable table = new JobTable(1, 60000);
+        long jobId = table.add(() -> CompletableFuture.failedFuture(new IOException("satellite gone")));
+        assertEquals(JobStatus.FAILED, table.getStatus(jobId));
+
+        assertEquals(JobStatus.FAILED, table.fetch(jobId, 0).get());
+        assertTrue(table.add(CompletableFuture::new) > 0);
+    }
+
+    @Test
+    public void jobThatFailsToStartGivesBackItsPlace() {
+        JobTable table = new JobTable(1, 60000);
+        try {
+            table.add(() -> {
+                throw new IllegalStateException("no dispatcher");
+            });
+            fail("the job started");
+        } catch (IllegalStateException expected) {
+            assertEquals(0, table.size());
+        }
+        assertTrue(table.add(CompletableFuture::new) > 0);
+    }
+}
@@ -0,0 +1,97 @@
+package utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Class [LatencyHistogramTest] Checks that every value falls into a bucket that covers it and is
+ * at most 1/16 of the value wide, and that percentiles read from the buckets are within that
+ * error of the exact ones.
+ *
+ * @author sampath
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void smallValuesHaveBucketEach() {
+        for (long value = 0; value < 2 * LatencyHistogram.SUB_BUCKETS; value++) {
+            assertEquals(value, LatencyHistogram.bucket(value));
+            assertEquals(value, LatencyHistogram.upperBound((int) value));
+        }
+        // from 32 on, 16 buckets per power of two are 2 values wide
+        assertEquals(32, LatencyHistogram.bucket(32));
+        assertEquals(32, LatencyHistogram.bucket(33));
+        assertEquals(33, LatencyHistogram.upperBound(32));
+    }
+
+    @Test
+    public void bucketsCoverTheirValues() {
+        long[] values = {16, 17, 100, 1000, 4095, 4096, 123456789, 1L << 40, (1L << 40) + 1, Long.MAX_VALUE / 3, Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = LatencyHistogram.bucket(value);
+            assertTrue(bucket < LatencyHistogram.BUCKETS);
+            long upper = LatencyHistogram.upperBound(bucket);
+            long lower = LatencyHistogram.upperBound(bucket - 1) + 1;
+            assertTrue(value + " not in [" + lower + ", " + upper + "]", lower <= value && value <= upper);
+            assertTrue(value + " in a bucket too wide", upper - lower < Math.max(1, value / LatencyHistogram.SUB_BUCKETS) + 1);
+        }
+    }
+
+    @Test
+    public void bucketsFollowEachOther() {
+        for (int bucket = 1; bucket < LatencyHistogram.BUCKETS; bucket++) {
+            long lower = LatencyHistogram.upperBound(bucket - 1) + 1;
+            assertEquals(bucket, LatencyHistogram.bucket(lower));
+            assertEquals(bucket, LatencyHistogram.bucket(LatencyHistogram.upperBound(bucket)));
+        }
+    }
+
+    @Test
+    public void percentilesAreWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500000L, histogram.getSum());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500000, histogram.getPercentile(50), 500000.0 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(990000, histogram.getPercentile(99), 990000.0 / LatencyHistogram.SUB_BUCKETS);
+        // the upper end of the last bucket is cut at the largest latency
+        assertEquals(1000000, histogram.getPercentile(100));
+        assertEquals(1000, histogram.getPercentile(0), 1000.0 / LatencyHistogram.SUB_BUCKETS);
+    }
+
+    @Test
+    public void emptyAndNegative() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(99));
+
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getSum());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void addsOtherHistogram() {
+        LatencyHistogram fast = new LatencyHistogram();
+        LatencyHistogram slow = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            fast.record(1000);
+        }
+        for (int i = 0; i < 10; i++) {
+            slow.record(1000000);
+        }
+
+        fast.add(slow);
+        assertEquals(100, fast.getCount());
+        assertEquals(90 * 1000 + 10 * 1000000, fast.getSum());
+        assertEquals(1000000, fast.getMax());
+        assertEquals(1000, fast.getPercentile(90), 1000.0 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(1000000, fast.getPercentile(91));
+        assertEquals(10, slow.getCount());
+    }
+}
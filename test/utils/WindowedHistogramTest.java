@@ -0,0 +1,64 @@
+package utils;
+
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Class [WindowedHistogramTest] Records latencies into a window of a few dozen milliseconds and
+ * checks that they drop out of the percentiles once the window moved on, while the count and
+ * the sum since the start keep them.
+ *
+ * @author sampath
+ */
+public class WindowedHistogramTest {
+
+    // 10 ms per slice
+    private static final long WINDOW_MILLIS = 10 * WindowedHistogram.SLICES;
+
+    @Test
+    public void windowHoldsRecentLatencies() {
+        WindowedHistogram histogram = new WindowedHistogram(WINDOW_MILLIS);
+        histogram.record(1000);
+        histogram.record(2000);
+
+        LatencyHistogram window = histogram.getWindow();
+        assertEquals(2, window.getCount());
+        assertEquals(2000, window.getMax());
+        assertEquals(2, histogram.getCount());
+        assertEquals(3000, histogram.getSum());
+    }
+
+    @Test
+    public void latenciesLeaveWindow() throws InterruptedException {
+        WindowedHistogram histogram = new WindowedHistogram(WINDOW_MILLIS);
+        histogram.record(1000000);
+        TimeUnit.MILLISECONDS.sleep(2 * WINDOW_MILLIS);
+
+        assertEquals(0, histogram.getWindow().getCount());
+        histogram.record(1000);
+        LatencyHistogram window = histogram.getWindow();
+        assertEquals(1, window.getCount());
+        assertEquals(1000, window.getMax());
+        // counters only ever go up
+        assertEquals(2, histogram.getCount());
+        assertEquals(1001000, histogram.getSum());
+    }
+
+    @Test
+    public void slicesAreReusedAsWindowMoves() throws InterruptedException {
+        WindowedHistogram histogram = new WindowedHistogram(WINDOW_MILLIS);
+        long sliceMillis = WINDOW_MILLIS / WindowedHistogram.SLICES;
+        int recorded = 3 * WindowedHistogram.SLICES;
+        // at most one latency per slice, as each sleep takes at least a slice
+        for (int i = 0; i < recorded; i++) {
+            histogram.record(1000);
+            TimeUnit.MILLISECONDS.sleep(sliceMillis);
+        }
+
+        long inWindow = histogram.getWindow().getCount();
+        assertTrue(inWindow + " latencies in the window", inWindow <= WindowedHistogram.SLICES);
+        assertEquals(recorded, histogram.getCount());
+    }
+}